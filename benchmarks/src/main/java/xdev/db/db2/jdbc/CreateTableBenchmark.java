@@ -0,0 +1,76 @@
+/*
+ * SqlEngine Database Adapter DB2 - XAPI SqlEngine Database Adapter for DB2
+ * Copyright © 2003 XDEV Software (https://xdev.software)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package xdev.db.db2.jdbc;
+
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Statement building of {@link DB2JDBCConnection#createTable}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CreateTableBenchmark
+{
+	@Param({"8","64"})
+	public int					columnCount;
+	
+	@Param({"false","true"})
+	public boolean				autoIncrement;
+	
+	private Map<String, String>	columns;
+	
+	
+	@Setup
+	public void setup()
+	{
+		String[] types = {"INTEGER","VARCHAR(255)","DECIMAL(15,2)","TIMESTAMP"};
+		columns = new LinkedHashMap<String, String>();
+		columns.put("ID","INTEGER");
+		for(int i = 1; i < columnCount; i++)
+		{
+			columns.put("COLUMN_" + i,types[i % types.length]);
+		}
+	}
+	
+	
+	@Benchmark
+	public String createTableStatement()
+	{
+		return DB2JDBCConnection.createTableStatement("APP.CUSTOMER","ID",columns,autoIncrement);
+	}
+}
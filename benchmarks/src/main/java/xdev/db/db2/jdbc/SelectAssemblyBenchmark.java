@@ -0,0 +1,155 @@
+/*
+ * SqlEngine Database Adapter DB2 - XAPI SqlEngine Database Adapter for DB2
+ * Copyright © 2003 XDEV Software (https://xdev.software)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package xdev.db.db2.jdbc;
+
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import xdev.db.sql.SELECT;
+import xdev.db.sql.Table;
+
+
+/**
+ * Assembly of row limits and complete SELECTs by {@link DB2DMLAssembler}, for
+ * plain queries, native <code>OFFSET</code> paging and the
+ * <code>ROW_NUMBER()</code> emulation of older servers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SelectAssemblyBenchmark
+{
+	@Param({"PLAIN","NATIVE_OFFSET","EMULATED_OFFSET"})
+	public String			paging;
+	
+	private DB2DMLAssembler	assembler;
+	private SELECT			select;
+	private StringBuilder	sb;
+	
+	
+	@Setup
+	public void setup() throws SQLException
+	{
+		DB2Dbms dbms = new DB2Dbms();
+		if("NATIVE_OFFSET".equals(paging))
+		{
+			dbms.detectServerVersion(ServerVersion.create("SQL11050",11,5));
+		}
+		else
+		{
+			dbms.detectServerVersion(ServerVersion.create("SQL10050",10,5));
+		}
+		assembler = new DB2DMLAssembler(dbms);
+		
+		select = new SELECT().columns("ID","NAME","CREATED","AMOUNT").FROM(
+				new Table("APP","CUSTOMER","C"));
+		select.FETCH_FIRST_ROWS_ONLY(50);
+		if(!"PLAIN".equals(paging))
+		{
+			select.OFFSET_SKIP_ROWS(1000);
+		}
+		
+		sb = new StringBuilder(256);
+	}
+	
+	
+	@Benchmark
+	public StringBuilder assembleSelectRowLimit()
+	{
+		sb.setLength(0);
+		return assembler.assembleSelectRowLimit(select,sb,0," ","\n",0);
+	}
+	
+	
+	@Benchmark
+	public StringBuilder assembleSELECT()
+	{
+		sb.setLength(0);
+		return assembler.assembleSELECT(select,sb,0,0," ","\n");
+	}
+	
+	
+	
+	/**
+	 * Answers the version calls of
+	 * {@link DB2Dbms#detectServerVersion(DatabaseMetaData)} without a server.
+	 */
+	static final class ServerVersion implements InvocationHandler
+	{
+		private final String	productVersion;
+		private final int		major;
+		private final int		minor;
+		
+		
+		private ServerVersion(String productVersion, int major, int minor)
+		{
+			this.productVersion = productVersion;
+			this.major = major;
+			this.minor = minor;
+		}
+		
+		
+		static DatabaseMetaData create(String productVersion, int major, int minor)
+		{
+			return (DatabaseMetaData)Proxy.newProxyInstance(
+					DatabaseMetaData.class.getClassLoader(),
+					new Class<?>[]{DatabaseMetaData.class},new ServerVersion(productVersion,major,
+							minor));
+		}
+		
+		
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args)
+		{
+			String name = method.getName();
+			if("getDatabaseProductVersion".equals(name))
+			{
+				return productVersion;
+			}
+			if("getDatabaseMajorVersion".equals(name))
+			{
+				return major;
+			}
+			if("getDatabaseMinorVersion".equals(name))
+			{
+				return minor;
+			}
+			throw new UnsupportedOperationException(name);
+		}
+	}
+}
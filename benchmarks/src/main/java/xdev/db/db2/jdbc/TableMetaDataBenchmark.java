@@ -0,0 +1,124 @@
+/*
+ * SqlEngine Database Adapter DB2 - XAPI SqlEngine Database Adapter for DB2
+ * Copyright © 2003 XDEV Software (https://xdev.software)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package xdev.db.db2.jdbc;
+
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import xdev.db.DBException;
+import xdev.db.DBMetaData;
+import xdev.db.DBMetaData.TableInfo;
+import xdev.db.DBMetaData.TableMetaData;
+import xdev.db.DBMetaData.TableType;
+
+
+/**
+ * Mapping of the column, primary key and index result sets to a
+ * {@link TableMetaData} by {@link DB2JDBCMetaData}, against an in-memory H2
+ * database in DB2 compatibility mode.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TableMetaDataBenchmark
+{
+	private static final String	URL	= "jdbc:h2:mem:db2bench;MODE=DB2;DB_CLOSE_DELAY=-1";
+	
+	private Connection			connection;
+	private DatabaseMetaData	meta;
+	private DB2JDBCConnection	jdbcConnection;
+	private DB2JDBCMetaData		metaData;
+	private TableInfo			table;
+	
+	
+	@Setup
+	public void setup() throws SQLException, DBException
+	{
+		connection = DriverManager.getConnection(URL);
+		Statement statement = connection.createStatement();
+		try
+		{
+			statement.execute("DROP TABLE IF EXISTS CUSTOMER");
+			statement.execute("CREATE TABLE CUSTOMER (ID INTEGER NOT NULL PRIMARY KEY, "
+					+ "NAME VARCHAR(100) NOT NULL, EMAIL VARCHAR(255), "
+					+ "STATUS CHAR(1) DEFAULT 'A' NOT NULL, BALANCE DECIMAL(15,2) DEFAULT 0, "
+					+ "CREATED TIMESTAMP DEFAULT CURRENT_TIMESTAMP, NOTES CLOB(1M))");
+			statement.execute("CREATE UNIQUE INDEX CUSTOMER_EMAIL ON CUSTOMER (EMAIL)");
+			statement.execute("CREATE INDEX CUSTOMER_NAME ON CUSTOMER (NAME, STATUS)");
+		}
+		finally
+		{
+			statement.close();
+		}
+		meta = connection.getMetaData();
+		
+		DB2JDBCDataSource dataSource = new DB2JDBCDataSource();
+		jdbcConnection = new DB2JDBCConnection(dataSource)
+		{
+			@Override
+			protected Connection establishConnection() throws DBException
+			{
+				try
+				{
+					return DriverManager.getConnection(URL);
+				}
+				catch(SQLException e)
+				{
+					throw new DBException(dataSource,e);
+				}
+			}
+		};
+		metaData = new DB2JDBCMetaData(dataSource);
+		table = new TableInfo(TableType.TABLE,null,"CUSTOMER");
+	}
+	
+	
+	@TearDown
+	public void tearDown() throws SQLException, DBException
+	{
+		jdbcConnection.close();
+		connection.close();
+	}
+	
+	
+	@Benchmark
+	public TableMetaData getTableMetaData() throws SQLException, DBException
+	{
+		return metaData.getTableMetaData(jdbcConnection,meta,DBMetaData.INDICES,table);
+	}
+}
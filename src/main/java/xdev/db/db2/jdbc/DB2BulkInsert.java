@@ -0,0 +1,696 @@
+/*
+ * SqlEngine Database Adapter DB2 - XAPI SqlEngine Database Adapter for DB2
+ * Copyright © 2003 XDEV Software (https://xdev.software)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package xdev.db.db2.jdbc;
+
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Iterator;
+
+
+/**
+ * Bulk insert of a row stream into one table.
+ * <p>
+ * The rows are written with one of the {@link Strategy strategies} and
+ * committed every {@link #setCommitInterval(int) commit interval} rows. A
+ * {@link Listener} is notified after each batch with the throughput of the
+ * batch.
+ *
+ * @see DB2JDBCConnection#bulkInsert(DB2BulkInsert, Iterator)
+ */
+public class DB2BulkInsert
+{
+	/**
+	 * Maximum number of parameter markers of a DB2 statement.
+	 */
+	private static final int	MAX_PARAMETERS	= 32767;
+	
+	
+	
+	/**
+	 * The way the rows are sent to the server.
+	 */
+	public static enum Strategy
+	{
+		/**
+		 * One prepared <code>INSERT</code>, rows are sent as JDBC batches of
+		 * {@link DB2BulkInsert#getBatchSize()} rows.
+		 */
+		BATCH,
+		
+		/**
+		 * <code>INSERT ... VALUES (...),(...)</code> with
+		 * {@link DB2BulkInsert#getBatchSize()} rows per statement, limited by
+		 * the maximum number of parameter markers.
+		 */
+		MULTI_ROW_VALUES,
+		
+		/**
+		 * The rows are staged in DEL files which are loaded by the server
+		 * with <code>SYSPROC.ADMIN_CMD('LOAD ...')</code>. Requires a
+		 * {@link DB2BulkInsert#setStagingDirectory(File) staging directory}
+		 * which is readable by the database server. Binary values are not
+		 * supported.
+		 * <p>
+		 * The utility commits each loaded file on its own, so the files
+		 * loaded before a failure are not rolled back. With a
+		 * {@link DB2BulkInsert#setCommitInterval(int) commit interval} of 0
+		 * all rows are loaded from one file.
+		 */
+		LOAD
+	}
+	
+	
+	
+	/**
+	 * Receives the progress of a bulk insert.
+	 */
+	public static interface Listener
+	{
+		/**
+		 * Called after each batch (LOAD: after each loaded file).
+		 * 
+		 * @param rowCount
+		 *            the number of rows of the batch
+		 * @param totalRowCount
+		 *            the number of rows written so far
+		 * @param nanos
+		 *            the duration of the batch in nanoseconds
+		 */
+		public void batchExecuted(int rowCount, long totalRowCount, long nanos);
+	}
+	
+	
+	private final String	table;
+	private final String[]	columns;
+	private Strategy		strategy			= Strategy.BATCH;
+	private int				batchSize			= 1000;
+	private int				commitInterval		= 10000;
+	private File			stagingDirectory;
+	private String			serverStagingDirectory;
+	private boolean			loadRecoverable		= false;
+	private Listener		listener;
+	
+	private long			totalRowCount;
+	private long			uncommittedRowCount;
+	
+	
+	/**
+	 * The table and column names are delimited if necessary, so they have to
+	 * be given as in the catalog. A table name which contains
+	 * <code>"</code> is used as is.
+	 * 
+	 * @param table
+	 *            the (qualified) table name, <code>SCHEMA.TABLE</code>
+	 * @param columns
+	 *            the column names, in the order of the row values
+	 */
+	public DB2BulkInsert(String table, String... columns)
+	{
+		this.table = table;
+		this.columns = columns.clone();
+	}
+	
+	
+	/**
+	 * @return the (qualified) table name
+	 */
+	public String getTable()
+	{
+		return table;
+	}
+	
+	
+	/**
+	 * @return the strategy, default is {@link Strategy#BATCH}
+	 */
+	public Strategy getStrategy()
+	{
+		return strategy;
+	}
+	
+	
+	/**
+	 * @param strategy
+	 *            the strategy
+	 */
+	public void setStrategy(Strategy strategy)
+	{
+		this.strategy = strategy != null ? strategy : Strategy.BATCH;
+	}
+	
+	
+	/**
+	 * @return the number of rows sent per round trip, default is 1000
+	 */
+	public int getBatchSize()
+	{
+		return batchSize;
+	}
+	
+	
+	/**
+	 * @param batchSize
+	 *            the number of rows sent per round trip
+	 */
+	public void setBatchSize(int batchSize)
+	{
+		this.batchSize = Math.max(1,batchSize);
+	}
+	
+	
+	/**
+	 * @return the number of rows after which is committed, default is 10000
+	 */
+	public int getCommitInterval()
+	{
+		return commitInterval;
+	}
+	
+	
+	/**
+	 * Sets the number of rows after which is committed. The commit is done
+	 * after the batch which reaches the interval. With {@link Strategy#LOAD}
+	 * this is the number of rows per staged file.
+	 * 
+	 * @param commitInterval
+	 *            the number of rows, 0 to commit only at the end
+	 */
+	public void setCommitInterval(int commitInterval)
+	{
+		this.commitInterval = Math.max(0,commitInterval);
+	}
+	
+	
+	/**
+	 * @return the local directory the files for {@link Strategy#LOAD} are
+	 *         staged in
+	 */
+	public File getStagingDirectory()
+	{
+		return stagingDirectory;
+	}
+	
+	
+	/**
+	 * @param stagingDirectory
+	 *            the local directory the files for {@link Strategy#LOAD} are
+	 *            staged in
+	 */
+	public void setStagingDirectory(File stagingDirectory)
+	{
+		this.stagingDirectory = stagingDirectory;
+	}
+	
+	
+	/**
+	 * @return the path of the staging directory as seen by the database
+	 *         server
+	 */
+	public String getServerStagingDirectory()
+	{
+		return serverStagingDirectory;
+	}
+	
+	
+	/**
+	 * Sets the path of the staging directory on the database server, if it
+	 * is mounted under another path than locally. Default is the local path.
+	 * 
+	 * @param serverStagingDirectory
+	 *            the path on the server
+	 */
+	public void setServerStagingDirectory(String serverStagingDirectory)
+	{
+		this.serverStagingDirectory = serverStagingDirectory;
+	}
+	
+	
+	/**
+	 * @return <code>true</code> if the load is recoverable
+	 */
+	public boolean isLoadRecoverable()
+	{
+		return loadRecoverable;
+	}
+	
+	
+	/**
+	 * By default the load is <code>NONRECOVERABLE</code>, which does not put
+	 * the table space into backup-pending state but requires a backup to
+	 * restore the loaded data. Set to <code>true</code> if the database uses
+	 * archive logging and the load has to be recoverable, the table space is
+	 * then in backup-pending state after the load.
+	 * 
+	 * @param loadRecoverable
+	 *            <code>true</code> for a recoverable load
+	 */
+	public void setLoadRecoverable(boolean loadRecoverable)
+	{
+		this.loadRecoverable = loadRecoverable;
+	}
+	
+	
+	/**
+	 * @return the listener or <code>null</code>
+	 */
+	public Listener getListener()
+	{
+		return listener;
+	}
+	
+	
+	/**
+	 * @param listener
+	 *            the listener to notify after each batch
+	 */
+	public void setListener(Listener listener)
+	{
+		this.listener = listener;
+	}
+	
+	
+	/**
+	 * Writes all <code>rows</code> with a connection which is not in
+	 * auto-commit mode.
+	 * 
+	 * @param connection
+	 *            the connection
+	 * @param rows
+	 *            the rows, each array holds the values of the columns
+	 * @return the number of inserted rows
+	 * @throws SQLException
+	 *             if a database error occurs, uncommitted rows are rolled
+	 *             back; files loaded with {@link Strategy#LOAD} are
+	 *             committed
+	 * @throws IOException
+	 *             if a staged file cannot be written
+	 */
+	public long execute(Connection connection, Iterator<Object[]> rows) throws SQLException,
+			IOException
+	{
+		totalRowCount = 0;
+		uncommittedRowCount = 0;
+		
+		try
+		{
+			switch(strategy)
+			{
+				case MULTI_ROW_VALUES:
+					insertMultiRow(connection,rows);
+				break;
+				
+				case LOAD:
+					load(connection,rows);
+				break;
+				
+				default:
+					insertBatch(connection,rows);
+			}
+			connection.commit();
+		}
+		catch(SQLException e)
+		{
+			rollback(connection);
+			throw e;
+		}
+		catch(IOException e)
+		{
+			rollback(connection);
+			throw e;
+		}
+		catch(RuntimeException e)
+		{
+			rollback(connection);
+			throw e;
+		}
+		
+		return totalRowCount;
+	}
+	
+	
+	private void insertBatch(Connection connection, Iterator<Object[]> rows)
+			throws SQLException
+	{
+		PreparedStatement statement = connection.prepareStatement(createInsert(1));
+		try
+		{
+			int[] types = getParameterTypes(statement);
+			int count = 0;
+			long start = System.nanoTime();
+			while(rows.hasNext())
+			{
+				bind(statement,0,rows.next(),types);
+				statement.addBatch();
+				if(++count == batchSize)
+				{
+					statement.executeBatch();
+					batchExecuted(connection,count,start);
+					count = 0;
+					start = System.nanoTime();
+				}
+			}
+			if(count > 0)
+			{
+				statement.executeBatch();
+				batchExecuted(connection,count,start);
+			}
+		}
+		finally
+		{
+			statement.close();
+		}
+	}
+	
+	
+	private void insertMultiRow(Connection connection, Iterator<Object[]> rows)
+			throws SQLException
+	{
+		int rowsPerStatement = Math.max(1,Math.min(batchSize,MAX_PARAMETERS / columns.length));
+		Object[][] chunk = new Object[rowsPerStatement][];
+		
+		PreparedStatement statement = connection.prepareStatement(createInsert(rowsPerStatement));
+		try
+		{
+			int[] types = getParameterTypes(statement);
+			int count = 0;
+			long start = System.nanoTime();
+			while(rows.hasNext())
+			{
+				chunk[count++] = rows.next();
+				if(count == rowsPerStatement)
+				{
+					executeChunk(statement,chunk,count,types);
+					batchExecuted(connection,count,start);
+					count = 0;
+					start = System.nanoTime();
+				}
+			}
+			
+			if(count > 0)
+			{
+				PreparedStatement rest = connection.prepareStatement(createInsert(count));
+				try
+				{
+					executeChunk(rest,chunk,count,types);
+				}
+				finally
+				{
+					rest.close();
+				}
+				batchExecuted(connection,count,start);
+			}
+		}
+		finally
+		{
+			statement.close();
+		}
+	}
+	
+	
+	private void executeChunk(PreparedStatement statement, Object[][] chunk, int count,
+			int[] types) throws SQLException
+	{
+		for(int i = 0; i < count; i++)
+		{
+			bind(statement,i * columns.length,chunk[i],types);
+			chunk[i] = null;
+		}
+		statement.executeUpdate();
+	}
+	
+	
+	private void load(Connection connection, Iterator<Object[]> rows) throws SQLException,
+			IOException
+	{
+		if(stagingDirectory == null)
+		{
+			throw new IllegalStateException("No staging directory set for LOAD");
+		}
+		
+		Charset charset = Charset.forName("UTF-8");
+		StringBuilder sb = new StringBuilder(256);
+		while(rows.hasNext())
+		{
+			long start = System.nanoTime();
+			File file = File.createTempFile("db2load",".del",stagingDirectory);
+			try
+			{
+				int count = 0;
+				Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(
+						file),charset),65536);
+				try
+				{
+					while(rows.hasNext() && (commitInterval == 0 || count < commitInterval))
+					{
+						Object[] row = rows.next();
+						sb.setLength(0);
+						for(int i = 0; i < columns.length; i++)
+						{
+							if(i > 0)
+							{
+								sb.append(DB2DelFormat.COLUMN_DELIMITER);
+							}
+							DB2DelFormat.appendValue(sb,row[i]);
+						}
+						sb.append(DB2DelFormat.ROW_DELIMITER);
+						writer.append(sb);
+						count++;
+					}
+				}
+				finally
+				{
+					writer.close();
+				}
+				
+				long loaded = executeLoad(connection,file);
+				totalRowCount += loaded >= 0 ? loaded : count;
+				notifyListener(count,start);
+			}
+			finally
+			{
+				file.delete();
+			}
+		}
+	}
+	
+	
+	/**
+	 * @return the number of loaded rows reported by the utility or -1
+	 */
+	private long executeLoad(Connection connection, File file) throws SQLException
+	{
+		String path = serverStagingDirectory != null ? serverStagingDirectory + "/"
+				+ file.getName() : file.getAbsolutePath();
+		
+		if(path.indexOf('"') >= 0)
+		{
+			throw new SQLException("File name cannot be quoted: " + path);
+		}
+		
+		// quoted, the path may contain blanks
+		StringBuilder command = new StringBuilder();
+		command.append("LOAD FROM \"").append(path).append('"');
+		command.append(" OF DEL MODIFIED BY CODEPAGE=1208 MESSAGES ON SERVER INSERT INTO ");
+		appendTable(command);
+		command.append(" (");
+		appendColumns(command);
+		command.append(")");
+		if(!loadRecoverable)
+		{
+			command.append(" NONRECOVERABLE");
+		}
+		
+		CallableStatement statement = connection.prepareCall("CALL SYSPROC.ADMIN_CMD(?)");
+		try
+		{
+			statement.setString(1,command.toString());
+			long loaded = -1;
+			if(statement.execute())
+			{
+				ResultSet rs = statement.getResultSet();
+				try
+				{
+					if(rs.next())
+					{
+						loaded = rs.getLong("ROWS_LOADED");
+					}
+				}
+				finally
+				{
+					rs.close();
+				}
+			}
+			// LOAD commits on its own
+			connection.commit();
+			return loaded;
+		}
+		finally
+		{
+			statement.close();
+		}
+	}
+	
+	
+	private void batchExecuted(Connection connection, int count, long start)
+			throws SQLException
+	{
+		totalRowCount += count;
+		uncommittedRowCount += count;
+		if(commitInterval > 0 && uncommittedRowCount >= commitInterval)
+		{
+			connection.commit();
+			uncommittedRowCount = 0;
+		}
+		notifyListener(count,start);
+	}
+	
+	
+	private void notifyListener(int count, long start)
+	{
+		if(listener != null)
+		{
+			listener.batchExecuted(count,totalRowCount,System.nanoTime() - start);
+		}
+	}
+	
+	
+	private String createInsert(int rowCount)
+	{
+		StringBuilder sb = new StringBuilder(64 + rowCount * columns.length * 2);
+		sb.append("INSERT INTO ");
+		appendTable(sb);
+		sb.append(" (");
+		appendColumns(sb);
+		sb.append(") VALUES ");
+		for(int row = 0; row < rowCount; row++)
+		{
+			if(row > 0)
+			{
+				sb.append(',');
+			}
+			sb.append('(');
+			for(int i = 0; i < columns.length; i++)
+			{
+				sb.append(i > 0 ? ",?" : "?");
+			}
+			sb.append(')');
+		}
+		return sb.toString();
+	}
+	
+	
+	private void appendTable(StringBuilder sb)
+	{
+		if(table.indexOf('"') >= 0)
+		{
+			sb.append(table);
+			return;
+		}
+		
+		int dot = table.indexOf('.');
+		if(dot >= 0)
+		{
+			DB2Dbms.SYNTAX.appendIdentifier(table.substring(0,dot),sb);
+			sb.append('.');
+		}
+		DB2Dbms.SYNTAX.appendIdentifier(table.substring(dot + 1),sb);
+	}
+	
+	
+	private void appendColumns(StringBuilder sb)
+	{
+		for(int i = 0; i < columns.length; i++)
+		{
+			if(i > 0)
+			{
+				sb.append(", ");
+			}
+			DB2Dbms.SYNTAX.appendIdentifier(columns[i],sb);
+		}
+	}
+	
+	
+	/**
+	 * The types are needed to bind null values, they are described once per
+	 * statement.
+	 */
+	private int[] getParameterTypes(PreparedStatement statement)
+	{
+		int[] types = new int[columns.length];
+		try
+		{
+			ParameterMetaData meta = statement.getParameterMetaData();
+			for(int i = 0; i < types.length; i++)
+			{
+				types[i] = meta.getParameterType(i + 1);
+			}
+		}
+		catch(SQLException e)
+		{
+			for(int i = 0; i < types.length; i++)
+			{
+				types[i] = Types.VARCHAR;
+			}
+		}
+		return types;
+	}
+	
+	
+	private void bind(PreparedStatement statement, int offset, Object[] row, int[] types)
+			throws SQLException
+	{
+		for(int i = 0; i < columns.length; i++)
+		{
+			Object value = row[i];
+			if(value == null)
+			{
+				statement.setNull(offset + i + 1,types[i]);
+			}
+			else
+			{
+				statement.setObject(offset + i + 1,value);
+			}
+		}
+	}
+	
+	
+	private void rollback(Connection connection)
+	{
+		try
+		{
+			connection.rollback();
+		}
+		catch(SQLException e)
+		{
+			// the original exception is reported
+		}
+	}
+}
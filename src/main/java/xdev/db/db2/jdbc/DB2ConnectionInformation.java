@@ -17,6 +17,13 @@
  */
 package xdev.db.db2.jdbc;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
 import com.xdev.jadoth.sqlengine.dbms.DbmsConnectionInformation;
 import xdev.db.ConnectionInformation;
 
@@ -24,6 +31,89 @@ import xdev.db.ConnectionInformation;
 
 public class DB2ConnectionInformation extends ConnectionInformation<DB2Dbms>
 {
+	/**
+	 * Host and port of a DB2 server or member.
+	 */
+	public static final class Server
+	{
+		private final String	host;
+		private final int		port;
+		
+		
+		/**
+		 * Instantiates a new server.
+		 * 
+		 * @param host
+		 *            the host name
+		 * @param port
+		 *            the port
+		 */
+		public Server(final String host, final int port)
+		{
+			this.host = host;
+			this.port = port;
+		}
+		
+		
+		/**
+		 * Gets the host name.
+		 * 
+		 * @return the host name
+		 */
+		public String getHost()
+		{
+			return this.host;
+		}
+		
+		
+		/**
+		 * Gets the port.
+		 * 
+		 * @return the port
+		 */
+		public int getPort()
+		{
+			return this.port;
+		}
+		
+		
+		@Override
+		public boolean equals(final Object obj)
+		{
+			if(!(obj instanceof Server))
+			{
+				return false;
+			}
+			final Server other = (Server)obj;
+			return this.port == other.port && this.host.equalsIgnoreCase(other.host);
+		}
+		
+		
+		@Override
+		public int hashCode()
+		{
+			return this.host.toLowerCase(Locale.ENGLISH).hashCode() * 31 + this.port;
+		}
+		
+		
+		@Override
+		public String toString()
+		{
+			return this.host + ":" + this.port;
+		}
+	}
+	
+	// /////////////////////////////////////////////////////////////////////////
+	// instance fields //
+	// ///////////////////
+	
+	/** Driver properties which are appended to the url. */
+	private final Map<String, String>	properties			= new LinkedHashMap<String, String>();
+	
+	/** Servers the driver reroutes to if the primary server is not available. */
+	private final List<Server>			alternateServers	= new ArrayList<Server>();
+	
+	
 	// /////////////////////////////////////////////////////////////////////////
 	// constructors //
 	// ///////////////////
@@ -64,9 +154,197 @@ public class DB2ConnectionInformation extends ConnectionInformation<DB2Dbms>
 	}
 	
 	
+	/**
+	 * Gets the driver property <code>name</code>.
+	 * 
+	 * @param name
+	 *            the property name
+	 * @return the property value or <code>null</code>
+	 */
+	public String getProperty(final String name)
+	{
+		return this.properties.get(name);
+	}
+	
+	
+	/**
+	 * Gets the effective value of the driver property <code>name</code>,
+	 * including the properties of the url extension.
+	 * 
+	 * @param name
+	 *            the property name
+	 * @return the property value or <code>null</code>
+	 */
+	public String getUrlProperty(final String name)
+	{
+		final Map<String, String> merged = new LinkedHashMap<String, String>(this.properties);
+		return parseUrlExtension(merged) ? merged.get(name) : null;
+	}
+	
+	
+	/**
+	 * Gets the alternate servers of the client reroute.
+	 * 
+	 * @return the alternate servers in the order they are tried
+	 */
+	public List<Server> getAlternateServers()
+	{
+		return Collections.unmodifiableList(this.alternateServers);
+	}
+	
+	
+	/**
+	 * Returns whether the driver properties set with
+	 * {@link #setProperty(String, String)} are part of the url, which is the
+	 * case unless the url extension has a form other than
+	 * <code>:name=value;</code>.
+	 * 
+	 * @return <code>true</code> if the properties are applied by the url
+	 */
+	public boolean isUrlPropertiesApplicable()
+	{
+		return parseUrlExtension(new LinkedHashMap<String, String>());
+	}
+	
+	
+	/**
+	 * Returns whether the driver caches prepared statements, which is enabled
+	 * by the <code>maxStatements</code> property.
+	 * 
+	 * @return <code>true</code> if the driver's statement cache is enabled
+	 */
+	public boolean isDriverStatementCacheEnabled()
+	{
+		final String maxStatements = getUrlProperty("maxStatements");
+		if(maxStatements == null)
+		{
+			return false;
+		}
+		try
+		{
+			return Integer.parseInt(maxStatements.trim()) > 0;
+		}
+		catch(final NumberFormatException e)
+		{
+			return false;
+		}
+	}
+	
+	
 	// /////////////////////////////////////////////////////////////////////////
 	// setters //
 	// ///////////////////
+	/**
+	 * Sets a driver property, e.g. <code>currentSchema</code>. Properties of
+	 * the url extension take precedence.
+	 * 
+	 * @param name
+	 *            the property name
+	 * @param value
+	 *            the property value, <code>null</code> to remove the property
+	 */
+	public void setProperty(final String name, final String value)
+	{
+		if(value == null)
+		{
+			this.properties.remove(name);
+		}
+		else
+		{
+			this.properties.put(name,value);
+		}
+	}
+	
+	
+	/**
+	 * Adds an alternate server of the client reroute, e.g. a HADR standby or
+	 * another pureScale member.
+	 * 
+	 * @param host
+	 *            the host name
+	 * @param port
+	 *            the port
+	 */
+	public void addAlternateServer(final String host, final int port)
+	{
+		final Server server = new Server(host,port);
+		if(!this.alternateServers.contains(server))
+		{
+			this.alternateServers.add(server);
+		}
+	}
+	
+	
+	/**
+	 * Adds the alternate servers of a comma separated list of the form
+	 * <code>host:port,host:port</code>. Entries without a port use the port
+	 * of the primary server.
+	 * 
+	 * @see #parseServers(String, int)
+	 * 
+	 * @param servers
+	 *            the server list, may be <code>null</code>
+	 * @throws IllegalArgumentException
+	 *             if a port is not a number
+	 */
+	public void addAlternateServers(final String servers)
+	{
+		for(final Server server : parseServers(servers,getPort()))
+		{
+			addAlternateServer(server.getHost(),server.getPort());
+		}
+	}
+	
+	
+	/**
+	 * Parses a comma separated server list of the form
+	 * <code>host:port,host:port</code>.
+	 * 
+	 * @param servers
+	 *            the server list, may be <code>null</code>
+	 * @param defaultPort
+	 *            the port of entries without a port
+	 * @return the servers
+	 * @throws IllegalArgumentException
+	 *             if a port is not a number
+	 */
+	public static List<Server> parseServers(final String servers, final int defaultPort)
+	{
+		final List<Server> list = new ArrayList<Server>();
+		if(servers == null)
+		{
+			return list;
+		}
+		for(String server : servers.split(","))
+		{
+			server = server.trim();
+			if(server.length() == 0)
+			{
+				continue;
+			}
+			final int index = server.lastIndexOf(':');
+			// an IPv6 address without port has more than one colon
+			if(index > 0 && (server.indexOf(':') == index || server.charAt(index - 1) == ']'))
+			{
+				try
+				{
+					list.add(new Server(server.substring(0,index).trim(),
+							Integer.parseInt(server.substring(index + 1).trim())));
+				}
+				catch(final NumberFormatException e)
+				{
+					throw new IllegalArgumentException("Invalid port: " + server);
+				}
+			}
+			else
+			{
+				list.add(new Server(server,defaultPort));
+			}
+		}
+		return list;
+	}
+	
+	
 	/**
 	 * Sets the database.
 	 * 
@@ -89,7 +367,32 @@ public class DB2ConnectionInformation extends ConnectionInformation<DB2Dbms>
 	public String createJdbcConnectionUrl()
 	{
 		String url = "jdbc:db2://" + getHost() + ":" + getPort() + "/" + getCatalog();
-		return appendUrlExtension(url);
+		if(this.properties.isEmpty() && this.alternateServers.isEmpty())
+		{
+			return appendUrlExtension(url);
+		}
+		
+		final Map<String, String> extension = new LinkedHashMap<String, String>();
+		if(!parseUrlExtension(extension))
+		{
+			// not in the ':name=value;' form of the driver, keep it untouched
+			return appendUrlExtension(url);
+		}
+		
+		// the extension may enable the client affinities, its properties
+		// take precedence
+		final Map<String, String> merged = new LinkedHashMap<String, String>(this.properties);
+		merged.putAll(extension);
+		putAlternateServers(merged);
+		merged.putAll(extension);
+		
+		final StringBuilder sb = new StringBuilder(url);
+		sb.append(':');
+		for(final Map.Entry<String, String> entry : merged.entrySet())
+		{
+			sb.append(entry.getKey()).append('=').append(entry.getValue()).append(';');
+		}
+		return sb.toString();
 	}
 	
 	
@@ -102,4 +405,78 @@ public class DB2ConnectionInformation extends ConnectionInformation<DB2Dbms>
 		return "com.ibm.db2.jcc.DB2Driver";
 	}
 	
+	
+	// /////////////////////////////////////////////////////////////////////////
+	// declared methods //
+	// ///////////////////
+	/**
+	 * Puts the alternate servers into the client reroute properties. The
+	 * client affinities list has to start with the primary server.
+	 */
+	private void putAlternateServers(final Map<String, String> properties)
+	{
+		if(this.alternateServers.isEmpty())
+		{
+			return;
+		}
+		
+		final List<Server> servers = new ArrayList<Server>(this.alternateServers.size() + 1);
+		final Server primary = new Server(getHost(),getPort());
+		if("1".equals(properties.get("enableClientAffinitiesList"))
+				&& !this.alternateServers.contains(primary))
+		{
+			servers.add(primary);
+		}
+		servers.addAll(this.alternateServers);
+		
+		final StringBuilder names = new StringBuilder();
+		final StringBuilder ports = new StringBuilder();
+		for(final Server server : servers)
+		{
+			if(names.length() > 0)
+			{
+				names.append(',');
+				ports.append(',');
+			}
+			names.append(server.getHost());
+			ports.append(server.getPort());
+		}
+		properties.put("clientRerouteAlternateServerName",names.toString());
+		properties.put("clientRerouteAlternatePortNumber",ports.toString());
+	}
+	
+	
+	/**
+	 * Parses a url extension of the form <code>:name=value;name=value;</code>
+	 * into <code>properties</code>.
+	 * 
+	 * @return <code>false</code> if the extension has another form
+	 */
+	private boolean parseUrlExtension(final Map<String, String> properties)
+	{
+		String extension = getUrlExtension();
+		if(extension == null || (extension = extension.trim()).length() == 0)
+		{
+			return true;
+		}
+		
+		final String str = extension.charAt(0) == ':' ? extension.substring(1) : extension;
+		final Map<String, String> parsed = new LinkedHashMap<String, String>();
+		for(final String property : str.split(";"))
+		{
+			if(property.trim().length() == 0)
+			{
+				continue;
+			}
+			final int index = property.indexOf('=');
+			if(index <= 0)
+			{
+				return false;
+			}
+			parsed.put(property.substring(0,index).trim(),property.substring(index + 1));
+		}
+		properties.putAll(parsed);
+		return true;
+	}
+	
 }
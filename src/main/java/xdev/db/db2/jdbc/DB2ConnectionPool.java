@@ -0,0 +1,872 @@
+/*
+ * SqlEngine Database Adapter DB2 - XAPI SqlEngine Database Adapter for DB2
+ * Copyright © 2003 XDEV Software (https://xdev.software)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package xdev.db.db2.jdbc;
+
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Wrapper;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import xdev.db.DBException;
+
+
+/**
+ * Pool of physical connections of a {@link DB2JDBCDataSource}.
+ * <p>
+ * Connections handed out by {@link #getConnection()} are proxies, closing
+ * them closes the statements left open, resets the auto-commit, read-only and
+ * isolation state and returns the physical connection to the pool. Statements
+ * and the {@link DatabaseMetaData} are proxies as well, their
+ * <code>getConnection()</code> returns the pooled connection, so the physical
+ * connection cannot be reached and closed by the borrower. For the same
+ * reason <code>unwrap</code> of the connection returns only the proxy, while
+ * <code>unwrap</code> of a statement returns a proxy of the driver interface,
+ * e.g. <code>DB2PreparedStatement</code>. Idle connections are reused most recently
+ * used first, connections idle for longer than the idle timeout are closed
+ * while the pool holds more than its minimum size. A connection is validated
+ * with {@link Connection#isValid(int)} only if it was idle for longer than the
+ * validation interval, so busy connections are handed out without a round
+ * trip.
+ * <p>
+ * If a {@link DB2JDBCDataSource#setStatementCacheSize(int) statement cache
+ * size} is set, each physical connection keeps a {@link DB2StatementCache} for
+ * {@link Connection#prepareStatement(String)}.
+ *
+ * @see DB2JDBCDataSource#setConnectionPoolSize(int, int)
+ */
+public class DB2ConnectionPool
+{
+	/**
+	 * Default idle timeout in milliseconds.
+	 */
+	public static final long			DEFAULT_IDLE_TIMEOUT		= 600000;
+	
+	/**
+	 * Default maximum time to wait for a free connection in milliseconds.
+	 */
+	public static final long			DEFAULT_MAX_WAIT			= 30000;
+	
+	/**
+	 * Default idle time in milliseconds after which a connection is validated
+	 * before it is handed out.
+	 */
+	public static final long			DEFAULT_VALIDATION_INTERVAL	= 30000;
+	
+	private static final int			VALIDATION_TIMEOUT			= 5;
+	
+	
+	private final DB2JDBCDataSource		dataSource;
+	private final ConnectionFactory		factory;
+	private final int					minSize;
+	private final int					maxSize;
+	
+	private volatile long				idleTimeout					= DEFAULT_IDLE_TIMEOUT;
+	private volatile long				maxWait						= DEFAULT_MAX_WAIT;
+	private volatile long				validationInterval			= DEFAULT_VALIDATION_INTERVAL;
+	
+	private final Deque<PooledConnection>	idle						= new ArrayDeque<PooledConnection>();
+	private int							size;
+	private boolean						warmedUp;
+	private boolean						closed;
+	
+	private final AtomicLong			createdCount				= new AtomicLong();
+	private final AtomicLong			evictedCount				= new AtomicLong();
+	
+	
+	/**
+	 * @param dataSource
+	 *            the data source
+	 * @param minSize
+	 *            the number of connections kept open
+	 * @param maxSize
+	 *            the maximum number of open connections
+	 * @param factory
+	 *            creates the physical connections
+	 */
+	public DB2ConnectionPool(DB2JDBCDataSource dataSource, int minSize, int maxSize,
+			ConnectionFactory factory)
+	{
+		this.dataSource = dataSource;
+		this.factory = factory;
+		this.maxSize = Math.max(1,maxSize);
+		this.minSize = Math.max(0,Math.min(minSize,this.maxSize));
+	}
+	
+	
+	/**
+	 * @return the number of connections kept open
+	 */
+	public int getMinSize()
+	{
+		return minSize;
+	}
+	
+	
+	/**
+	 * @return the maximum number of open connections
+	 */
+	public int getMaxSize()
+	{
+		return maxSize;
+	}
+	
+	
+	/**
+	 * @return the idle timeout in milliseconds
+	 */
+	public long getIdleTimeout()
+	{
+		return idleTimeout;
+	}
+	
+	
+	/**
+	 * Sets the time after which idle connections above the minimum size are
+	 * closed, default is {@value #DEFAULT_IDLE_TIMEOUT} milliseconds.
+	 * 
+	 * @param idleTimeout
+	 *            the idle timeout in milliseconds, 0 to never close idle
+	 *            connections
+	 */
+	public void setIdleTimeout(long idleTimeout)
+	{
+		this.idleTimeout = Math.max(0,idleTimeout);
+	}
+	
+	
+	/**
+	 * @return the maximum time to wait for a free connection in milliseconds
+	 */
+	public long getMaxWait()
+	{
+		return maxWait;
+	}
+	
+	
+	/**
+	 * Sets the maximum time to wait for a free connection if all connections
+	 * are in use, default is {@value #DEFAULT_MAX_WAIT} milliseconds.
+	 * 
+	 * @param maxWait
+	 *            the maximum time in milliseconds
+	 */
+	public void setMaxWait(long maxWait)
+	{
+		this.maxWait = Math.max(0,maxWait);
+	}
+	
+	
+	/**
+	 * @return the idle time after which connections are validated in
+	 *         milliseconds
+	 */
+	public long getValidationInterval()
+	{
+		return validationInterval;
+	}
+	
+	
+	/**
+	 * Sets the idle time after which a connection is validated before it is
+	 * handed out, default is {@value #DEFAULT_VALIDATION_INTERVAL}
+	 * milliseconds.
+	 * 
+	 * @param validationInterval
+	 *            the idle time in milliseconds, 0 to validate always
+	 */
+	public void setValidationInterval(long validationInterval)
+	{
+		this.validationInterval = Math.max(0,validationInterval);
+	}
+	
+	
+	/**
+	 * @return the number of open physical connections
+	 */
+	public synchronized int getSize()
+	{
+		return size;
+	}
+	
+	
+	/**
+	 * @return the number of idle connections
+	 */
+	public synchronized int getIdleCount()
+	{
+		return idle.size();
+	}
+	
+	
+	/**
+	 * @return the number of physical connections created since the pool was
+	 *         created
+	 */
+	public long getCreatedCount()
+	{
+		return createdCount.get();
+	}
+	
+	
+	/**
+	 * @return the number of connections closed because they were idle or
+	 *         invalid
+	 */
+	public long getEvictedCount()
+	{
+		return evictedCount.get();
+	}
+	
+	
+	/**
+	 * Opens connections until the pool holds its minimum size. This is done
+	 * implicitly on the first {@link #getConnection()}.
+	 * 
+	 * @throws DBException
+	 *             if a connection cannot be opened
+	 */
+	public void warmUp() throws DBException
+	{
+		synchronized(this)
+		{
+			warmedUp = true;
+		}
+		
+		while(true)
+		{
+			synchronized(this)
+			{
+				if(closed || size >= minSize)
+				{
+					return;
+				}
+				size++;
+			}
+			
+			PooledConnection pooled = create();
+			synchronized(this)
+			{
+				pooled.lastUsed = System.nanoTime();
+				idle.addLast(pooled);
+				notifyAll();
+			}
+		}
+	}
+	
+	
+	/**
+	 * Borrows a connection, closing the returned connection gives it back to
+	 * the pool.
+	 * 
+	 * @return a pooled connection
+	 * @throws DBException
+	 *             if no connection could be obtained within the maximum wait
+	 *             time
+	 */
+	public Connection getConnection() throws DBException
+	{
+		boolean warmUp;
+		synchronized(this)
+		{
+			warmUp = !warmedUp;
+		}
+		if(warmUp)
+		{
+			warmUp();
+		}
+		
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWait);
+		while(true)
+		{
+			PooledConnection pooled = null;
+			List<PooledConnection> evicted = null;
+			synchronized(this)
+			{
+				if(closed)
+				{
+					throw new DBException(dataSource,"Connection pool is closed");
+				}
+				
+				evicted = evictIdle(System.nanoTime());
+				pooled = idle.pollFirst();
+				if(pooled == null)
+				{
+					if(size < maxSize)
+					{
+						size++;
+					}
+					else
+					{
+						long remaining = deadline - System.nanoTime();
+						if(remaining <= 0)
+						{
+							throw new DBException(dataSource,"No pooled connection available after "
+									+ maxWait + " ms, all " + maxSize + " connections are in use");
+						}
+						try
+						{
+							TimeUnit.NANOSECONDS.timedWait(this,remaining);
+						}
+						catch(InterruptedException e)
+						{
+							Thread.currentThread().interrupt();
+							throw new DBException(dataSource,e);
+						}
+						continue;
+					}
+				}
+			}
+			
+			closeAll(evicted);
+			
+			if(pooled == null)
+			{
+				return create().lease();
+			}
+			
+			if(validate(pooled))
+			{
+				return pooled.lease();
+			}
+			discard(pooled);
+		}
+	}
+	
+	
+	/**
+	 * Closes all idle connections, borrowed connections are closed when they
+	 * are returned.
+	 */
+	public void close()
+	{
+		List<PooledConnection> connections;
+		synchronized(this)
+		{
+			closed = true;
+			connections = new ArrayList<PooledConnection>(idle);
+			size -= idle.size();
+			idle.clear();
+			notifyAll();
+		}
+		closeAll(connections);
+	}
+	
+	
+	private PooledConnection create() throws DBException
+	{
+		try
+		{
+			PooledConnection pooled = new PooledConnection(factory.createConnection());
+			createdCount.incrementAndGet();
+			return pooled;
+		}
+		catch(DBException e)
+		{
+			release();
+			throw e;
+		}
+		catch(RuntimeException e)
+		{
+			release();
+			throw e;
+		}
+	}
+	
+	
+	private boolean validate(PooledConnection pooled)
+	{
+		try
+		{
+			if(pooled.connection.isClosed())
+			{
+				return false;
+			}
+			long idleTime = System.nanoTime() - pooled.lastUsed;
+			if(idleTime < TimeUnit.MILLISECONDS.toNanos(validationInterval))
+			{
+				return true;
+			}
+			return pooled.connection.isValid(VALIDATION_TIMEOUT);
+		}
+		catch(SQLException e)
+		{
+			return false;
+		}
+	}
+	
+	
+	/**
+	 * Called by the proxy on close.
+	 */
+	void giveBack(PooledConnection pooled)
+	{
+		try
+		{
+			pooled.reset();
+		}
+		catch(SQLException e)
+		{
+			discard(pooled);
+			return;
+		}
+		
+		List<PooledConnection> evicted;
+		synchronized(this)
+		{
+			if(closed)
+			{
+				size--;
+				evicted = new ArrayList<PooledConnection>(1);
+				evicted.add(pooled);
+			}
+			else
+			{
+				pooled.lastUsed = System.nanoTime();
+				idle.addFirst(pooled);
+				evicted = evictIdle(pooled.lastUsed);
+				notifyAll();
+			}
+		}
+		closeAll(evicted);
+	}
+	
+	
+	private void discard(PooledConnection pooled)
+	{
+		evictedCount.incrementAndGet();
+		release();
+		pooled.closePhysical();
+	}
+	
+	
+	private synchronized void release()
+	{
+		size--;
+		notifyAll();
+	}
+	
+	
+	/**
+	 * Removes the connections idle for longer than the idle timeout from the
+	 * tail (least recently used) while the pool is above its minimum size.
+	 */
+	private List<PooledConnection> evictIdle(long now)
+	{
+		List<PooledConnection> evicted = null;
+		long timeout = TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+		if(timeout <= 0)
+		{
+			return null;
+		}
+		
+		for(Iterator<PooledConnection> it = idle.descendingIterator(); it.hasNext()
+				&& size > minSize;)
+		{
+			PooledConnection pooled = it.next();
+			if(now - pooled.lastUsed < timeout)
+			{
+				break;
+			}
+			it.remove();
+			size--;
+			if(evicted == null)
+			{
+				evicted = new ArrayList<PooledConnection>();
+			}
+			evicted.add(pooled);
+		}
+		return evicted;
+	}
+	
+	
+	private void closeAll(List<PooledConnection> connections)
+	{
+		if(connections != null)
+		{
+			for(PooledConnection pooled : connections)
+			{
+				evictedCount.incrementAndGet();
+				pooled.closePhysical();
+			}
+		}
+	}
+	
+	
+	
+	/**
+	 * Creates the physical connections of the pool.
+	 */
+	public static interface ConnectionFactory
+	{
+		public Connection createConnection() throws DBException;
+	}
+	
+	
+	
+	/**
+	 * A physical connection and its initial session state.
+	 */
+	final class PooledConnection
+	{
+		final Connection	connection;
+		final boolean		autoCommit;
+		final boolean		readOnly;
+		final int			transactionIsolation;
+		final DB2StatementCache	statementCache;
+		long				lastUsed;
+		
+		
+		PooledConnection(Connection connection) throws DBException
+		{
+			this.connection = connection;
+			try
+			{
+				this.autoCommit = connection.getAutoCommit();
+				this.readOnly = connection.isReadOnly();
+				this.transactionIsolation = connection.getTransactionIsolation();
+			}
+			catch(SQLException e)
+			{
+				try
+				{
+					connection.close();
+				}
+				catch(SQLException closeException)
+				{
+					// the original exception is reported
+				}
+				throw new DBException(dataSource,e);
+			}
+			
+			int cacheSize = dataSource.getStatementCacheSize();
+			this.statementCache = cacheSize > 0 && !dataSource.isDriverStatementCacheEnabled()
+					? new DB2StatementCache(cacheSize,dataSource.getStatementCacheStatistics())
+					: null;
+		}
+		
+		
+		Connection lease()
+		{
+			return (Connection)Proxy.newProxyInstance(Connection.class.getClassLoader(),
+					new Class<?>[]{Connection.class},new Handle(this));
+		}
+		
+		
+		void reset() throws SQLException
+		{
+			if(!connection.getAutoCommit())
+			{
+				connection.rollback();
+			}
+			if(connection.getAutoCommit() != autoCommit)
+			{
+				connection.setAutoCommit(autoCommit);
+			}
+			if(connection.isReadOnly() != readOnly)
+			{
+				connection.setReadOnly(readOnly);
+			}
+			if(connection.getTransactionIsolation() != transactionIsolation)
+			{
+				connection.setTransactionIsolation(transactionIsolation);
+			}
+			connection.clearWarnings();
+		}
+		
+		
+		void closePhysical()
+		{
+			if(statementCache != null)
+			{
+				statementCache.close();
+			}
+			try
+			{
+				connection.close();
+			}
+			catch(SQLException e)
+			{
+				// connection is discarded anyway
+			}
+		}
+	}
+	
+	
+	
+	/**
+	 * Handler of a borrowed connection, each borrow gets its own handle so a
+	 * closed proxy cannot reach the physical connection anymore.
+	 */
+	private final class Handle implements InvocationHandler
+	{
+		private final PooledConnection	pooled;
+		private final Set<Object>		statements;
+		private boolean					closed;
+		
+		
+		Handle(PooledConnection pooled)
+		{
+			this.pooled = pooled;
+			this.statements = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+		}
+		
+		
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+		{
+			String name = method.getName();
+			if("close".equals(name))
+			{
+				synchronized(this)
+				{
+					if(closed)
+					{
+						return null;
+					}
+					closed = true;
+				}
+				closeStatements();
+				giveBack(pooled);
+				return null;
+			}
+			if("isClosed".equals(name))
+			{
+				synchronized(this)
+				{
+					return closed || pooled.connection.isClosed();
+				}
+			}
+			if("equals".equals(name))
+			{
+				return proxy == args[0];
+			}
+			if("hashCode".equals(name))
+			{
+				return System.identityHashCode(proxy);
+			}
+			if("toString".equals(name))
+			{
+				return "Pooled " + pooled.connection;
+			}
+			if("unwrap".equals(name))
+			{
+				return unwrap(proxy,(Class<?>)args[0]);
+			}
+			if("isWrapperFor".equals(name))
+			{
+				return ((Class<?>)args[0]).isInstance(proxy);
+			}
+			
+			synchronized(this)
+			{
+				if(closed)
+				{
+					throw new SQLException("Connection is closed");
+				}
+			}
+			
+			Object result;
+			if(pooled.statementCache != null && "prepareStatement".equals(name)
+					&& args.length == 1)
+			{
+				result = pooled.statementCache.prepareStatement(pooled.connection,
+						(Connection)proxy,(String)args[0]);
+			}
+			else
+			{
+				try
+				{
+					result = method.invoke(pooled.connection,args);
+				}
+				catch(InvocationTargetException e)
+				{
+					throw e.getCause();
+				}
+			}
+			
+			if(result instanceof Statement)
+			{
+				Object statement = Proxy.newProxyInstance(Connection.class.getClassLoader(),
+						new Class<?>[]{method.getReturnType()},new ChildHandle(result,this,
+								(Connection)proxy,null));
+				synchronized(this)
+				{
+					statements.add(statement);
+				}
+				return statement;
+			}
+			if(result instanceof DatabaseMetaData)
+			{
+				return Proxy.newProxyInstance(Connection.class.getClassLoader(),
+						new Class<?>[]{DatabaseMetaData.class},new ChildHandle(result,null,
+								(Connection)proxy,null));
+			}
+			return result;
+		}
+		
+		
+		synchronized void remove(Object statement)
+		{
+			statements.remove(statement);
+		}
+		
+		
+		private void closeStatements()
+		{
+			List<Object> list;
+			synchronized(this)
+			{
+				list = new ArrayList<Object>(statements);
+				statements.clear();
+			}
+			for(Object statement : list)
+			{
+				try
+				{
+					((Statement)statement).close();
+				}
+				catch(SQLException e)
+				{
+					// the connection is reset anyway
+				}
+			}
+		}
+	}
+	
+	
+	
+	/**
+	 * Handler of a statement, the meta data or a result set of a borrowed
+	 * connection, which keeps the physical connection out of reach. Returned
+	 * result sets are wrapped as well.
+	 */
+	private static final class ChildHandle implements InvocationHandler
+	{
+		private final Object		target;
+		private final Handle		owner;
+		private final Connection	connection;
+		private final Object		statement;
+		
+		
+		/**
+		 * @param statement
+		 *            the proxy of the statement of a result set,
+		 *            <code>null</code> for result sets of the meta data
+		 */
+		ChildHandle(Object target, Handle owner, Connection connection, Object statement)
+		{
+			this.target = target;
+			this.owner = owner;
+			this.connection = connection;
+			this.statement = statement;
+		}
+		
+		
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+		{
+			String name = method.getName();
+			if("getConnection".equals(name))
+			{
+				return connection;
+			}
+			if("getStatement".equals(name) && target instanceof ResultSet)
+			{
+				return statement;
+			}
+			if("unwrap".equals(name))
+			{
+				Class<?> iface = (Class<?>)args[0];
+				if(iface.isInstance(proxy) || !iface.isInterface())
+				{
+					return unwrap(proxy,iface);
+				}
+				return Proxy.newProxyInstance(iface.getClassLoader(),new Class<?>[]{iface},
+						new ChildHandle(((Wrapper)target).unwrap(iface),null,connection,statement));
+			}
+			if("isWrapperFor".equals(name))
+			{
+				Class<?> iface = (Class<?>)args[0];
+				return iface.isInstance(proxy)
+						|| (iface.isInterface() && ((Wrapper)target).isWrapperFor(iface));
+			}
+			if("equals".equals(name))
+			{
+				return proxy == args[0];
+			}
+			if("hashCode".equals(name))
+			{
+				return System.identityHashCode(proxy);
+			}
+			if("toString".equals(name))
+			{
+				return "Pooled " + target;
+			}
+			if("close".equals(name) && owner != null)
+			{
+				owner.remove(proxy);
+			}
+			
+			Object result;
+			try
+			{
+				result = method.invoke(target,args);
+			}
+			catch(InvocationTargetException e)
+			{
+				throw e.getCause();
+			}
+			
+			if(result instanceof ResultSet)
+			{
+				Object resultStatement = target instanceof Statement ? proxy : statement;
+				return Proxy.newProxyInstance(Connection.class.getClassLoader(),
+						new Class<?>[]{ResultSet.class},new ChildHandle(result,null,connection,
+								resultStatement));
+			}
+			return result;
+		}
+	}
+	
+	
+	private static Object unwrap(Object proxy, Class<?> iface) throws SQLException
+	{
+		if(iface.isInstance(proxy))
+		{
+			return proxy;
+		}
+		throw new SQLException("Not a wrapper for " + iface.getName());
+	}
+}
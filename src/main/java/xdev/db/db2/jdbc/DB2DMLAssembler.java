@@ -17,6 +17,9 @@
  */
 package xdev.db.db2.jdbc;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import com.xdev.jadoth.sqlengine.SELECT;
 import com.xdev.jadoth.sqlengine.dbms.standard.StandardDMLAssembler;
 
@@ -24,12 +27,358 @@ import com.xdev.jadoth.sqlengine.dbms.standard.StandardDMLAssembler;
 public class DB2DMLAssembler extends StandardDMLAssembler<DB2Dbms>
 {
 	protected static final String _FETCH_FIRST_ = " FETCH FIRST ";
+	protected static final String _FETCH_NEXT_ = " FETCH NEXT ";
+	protected static final String _OFFSET_ = " OFFSET ";
+	protected static final String _ROWS = " ROWS";
+	protected static final String _FOR_READ_ONLY = " FOR READ ONLY";
+	protected static final String _OPTIMIZE_FOR_ = " OPTIMIZE FOR ";
+	protected static final String _WITH_ = " WITH ";
+	
+	/** Name of the column added by the <code>ROW_NUMBER()</code> paging emulation. */
+	public static final String ROW_NUMBER_COLUMN = "XDEV_ROW_NUMBER";
+	
+	/** Prefix of the unique column names inside the <code>ROW_NUMBER()</code> paging emulation. */
+	protected static final String PAGING_COLUMN_PREFIX = "XDEV_C";
 	
 	public DB2DMLAssembler(final DB2Dbms dbms)
 	{
 		super(dbms);
 	}
 	
+	/**
+	 * Servers without native <code>OFFSET</code> support get the query wrapped
+	 * in a <code>ROW_NUMBER()</code> filter, so the skipped rows are never
+	 * transferred. The columns of the query are renamed to unique names by the
+	 * correlation clause of the nested table expression and selected with
+	 * their original names, so the result has the same columns as the query.
+	 * Only a select list with <code>*</code>, whose columns are not known
+	 * here, returns the additional column {@link #ROW_NUMBER_COLUMN}.
+	 * <p>
+	 * The statement clauses of a {@link DB2SELECT} are appended to the
+	 * complete statement.
+	 * 
+	 * @param query
+	 * @param sb
+	 * @param indentLevel
+	 * @param flags
+	 * @param clauseSeperator
+	 * @param newLine
+	 * @return
+	 * @see StandardDMLAssembler#assembleSELECT(SELECT, StringBuilder, int, int, String, String)
+	 */
+	@Override
+	public StringBuilder assembleSELECT(
+		final SELECT        query,
+		final StringBuilder sb,
+		final int           indentLevel,
+		final int           flags,
+		final String        clauseSeperator,
+		final String        newLine)
+	{
+		final int offset = getOffset(query);
+		if(offset <= 0 || this.getDbmsAdaptor().supportsNativeOFFSET_ROWS())
+		{
+			super.assembleSELECT(query,sb,indentLevel,flags,clauseSeperator,newLine);
+		}
+		else
+		{
+			final int start = sb.length();
+			super.assembleSELECT(query,sb,indentLevel,flags,clauseSeperator,newLine);
+			wrapRowNumberPaging(sb,start,offset);
+		}
+		
+		if(query instanceof DB2SELECT)
+		{
+			assembleStatementClauses((DB2SELECT)query,sb);
+		}
+		return sb;
+	}
+	
+	/**
+	 * Wraps the assembled select, which starts at <code>start</code>, in the
+	 * <code>ROW_NUMBER()</code> filter which skips <code>offset</code> rows.
+	 * 
+	 * @param sb
+	 * @param start
+	 * @param offset
+	 */
+	static void wrapRowNumberPaging(final StringBuilder sb, final int start, final int offset)
+	{
+		final List<String> labels = getSelectLabels(sb,start);
+		
+		final StringBuilder outer = new StringBuilder("SELECT ");
+		if(labels == null)
+		{
+			outer.append("*");
+		}
+		else
+		{
+			for(int i = 0; i < labels.size(); i++)
+			{
+				if(i > 0)
+				{
+					outer.append(", ");
+				}
+				outer.append("P.").append(PAGING_COLUMN_PREFIX).append(i + 1).append(" AS ")
+					.append(labels.get(i));
+			}
+		}
+		outer.append(" FROM (SELECT Q.*, ROW_NUMBER() OVER(ORDER BY ORDER OF Q) AS ")
+			.append(ROW_NUMBER_COLUMN).append(" FROM (");
+		sb.insert(start,outer);
+		
+		sb.append(") AS Q");
+		if(labels != null)
+		{
+			sb.append(" (");
+			for(int i = 1; i <= labels.size(); i++)
+			{
+				if(i > 1)
+				{
+					sb.append(", ");
+				}
+				sb.append(PAGING_COLUMN_PREFIX).append(i);
+			}
+			sb.append(")");
+		}
+		sb.append(") AS P WHERE P.").append(ROW_NUMBER_COLUMN).append(" > ").append(offset)
+			.append(" ORDER BY P.").append(ROW_NUMBER_COLUMN);
+	}
+	
+	/**
+	 * Determines the result column names of the assembled select, which
+	 * starts at <code>start</code>: the alias of an item, the column name of a
+	 * column reference or the position for other expressions, as DB2 names
+	 * them.
+	 * 
+	 * @param sql
+	 * @param start
+	 * @return the names in SQL form or <code>null</code> if the select list
+	 *         contains <code>*</code>
+	 */
+	static List<String> getSelectLabels(final CharSequence sql, final int start)
+	{
+		final List<String> items = new ArrayList<String>();
+		int i = skipWord(sql,skipWhitespace(sql,start),"SELECT");
+		i = skipWord(sql,skipWhitespace(sql,i),"DISTINCT");
+		i = skipWord(sql,skipWhitespace(sql,i),"ALL");
+		
+		int itemStart = i;
+		int depth = 0;
+		final int length = sql.length();
+		for(; i < length; i++)
+		{
+			final char ch = sql.charAt(i);
+			if(ch == '\'' || ch == '"')
+			{
+				i = skipQuoted(sql,i);
+			}
+			else if(ch == '(')
+			{
+				depth++;
+			}
+			else if(ch == ')')
+			{
+				depth--;
+			}
+			else if(depth == 0 && ch == ',')
+			{
+				items.add(sql.subSequence(itemStart,i).toString().trim());
+				itemStart = i + 1;
+			}
+			else if(depth == 0 && Character.isWhitespace(ch) && isWord(sql,skipWhitespace(sql,i),"FROM"))
+			{
+				break;
+			}
+		}
+		items.add(sql.subSequence(itemStart,i).toString().trim());
+		
+		final List<String> labels = new ArrayList<String>(items.size());
+		for(int index = 0; index < items.size(); index++)
+		{
+			final String item = items.get(index);
+			if(item.equals("*") || item.endsWith(".*"))
+			{
+				return null;
+			}
+			labels.add(getSelectLabel(item,index + 1));
+		}
+		return labels;
+	}
+	
+	private static String getSelectLabel(final String item, final int position)
+	{
+		final String positional = "\"" + position + "\"";
+		
+		// trailing identifier: the alias or the last part of a column reference
+		int begin = item.length();
+		if(item.endsWith("\""))
+		{
+			begin = -1;
+			for(int i = item.length() - 2; i >= 0; i--)
+			{
+				if(item.charAt(i) == '"')
+				{
+					if(i > 0 && item.charAt(i - 1) == '"')
+					{
+						i--;
+					}
+					else
+					{
+						begin = i;
+						break;
+					}
+				}
+			}
+			if(begin < 0)
+			{
+				return positional;
+			}
+		}
+		else
+		{
+			while(begin > 0 && isIdentifierPart(item.charAt(begin - 1)))
+			{
+				begin--;
+			}
+		}
+		
+		final String name = item.substring(begin);
+		final String head = item.substring(0,begin);
+		if(name.length() == 0 || Character.isDigit(name.charAt(0)))
+		{
+			return positional;
+		}
+		if(head.length() == 0)
+		{
+			return name;
+		}
+		if(head.endsWith("."))
+		{
+			return isColumnReference(head) ? name : positional;
+		}
+		if(!Character.isWhitespace(head.charAt(head.length() - 1)))
+		{
+			return positional;
+		}
+		
+		// explicit or implicit alias, unless the name is part of the expression
+		final String expression = head.trim();
+		final char last = expression.charAt(expression.length() - 1);
+		if(!(isIdentifierPart(last) || last == '"' || last == ')' || last == '\''))
+		{
+			return positional;
+		}
+		if(name.charAt(0) != '"' && DB2Dbms.SYNTAX.isReservedWord(name))
+		{
+			return positional;
+		}
+		return name;
+	}
+	
+	private static boolean isColumnReference(final String qualifier)
+	{
+		for(int i = 0; i < qualifier.length(); i++)
+		{
+			final char ch = qualifier.charAt(i);
+			if(ch != '.' && ch != '"' && !isIdentifierPart(ch))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private static boolean isIdentifierPart(final char ch)
+	{
+		return Character.isLetterOrDigit(ch) || ch == '_' || ch == '@' || ch == '#' || ch == '$';
+	}
+	
+	private static int skipWhitespace(final CharSequence sql, int i)
+	{
+		while(i < sql.length() && Character.isWhitespace(sql.charAt(i)))
+		{
+			i++;
+		}
+		return i;
+	}
+	
+	private static boolean isWord(final CharSequence sql, final int i, final String word)
+	{
+		final int end = i + word.length();
+		if(end > sql.length())
+		{
+			return false;
+		}
+		for(int j = 0; j < word.length(); j++)
+		{
+			if(Character.toUpperCase(sql.charAt(i + j)) != word.charAt(j))
+			{
+				return false;
+			}
+		}
+		return end == sql.length() || !isIdentifierPart(sql.charAt(end));
+	}
+	
+	private static int skipWord(final CharSequence sql, final int i, final String word)
+	{
+		return isWord(sql,i,word) ? i + word.length() : i;
+	}
+	
+	private static int skipQuoted(final CharSequence sql, int i)
+	{
+		final char quote = sql.charAt(i);
+		for(i++; i < sql.length(); i++)
+		{
+			if(sql.charAt(i) == quote)
+			{
+				if(i + 1 < sql.length() && sql.charAt(i + 1) == quote)
+				{
+					i++;
+				}
+				else
+				{
+					break;
+				}
+			}
+		}
+		return i;
+	}
+	
+	/**
+	 * Appends <code>FOR READ ONLY</code>, <code>OPTIMIZE FOR n ROWS</code> and
+	 * the isolation clause in the order of the DB2 select-statement.
+	 * <code>OPTIMIZE FOR</code> defaults to the row limit of the query.
+	 * 
+	 * @param query
+	 * @param sb
+	 * @return
+	 */
+	protected StringBuilder assembleStatementClauses(final DB2SELECT query, final StringBuilder sb)
+	{
+		if(query.isReadOnly())
+		{
+			sb.append(_FOR_READ_ONLY);
+		}
+		
+		Integer optimizeFor = query.getOptimizeForRows();
+		if(optimizeFor == null)
+		{
+			optimizeFor = query.getFetchFirstRowCount();
+		}
+		if(optimizeFor != null && optimizeFor > 0)
+		{
+			sb.append(_OPTIMIZE_FOR_).append(optimizeFor).append(_ROWS);
+		}
+		
+		final DB2SELECT.Isolation isolation = query.getIsolation();
+		if(isolation != null)
+		{
+			sb.append(_WITH_).append(isolation.name());
+		}
+		return sb;
+	}
+	
 	/**
 	 * @param query
 	 * @param sb
@@ -49,11 +398,182 @@ public class DB2DMLAssembler extends StandardDMLAssembler<DB2Dbms>
 		final String        newLine,
 		final int           indentLevel)
 	{
-		final Integer top = query.getFetchFirstRowCount();
-		if(top != null)
+		return appendRowLimit(query.getFetchFirstRowCount(),getOffset(query),
+			this.getDbmsAdaptor().supportsNativeOFFSET_ROWS(),sb);
+	}
+	
+	/**
+	 * Appends the row limit clause of a select.
+	 * 
+	 * @param top
+	 *            the number of rows to fetch or <code>null</code>
+	 * @param offset
+	 *            the number of rows to skip
+	 * @param nativeOffset
+	 *            <code>true</code> if the server supports <code>OFFSET</code>
+	 * @param sb
+	 * @return
+	 */
+	static StringBuilder appendRowLimit(
+		final Integer       top,
+		final int           offset,
+		final boolean       nativeOffset,
+		final StringBuilder sb)
+	{
+		if(offset <= 0)
 		{
-			sb.append(_FETCH_FIRST_).append(top).append(_ROWS_ONLY);
+			if(top != null)
+			{
+				sb.append(_FETCH_FIRST_).append(top).append(_ROWS_ONLY);
+			}
+		}
+		else if(nativeOffset)
+		{
+			sb.append(_OFFSET_).append(offset).append(_ROWS);
+			if(top != null)
+			{
+				sb.append(_FETCH_NEXT_).append(top).append(_ROWS_ONLY);
+			}
+		}
+		else if(top != null)
+		{
+			// the ROW_NUMBER() wrapper of assembleSELECT removes the leading rows
+			sb.append(_FETCH_FIRST_).append((long)offset + top).append(_ROWS_ONLY);
 		}
 		return sb;
 	}
+	
+	/**
+	 * Assembles an upsert of <code>rowCount</code> rows as one
+	 * <code>MERGE</code> statement with parameter markers, row by row in the
+	 * order of <code>columns</code>:
+	 * 
+	 * <pre>
+	 * MERGE INTO table AS T USING (VALUES (?, ?), (?, ?)) AS S (ID, NAME)
+	 * ON T.ID = S.ID
+	 * WHEN MATCHED THEN UPDATE SET NAME = S.NAME
+	 * WHEN NOT MATCHED THEN INSERT (ID, NAME) VALUES (S.ID, S.NAME)
+	 * </pre>
+	 * 
+	 * The keys of the source rows have to be unique, a target row must not be
+	 * matched twice.
+	 * 
+	 * @param table
+	 *            the (qualified) table name
+	 * @param columns
+	 *            the columns of the rows, delimited if necessary
+	 * @param columnTypes
+	 *            the SQL types the parameter markers are cast to, because
+	 *            untyped markers are not allowed in <code>VALUES</code>; may
+	 *            be <code>null</code> or contain <code>null</code> for
+	 *            untyped markers
+	 * @param keyColumns
+	 *            the columns which identify a row, a subset of
+	 *            <code>columns</code>
+	 * @param rowCount
+	 *            the number of source rows
+	 * @param sb
+	 * @return
+	 */
+	public StringBuilder assembleMERGE(
+		final String        table,
+		final String[]      columns,
+		final String[]      columnTypes,
+		final String[]      keyColumns,
+		final int           rowCount,
+		final StringBuilder sb)
+	{
+		sb.append("MERGE INTO ").append(table).append(" AS T USING (VALUES ");
+		for(int row = 0; row < rowCount; row++)
+		{
+			if(row > 0)
+			{
+				sb.append(", ");
+			}
+			sb.append('(');
+			for(int i = 0; i < columns.length; i++)
+			{
+				if(i > 0)
+				{
+					sb.append(", ");
+				}
+				final String type = columnTypes != null ? columnTypes[i] : null;
+				if(type != null)
+				{
+					sb.append("CAST(? AS ").append(type).append(')');
+				}
+				else
+				{
+					sb.append('?');
+				}
+			}
+			sb.append(')');
+		}
+		sb.append(") AS S (");
+		appendColumns(columns,null,sb);
+		
+		sb.append(") ON ");
+		for(int i = 0; i < keyColumns.length; i++)
+		{
+			if(i > 0)
+			{
+				sb.append(" AND ");
+			}
+			DB2Dbms.SYNTAX.appendIdentifier(keyColumns[i],sb.append("T."));
+			DB2Dbms.SYNTAX.appendIdentifier(keyColumns[i],sb.append(" = S."));
+		}
+		
+		boolean update = false;
+		for(final String column : columns)
+		{
+			if(!contains(keyColumns,column))
+			{
+				sb.append(update ? ", " : " WHEN MATCHED THEN UPDATE SET ");
+				DB2Dbms.SYNTAX.appendIdentifier(column,sb);
+				DB2Dbms.SYNTAX.appendIdentifier(column,sb.append(" = S."));
+				update = true;
+			}
+		}
+		
+		sb.append(" WHEN NOT MATCHED THEN INSERT (");
+		appendColumns(columns,null,sb);
+		sb.append(") VALUES (");
+		appendColumns(columns,"S.",sb);
+		return sb.append(')');
+	}
+	
+	private static void appendColumns(final String[] columns, final String prefix,
+		final StringBuilder sb)
+	{
+		for(int i = 0; i < columns.length; i++)
+		{
+			if(i > 0)
+			{
+				sb.append(", ");
+			}
+			if(prefix != null)
+			{
+				sb.append(prefix);
+			}
+			DB2Dbms.SYNTAX.appendIdentifier(columns[i],sb);
+		}
+	}
+	
+	private static boolean contains(final String[] array, final String value)
+	{
+		for(final String element : array)
+		{
+			if(element.equals(value))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private static int getOffset(final SELECT query)
+	{
+		final Integer offset = query.getOffsetSkipCount();
+		return offset != null ? offset : 0;
+	}
 }
@@ -17,8 +17,12 @@
  */
 package xdev.db.db2.jdbc;
 
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+
 import com.xdev.jadoth.sqlengine.dbms.DbmsAdaptor;
 import com.xdev.jadoth.sqlengine.dbms.SQLExceptionParser;
+import com.xdev.jadoth.sqlengine.exceptions.SQLEngineException;
 import com.xdev.jadoth.sqlengine.internal.DatabaseGateway;
 import com.xdev.jadoth.sqlengine.internal.tables.SqlTableIdentity;
 
@@ -39,6 +43,34 @@ public class DB2Dbms
 	
 	public static final DB2Syntax	SYNTAX					= new DB2Syntax();
 	
+	/** Maximum length in bytes of a single hexadecimal string constant. */
+	protected static final int		MAX_HEX_CONSTANT_LENGTH	= 16336;
+	
+	/** Maximum length of an SQL statement, 2 MB. */
+	protected static final int		MAX_STATEMENT_LENGTH	= 2097152;
+	
+	/**
+	 * Default size in bytes up to which binary values are assembled as
+	 * literal: one hexadecimal string constant.
+	 */
+	public static final int			DEFAULT_MAX_BYTES_LITERAL_LENGTH	= MAX_HEX_CONSTANT_LENGTH;
+	
+	/** Two hex digits per byte value. */
+	private static final char[]		HEX_PAIRS				= createHexPairs();
+	
+	
+	// /////////////////////////////////////////////////////////////////////////
+	// instance fields //
+	// ///////////////////
+	
+	private DB2JDBCDataSource		dataSource;
+	
+	private volatile boolean		serverVersionDetected	= false;
+	
+	private volatile boolean		nativeOffsetSupported	= false;
+	
+	private volatile int			maxBytesLiteralLength	= DEFAULT_MAX_BYTES_LITERAL_LENGTH;
+	
 	
 	// /////////////////////////////////////////////////////////////////////////
 	// constructors //
@@ -46,13 +78,13 @@ public class DB2Dbms
 	
 	public DB2Dbms()
 	{
-		this(new SQLExceptionParser.Body());
+		this(new DB2ExceptionParser());
 	}
 	
 	
 	/**
 	 * Instantiates a new db2 dbms.
-	 *
+	 * 
 	 * @param sqlExceptionParser
 	 *            the sql exception parser
 	 */
@@ -65,6 +97,161 @@ public class DB2Dbms
 	}
 	
 	
+	// /////////////////////////////////////////////////////////////////////////
+	// getters //
+	// ///////////////////
+	
+	/**
+	 * Gets the data source the catalog is read from, e.g. by the
+	 * {@link DB2RetrospectionAccessor}.
+	 * 
+	 * @return the data source, may be <code>null</code>
+	 */
+	public DB2JDBCDataSource getDataSource()
+	{
+		return this.dataSource;
+	}
+	
+	
+	/**
+	 * Returns whether the server version was already read by
+	 * {@link #detectServerVersion(DatabaseMetaData)}.
+	 * 
+	 * @return <code>true</code> if the server version is known
+	 */
+	public boolean isServerVersionDetected()
+	{
+		return this.serverVersionDetected;
+	}
+	
+	
+	/**
+	 * Returns whether the server understands
+	 * <code>OFFSET n ROWS FETCH NEXT m ROWS ONLY</code>, which requires DB2
+	 * for LUW 11.1 or DB2 for z/OS 12. Until the server version is detected
+	 * <code>false</code> is returned.
+	 * 
+	 * @return <code>true</code> if native offset paging is supported
+	 */
+	public boolean supportsNativeOFFSET_ROWS()
+	{
+		return this.nativeOffsetSupported;
+	}
+	
+	
+	/**
+	 * Gets the size in bytes up to which binary values are assembled as
+	 * literal.
+	 * 
+	 * @return the maximum literal length
+	 */
+	public int getMaxBytesLiteralLength()
+	{
+		return this.maxBytesLiteralLength;
+	}
+	
+	
+	// /////////////////////////////////////////////////////////////////////////
+	// setters //
+	// ///////////////////
+	
+	/**
+	 * Sets the data source this adaptor belongs to.
+	 * 
+	 * @param dataSource
+	 *            the data source
+	 */
+	public void setDataSource(final DB2JDBCDataSource dataSource)
+	{
+		this.dataSource = dataSource;
+	}
+	
+	
+	/**
+	 * Sets the size in bytes up to which binary values are assembled as
+	 * literal, default is {@link #DEFAULT_MAX_BYTES_LITERAL_LENGTH}. Values
+	 * larger than a single hex constant are concatenated from several
+	 * literals. The size is limited by the maximum statement length.
+	 * 
+	 * @param maxBytesLiteralLength
+	 *            the maximum literal length
+	 */
+	public void setMaxBytesLiteralLength(final int maxBytesLiteralLength)
+	{
+		// two hex digits per byte and the literal syntax per constant
+		final int limit = MAX_STATEMENT_LENGTH / 2 - MAX_STATEMENT_LENGTH / MAX_HEX_CONSTANT_LENGTH
+				* 16;
+		this.maxBytesLiteralLength = Math.max(0,Math.min(maxBytesLiteralLength,limit));
+	}
+	
+	
+	// /////////////////////////////////////////////////////////////////////////
+	// declared methods //
+	// ///////////////////
+	
+	/**
+	 * Reads the server version of a connection. The version is part of the
+	 * connection handshake, so no round trip is needed.
+	 * 
+	 * @param meta
+	 *            the metadata of an established connection
+	 * @throws SQLException
+	 *             if the version cannot be read
+	 */
+	public void detectServerVersion(final DatabaseMetaData meta) throws SQLException
+	{
+		final String productVersion = meta.getDatabaseProductVersion();
+		final int version = meta.getDatabaseMajorVersion() * 100 + meta.getDatabaseMinorVersion();
+		
+		if(productVersion != null && productVersion.startsWith("SQL"))
+		{
+			// DB2 for Linux, UNIX and Windows
+			this.nativeOffsetSupported = version >= 1101;
+		}
+		else if(productVersion != null && productVersion.startsWith("DSN"))
+		{
+			// DB2 for z/OS
+			this.nativeOffsetSupported = version >= 1200;
+		}
+		else
+		{
+			this.nativeOffsetSupported = false;
+		}
+		this.serverVersionDetected = true;
+	}
+	
+	
+	private static char[] createHexPairs()
+	{
+		final char[] digits = "0123456789ABCDEF".toCharArray();
+		final char[] pairs = new char[512];
+		for(int i = 0; i < 256; i++)
+		{
+			pairs[i << 1] = digits[i >>> 4];
+			pairs[(i << 1) + 1] = digits[i & 0xF];
+		}
+		return pairs;
+	}
+	
+	
+	private static void appendBlobLiteral(final byte[] bytes, final int offset, final int length,
+			final StringBuilder sb)
+	{
+		sb.append("BLOB(X'");
+		final char[] pairs = HEX_PAIRS;
+		for(int i = offset, end = offset + length; i < end; i++)
+		{
+			final int index = (bytes[i] & 0xFF) << 1;
+			sb.append(pairs[index]).append(pairs[index + 1]);
+		}
+		sb.append("')");
+	}
+	
+	
+	// /////////////////////////////////////////////////////////////////////////
+	// override methods //
+	// ///////////////////
+	
 	/**
 	 * @param host
 	 * @param port
@@ -73,7 +260,7 @@ public class DB2Dbms
 	 * @param catalog
 	 * @param properties
 	 * @return
-	 *
+	 * 
 	 * @see DbmsAdaptor#createConnectionInformation(String, int, String, String, String, String)
 	 */
 	@Override
@@ -96,6 +283,12 @@ public class DB2Dbms
 	
 	
 	/**
+	 * Assembles <code>bytes</code> as <code>BLOB(X'...')</code> literal.
+	 * Values larger than a single hex constant are concatenated from several
+	 * literals. The adaptor only writes the statement text, values larger
+	 * than {@link #getMaxBytesLiteralLength()} are rejected and have to be
+	 * passed as parameter of the statement instead.
+	 * 
 	 * @param bytes
 	 * @param sb
 	 * @return
@@ -105,18 +298,38 @@ public class DB2Dbms
 	@Override
 	public StringBuilder assembleTransformBytes(final byte[] bytes, final StringBuilder sb)
 	{
-		return null;
-	}
-	
-	
-	/**
-	 * @return
-	 * @see DbmsAdaptor.Implementation#getRetrospectionAccessor()
-	 */
-	@Override
-	public DB2RetrospectionAccessor getRetrospectionAccessor()
-	{
-		throw new RuntimeException("DB2 Retrospection not implemented yet!");
+		if(bytes == null)
+		{
+			return sb.append("NULL");
+		}
+		
+		final int length = bytes.length;
+		if(length > this.maxBytesLiteralLength)
+		{
+			throw new SQLEngineException("Binary value of " + length
+					+ " bytes exceeds the maximum literal length of " + this.maxBytesLiteralLength
+					+ " bytes, pass it as statement parameter");
+		}
+		
+		if(length <= MAX_HEX_CONSTANT_LENGTH)
+		{
+			sb.ensureCapacity(sb.length() + 9 + 2 * length);
+			appendBlobLiteral(bytes,0,length,sb);
+			return sb;
+		}
+		
+		final int chunks = (length + MAX_HEX_CONSTANT_LENGTH - 1) / MAX_HEX_CONSTANT_LENGTH;
+		sb.ensureCapacity(sb.length() + 2 + 13 * chunks + 2 * length);
+		sb.append('(');
+		for(int offset = 0; offset < length; offset += MAX_HEX_CONSTANT_LENGTH)
+		{
+			if(offset > 0)
+			{
+				sb.append(" || ");
+			}
+			appendBlobLiteral(bytes,offset,Math.min(MAX_HEX_CONSTANT_LENGTH,length - offset),sb);
+		}
+		return sb.append(')');
 	}
 	
 	
@@ -142,10 +355,19 @@ public class DB2Dbms
 	}
 	
 	
+	/**
+	 * Offsets are always supported, natively or by a <code>ROW_NUMBER()</code>
+	 * wrapper on older servers.
+	 * 
+	 * @return <code>true</code>
+	 * @see #supportsNativeOFFSET_ROWS()
+	 * @see DB2DMLAssembler#assembleSELECT(com.xdev.jadoth.sqlengine.SELECT,
+	 *      StringBuilder, int, int, String, String)
+	 */
 	@Override
 	public boolean supportsOFFSET_ROWS()
 	{
-		return false;
+		return true;
 	}
 	
 	
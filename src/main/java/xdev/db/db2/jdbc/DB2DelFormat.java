@@ -0,0 +1,153 @@
+/*
+ * SqlEngine Database Adapter DB2 - XAPI SqlEngine Database Adapter for DB2
+ * Copyright © 2003 XDEV Software (https://xdev.software)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package xdev.db.db2.jdbc;
+
+
+import java.math.BigDecimal;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Calendar;
+
+
+/**
+ * Formatting of values in the delimited ASCII format (DEL) of the DB2
+ * <code>IMPORT</code>, <code>EXPORT</code> and <code>LOAD</code> utilities with
+ * the default delimiters: columns separated by <code>,</code>, strings
+ * enclosed in <code>"</code> with doubled inner quotes, dates as
+ * <code>yyyy-mm-dd</code>, times as <code>hh.mm.ss</code> and timestamps as
+ * <code>yyyy-mm-dd-hh.mm.ss.ffffff</code>. Null values are empty fields.
+ */
+final class DB2DelFormat
+{
+	static final char	COLUMN_DELIMITER	= ',';
+	static final char	CHAR_DELIMITER		= '"';
+	static final String	ROW_DELIMITER		= "\n";
+	
+	
+	private DB2DelFormat()
+	{
+	}
+	
+	
+	/**
+	 * Appends <code>value</code> as DEL field.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             for binary values, which DEL cannot represent inline
+	 */
+	static void appendValue(StringBuilder sb, Object value)
+	{
+		if(value == null)
+		{
+			return;
+		}
+		
+		if(value instanceof Number)
+		{
+			sb.append(value instanceof BigDecimal ? ((BigDecimal)value).toPlainString() : value
+					.toString());
+		}
+		else if(value instanceof Boolean)
+		{
+			sb.append(((Boolean)value).booleanValue() ? '1' : '0');
+		}
+		else if(value instanceof java.sql.Date)
+		{
+			appendDate(sb,(java.util.Date)value);
+		}
+		else if(value instanceof Time)
+		{
+			appendTime(sb,(java.util.Date)value);
+		}
+		else if(value instanceof java.util.Date)
+		{
+			appendTimestamp(sb,(java.util.Date)value);
+		}
+		else if(value instanceof byte[])
+		{
+			throw new IllegalArgumentException("Binary values are not supported by DEL");
+		}
+		else
+		{
+			appendString(sb,value.toString());
+		}
+	}
+	
+	
+	static void appendString(StringBuilder sb, CharSequence value)
+	{
+		sb.append(CHAR_DELIMITER);
+		for(int i = 0, length = value.length(); i < length; i++)
+		{
+			char c = value.charAt(i);
+			if(c == CHAR_DELIMITER)
+			{
+				sb.append(CHAR_DELIMITER);
+			}
+			sb.append(c);
+		}
+		sb.append(CHAR_DELIMITER);
+	}
+	
+	
+	static void appendDate(StringBuilder sb, java.util.Date date)
+	{
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTime(date);
+		appendNumber(sb,calendar.get(Calendar.YEAR),4);
+		sb.append('-');
+		appendNumber(sb,calendar.get(Calendar.MONTH) + 1,2);
+		sb.append('-');
+		appendNumber(sb,calendar.get(Calendar.DAY_OF_MONTH),2);
+	}
+	
+	
+	static void appendTime(StringBuilder sb, java.util.Date time)
+	{
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTime(time);
+		appendNumber(sb,calendar.get(Calendar.HOUR_OF_DAY),2);
+		sb.append('.');
+		appendNumber(sb,calendar.get(Calendar.MINUTE),2);
+		sb.append('.');
+		appendNumber(sb,calendar.get(Calendar.SECOND),2);
+	}
+	
+	
+	static void appendTimestamp(StringBuilder sb, java.util.Date timestamp)
+	{
+		appendDate(sb,timestamp);
+		sb.append('-');
+		appendTime(sb,timestamp);
+		sb.append('.');
+		int micros = timestamp instanceof Timestamp ? ((Timestamp)timestamp).getNanos() / 1000
+				: (int)(timestamp.getTime() % 1000 + 1000) % 1000 * 1000;
+		appendNumber(sb,micros,6);
+	}
+	
+	
+	private static void appendNumber(StringBuilder sb, int value, int digits)
+	{
+		String str = Integer.toString(value);
+		for(int i = str.length(); i < digits; i++)
+		{
+			sb.append('0');
+		}
+		sb.append(str);
+	}
+}
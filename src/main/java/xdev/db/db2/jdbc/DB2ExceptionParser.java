@@ -20,17 +20,142 @@ package xdev.db.db2.jdbc;
 
 import java.sql.SQLException;
 
-import com.xdev.jadoth.sqlengine.dbms.SQLExceptionParser;
-import com.xdev.jadoth.sqlengine.exceptions.SQLEngineException;
+import xdev.db.db2.jdbc.DB2SQLEngineException.Category;
 
+import com.ibm.db2.jcc.DB2Diagnosable;
+import com.ibm.db2.jcc.DB2Sqlca;
+import com.xdev.jadoth.sqlengine.dbms.SQLExceptionParser;
 
 
+/**
+ * Classifies DB2 errors by SQLCODE, reason code and SQLSTATE. The first
+ * exception of the {@link SQLException#getNextException()} chain with a known
+ * category determines the result.
+ */
 public class DB2ExceptionParser implements SQLExceptionParser
 {
+	private static final int	REASON_DEADLOCK		= 2;
+	private static final int	REASON_LOCK_TIMEOUT	= 68;
+	private static final String	SQLERRMC			= "SQLERRMC=";
+	
+	/**
+	 * Resource unavailable reason of DB2 for z/OS for a lock timeout.
+	 */
+	private static final String	ZOS_LOCK_TIMEOUT	= "00C9008E";
+	
+	
 	@Override
-	public SQLEngineException parseSQLException(SQLException e)
+	public DB2SQLEngineException parseSQLException(SQLException e)
 	{
-		return new SQLEngineException(e);
+		for(SQLException next = e; next != null; next = next.getNextException())
+		{
+			DB2SQLEngineException exception = classify(next);
+			if(exception.getCategory() != Category.OTHER)
+			{
+				return exception;
+			}
+		}
+		return classify(e);
 	}
 	
+	
+	private DB2SQLEngineException classify(SQLException e)
+	{
+		int sqlCode = e.getErrorCode();
+		String sqlState = e.getSQLState();
+		int reasonCode = 0;
+		Category category;
+		
+		switch(sqlCode)
+		{
+			case -911:
+			case -913:
+				String errmc = getErrmc(e);
+				reasonCode = getReasonCode(errmc);
+				category = reasonCode == REASON_LOCK_TIMEOUT
+						|| (errmc != null && errmc.startsWith(ZOS_LOCK_TIMEOUT)) ? Category.LOCK_TIMEOUT
+						: Category.DEADLOCK;
+			break;
+			
+			case -4498:
+			case -30108:
+				category = Category.CLIENT_REROUTE;
+			break;
+			
+			default:
+				category = getCategory(sqlState);
+		}
+		
+		if(category == Category.DEADLOCK && reasonCode == 0)
+		{
+			reasonCode = REASON_DEADLOCK;
+		}
+		
+		return new DB2SQLEngineException(e,category,sqlCode,sqlState,reasonCode);
+	}
+	
+	
+	private static Category getCategory(String sqlState)
+	{
+		if(sqlState == null || sqlState.length() != 5)
+		{
+			return Category.OTHER;
+		}
+		if(sqlState.equals("40001"))
+		{
+			return Category.DEADLOCK;
+		}
+		if(sqlState.equals("57033"))
+		{
+			return Category.LOCK_TIMEOUT;
+		}
+		if(sqlState.equals("08506"))
+		{
+			return Category.CLIENT_REROUTE;
+		}
+		if(sqlState.startsWith("08"))
+		{
+			return Category.CONNECTION;
+		}
+		if(sqlState.startsWith("23"))
+		{
+			return Category.CONSTRAINT;
+		}
+		return Category.OTHER;
+	}
+	
+	
+	/**
+	 * Reads the message tokens of the SQLCA, or the <code>SQLERRMC=</code>
+	 * part of the message if the SQLCA is not available.
+	 */
+	private static String getErrmc(SQLException e)
+	{
+		if(e instanceof DB2Diagnosable)
+		{
+			DB2Sqlca sqlca = ((DB2Diagnosable)e).getSqlca();
+			if(sqlca != null && sqlca.getSqlErrmc() != null)
+			{
+				return sqlca.getSqlErrmc();
+			}
+		}
+		String message = e.getMessage();
+		int index = message != null ? message.indexOf(SQLERRMC) : -1;
+		return index >= 0 ? message.substring(index + SQLERRMC.length()) : null;
+	}
+	
+	
+	private static int getReasonCode(String errmc)
+	{
+		if(errmc == null)
+		{
+			return 0;
+		}
+		int end = 0;
+		while(end < errmc.length() && Character.isDigit(errmc.charAt(end)))
+		{
+			end++;
+		}
+		return end > 0 && end < 10 ? Integer.parseInt(errmc.substring(0,end)) : 0;
+	}
 }
@@ -0,0 +1,590 @@
+/*
+ * SqlEngine Database Adapter DB2 - XAPI SqlEngine Database Adapter for DB2
+ * Copyright © 2003 XDEV Software (https://xdev.software)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package xdev.db.db2.jdbc;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Locale;
+
+import xdev.util.ProgressMonitor;
+
+
+/**
+ * Streaming export of a table or query into a {@link WritableByteChannel}.
+ * <p>
+ * The rows are read through a forward-only, read-only cursor with the
+ * configured fetch size and encoded into a fixed-size buffer, so the memory
+ * use does not depend on the size of the result. LOB columns are streamed
+ * as well.
+ *
+ * @see DB2JDBCConnection#export(String, WritableByteChannel, DB2Exporter,
+ *      ProgressMonitor)
+ */
+public class DB2Exporter
+{
+	private static final char[]	HEX_DIGITS			= "0123456789ABCDEF".toCharArray();
+	
+	/**
+	 * Minimum interval of progress updates in nanoseconds.
+	 */
+	private static final long	PROGRESS_INTERVAL	= 500000000L;
+	
+	
+	
+	/**
+	 * Output format of the export.
+	 */
+	public static enum Format
+	{
+		/**
+		 * Comma separated values (RFC 4180), fields are quoted only if
+		 * necessary, binary values are written as hex strings.
+		 */
+		CSV,
+		
+		/**
+		 * The delimited ASCII format of the DB2 utilities, which can be read
+		 * by <code>IMPORT</code> and <code>LOAD</code>. Binary columns are not
+		 * supported.
+		 */
+		DEL
+	}
+	
+	
+	private Format	format			= Format.CSV;
+	private int		fetchSize		= 1000;
+	private int		bufferSize		= 65536;
+	private Charset	charset			= Charset.forName("UTF-8");
+	private boolean	header			= true;
+	
+	
+	/**
+	 * @return the output format, default is {@link Format#CSV}
+	 */
+	public Format getFormat()
+	{
+		return format;
+	}
+	
+	
+	/**
+	 * @param format
+	 *            the output format
+	 */
+	public void setFormat(Format format)
+	{
+		this.format = format != null ? format : Format.CSV;
+	}
+	
+	
+	/**
+	 * @return the number of rows fetched per round trip, default is 1000
+	 */
+	public int getFetchSize()
+	{
+		return fetchSize;
+	}
+	
+	
+	/**
+	 * @param fetchSize
+	 *            the number of rows fetched per round trip
+	 */
+	public void setFetchSize(int fetchSize)
+	{
+		this.fetchSize = Math.max(1,fetchSize);
+	}
+	
+	
+	/**
+	 * @return the size of the output buffer in bytes, default is 65536
+	 */
+	public int getBufferSize()
+	{
+		return bufferSize;
+	}
+	
+	
+	/**
+	 * @param bufferSize
+	 *            the size of the output buffer in bytes
+	 */
+	public void setBufferSize(int bufferSize)
+	{
+		this.bufferSize = Math.max(1024,bufferSize);
+	}
+	
+	
+	/**
+	 * @return the charset of the output, default is UTF-8
+	 */
+	public Charset getCharset()
+	{
+		return charset;
+	}
+	
+	
+	/**
+	 * @param charset
+	 *            the charset of the output
+	 */
+	public void setCharset(Charset charset)
+	{
+		this.charset = charset != null ? charset : Charset.forName("UTF-8");
+	}
+	
+	
+	/**
+	 * @return <code>true</code> if a CSV export starts with the column names
+	 */
+	public boolean isHeader()
+	{
+		return header;
+	}
+	
+	
+	/**
+	 * @param header
+	 *            <code>true</code> if a CSV export starts with the column
+	 *            names, DEL files never have a header
+	 */
+	public void setHeader(boolean header)
+	{
+		this.header = header;
+	}
+	
+	
+	/**
+	 * Exports the result of <code>select</code>.
+	 * 
+	 * @param connection
+	 *            the connection
+	 * @param select
+	 *            the query
+	 * @param channel
+	 *            the target, which is not closed
+	 * @param monitor
+	 *            receives the progress (rows/s, bytes/s), may be
+	 *            <code>null</code>
+	 * @return the number of exported rows
+	 * @throws SQLException
+	 *             if a database error occurs
+	 * @throws IOException
+	 *             if the output cannot be written
+	 */
+	public long export(Connection connection, String select, WritableByteChannel channel,
+			ProgressMonitor monitor) throws SQLException, IOException
+	{
+		Statement statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY,
+				ResultSet.CONCUR_READ_ONLY);
+		try
+		{
+			statement.setFetchSize(fetchSize);
+			ResultSet rs = statement.executeQuery(select);
+			try
+			{
+				return export(rs,channel,monitor);
+			}
+			finally
+			{
+				rs.close();
+			}
+		}
+		finally
+		{
+			statement.close();
+		}
+	}
+	
+	
+	private long export(ResultSet rs, WritableByteChannel channel, ProgressMonitor monitor)
+			throws SQLException, IOException
+	{
+		ResultSetMetaData meta = rs.getMetaData();
+		int columnCount = meta.getColumnCount();
+		int[] types = new int[columnCount];
+		for(int i = 0; i < columnCount; i++)
+		{
+			types[i] = meta.getColumnType(i + 1);
+			if(format == Format.DEL && isBinary(types[i]))
+			{
+				throw new SQLException("Binary column " + meta.getColumnName(i + 1)
+						+ " cannot be exported as DEL");
+			}
+		}
+		
+		String lineSeparator = format == Format.DEL ? DB2DelFormat.ROW_DELIMITER : "\r\n";
+		ChannelWriter out = new ChannelWriter(channel,charset,bufferSize);
+		
+		if(header && format == Format.CSV)
+		{
+			for(int i = 0; i < columnCount; i++)
+			{
+				if(i > 0)
+				{
+					out.append(',');
+				}
+				appendCsv(out,meta.getColumnLabel(i + 1));
+			}
+			out.append(lineSeparator);
+		}
+		
+		if(monitor != null)
+		{
+			monitor.beginTask("Export",ProgressMonitor.UNKNOWN);
+		}
+		
+		long start = System.nanoTime();
+		long lastProgress = start;
+		long rowCount = 0;
+		StringBuilder sb = new StringBuilder(256);
+		try
+		{
+			while(rs.next())
+			{
+				for(int i = 0; i < columnCount; i++)
+				{
+					if(i > 0)
+					{
+						out.append(',');
+					}
+					appendValue(out,sb,rs,i + 1,types[i]);
+				}
+				out.append(lineSeparator);
+				rowCount++;
+				
+				if(monitor != null && (rowCount & 0xFF) == 0)
+				{
+					if(monitor.isCanceled())
+					{
+						break;
+					}
+					long now = System.nanoTime();
+					if(now - lastProgress >= PROGRESS_INTERVAL)
+					{
+						reportProgress(monitor,rowCount,out.getByteCount(),now - start);
+						lastProgress = now;
+					}
+				}
+			}
+			
+			out.finish();
+		}
+		finally
+		{
+			if(monitor != null)
+			{
+				reportProgress(monitor,rowCount,out.getByteCount(),System.nanoTime() - start);
+				monitor.done();
+			}
+		}
+		
+		return rowCount;
+	}
+	
+	
+	private void appendValue(ChannelWriter out, StringBuilder sb, ResultSet rs, int column,
+			int type) throws SQLException, IOException
+	{
+		switch(type)
+		{
+			case Types.CLOB:
+			case Types.NCLOB:
+			case Types.LONGVARCHAR:
+			case Types.LONGNVARCHAR:
+			{
+				Reader reader = rs.getCharacterStream(column);
+				if(reader != null)
+				{
+					try
+					{
+						appendQuoted(out,reader);
+					}
+					finally
+					{
+						reader.close();
+					}
+				}
+				return;
+			}
+			
+			case Types.BLOB:
+			case Types.BINARY:
+			case Types.VARBINARY:
+			case Types.LONGVARBINARY:
+			{
+				InputStream in = rs.getBinaryStream(column);
+				if(in != null)
+				{
+					try
+					{
+						appendHex(out,in);
+					}
+					finally
+					{
+						in.close();
+					}
+				}
+				return;
+			}
+		}
+		
+		if(format == Format.DEL)
+		{
+			Object value;
+			switch(type)
+			{
+				case Types.DATE:
+					value = rs.getDate(column);
+				break;
+				
+				case Types.TIME:
+					value = rs.getTime(column);
+				break;
+				
+				case Types.TIMESTAMP:
+					value = rs.getTimestamp(column);
+				break;
+				
+				case Types.CHAR:
+				case Types.VARCHAR:
+				case Types.NCHAR:
+				case Types.NVARCHAR:
+				case Types.OTHER:
+					value = rs.getString(column);
+				break;
+				
+				default:
+					String str = rs.getString(column);
+					if(str != null)
+					{
+						out.append(str);
+					}
+					return;
+			}
+			
+			if(value != null)
+			{
+				sb.setLength(0);
+				DB2DelFormat.appendValue(sb,value);
+				out.append(sb);
+			}
+		}
+		else
+		{
+			String str = rs.getString(column);
+			if(str != null)
+			{
+				appendCsv(out,str);
+			}
+		}
+	}
+	
+	
+	private void appendCsv(ChannelWriter out, String value) throws IOException
+	{
+		boolean quote = false;
+		for(int i = 0, length = value.length(); i < length && !quote; i++)
+		{
+			char c = value.charAt(i);
+			quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+		}
+		
+		if(!quote)
+		{
+			out.append(value);
+			return;
+		}
+		
+		out.append('"');
+		for(int i = 0, length = value.length(); i < length; i++)
+		{
+			char c = value.charAt(i);
+			if(c == '"')
+			{
+				out.append('"');
+			}
+			out.append(c);
+		}
+		out.append('"');
+	}
+	
+	
+	private void appendQuoted(ChannelWriter out, Reader reader) throws IOException
+	{
+		char[] buffer = new char[4096];
+		out.append('"');
+		int read;
+		while((read = reader.read(buffer)) != -1)
+		{
+			for(int i = 0; i < read; i++)
+			{
+				char c = buffer[i];
+				if(c == '"')
+				{
+					out.append('"');
+				}
+				out.append(c);
+			}
+		}
+		out.append('"');
+	}
+	
+	
+	private void appendHex(ChannelWriter out, InputStream in) throws IOException
+	{
+		byte[] buffer = new byte[4096];
+		int read;
+		while((read = in.read(buffer)) != -1)
+		{
+			for(int i = 0; i < read; i++)
+			{
+				int b = buffer[i] & 0xFF;
+				out.append(HEX_DIGITS[b >>> 4]);
+				out.append(HEX_DIGITS[b & 0x0F]);
+			}
+		}
+	}
+	
+	
+	private void reportProgress(ProgressMonitor monitor, long rowCount, long byteCount,
+			long nanos)
+	{
+		double seconds = Math.max(nanos,1) / 1e9;
+		monitor.setTaskName(String.format(Locale.ENGLISH,
+				"Export: %,d rows, %,.0f rows/s, %,.1f KB/s",rowCount,rowCount / seconds,
+				byteCount / 1024.0 / seconds));
+		monitor.worked((int)Math.min(rowCount,Integer.MAX_VALUE));
+	}
+	
+	
+	private static boolean isBinary(int type)
+	{
+		return type == Types.BLOB || type == Types.BINARY || type == Types.VARBINARY
+				|| type == Types.LONGVARBINARY;
+	}
+	
+	
+	/**
+	 * Encodes characters into a fixed-size byte buffer which is written to
+	 * the channel whenever it is full.
+	 */
+	private static final class ChannelWriter
+	{
+		private final WritableByteChannel	channel;
+		private final CharsetEncoder		encoder;
+		private final CharBuffer			chars;
+		private final ByteBuffer			bytes;
+		private long						byteCount;
+		
+		
+		ChannelWriter(WritableByteChannel channel, Charset charset, int bufferSize)
+		{
+			this.channel = channel;
+			this.encoder = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			this.chars = CharBuffer.allocate(bufferSize / 4);
+			this.bytes = ByteBuffer.allocateDirect(bufferSize);
+		}
+		
+		
+		long getByteCount()
+		{
+			return byteCount + bytes.position();
+		}
+		
+		
+		void append(char c) throws IOException
+		{
+			if(!chars.hasRemaining())
+			{
+				encode(false);
+			}
+			chars.put(c);
+		}
+		
+		
+		void append(CharSequence str) throws IOException
+		{
+			for(int i = 0, length = str.length(); i < length; i++)
+			{
+				append(str.charAt(i));
+			}
+		}
+		
+		
+		void finish() throws IOException
+		{
+			encode(true);
+			while(encoder.flush(bytes).isOverflow())
+			{
+				write();
+			}
+			write();
+		}
+		
+		
+		private void encode(boolean endOfInput) throws IOException
+		{
+			chars.flip();
+			while(true)
+			{
+				CoderResult result = encoder.encode(chars,bytes,endOfInput);
+				if(result.isOverflow())
+				{
+					write();
+				}
+				else
+				{
+					if(result.isError())
+					{
+						result.throwException();
+					}
+					break;
+				}
+			}
+			chars.compact();
+		}
+		
+		
+		private void write() throws IOException
+		{
+			bytes.flip();
+			while(bytes.hasRemaining())
+			{
+				byteCount += channel.write(bytes);
+			}
+			bytes.clear();
+		}
+	}
+}
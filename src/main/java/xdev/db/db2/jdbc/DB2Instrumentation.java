@@ -0,0 +1,754 @@
+/*
+ * SqlEngine Database Adapter DB2 - XAPI SqlEngine Database Adapter for DB2
+ * Copyright © 2003 XDEV Software (https://xdev.software)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package xdev.db.db2.jdbc;
+
+
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import xdev.db.db2.jdbc.DB2SQLEngineException.Category;
+
+
+/**
+ * Client-side timings of a {@link DB2JDBCDataSource}: latency histograms per
+ * statement shape, row counts, connection acquire and establish times and
+ * error counts per {@link Category}.
+ * <p>
+ * A statement shape is the SQL text with literals replaced by
+ * <code>?</code>, so executions which differ only in their values share
+ * their statistics. At most {@link #MAX_SHAPES} shapes are kept, further
+ * ones are counted as {@link #OTHER_SHAPE}. All counters are atomic, no lock
+ * is taken while recording.
+ *
+ * @see DB2JDBCDataSource#setInstrumentationEnabled(boolean)
+ */
+public class DB2Instrumentation implements DB2InstrumentationMXBean
+{
+	/**
+	 * Receives each recorded event, in the thread which caused it.
+	 */
+	public static interface Listener
+	{
+		/**
+		 * @param shape
+		 *            the statement shape or the operation name
+		 * @param nanos
+		 *            the duration in nanoseconds
+		 * @param rows
+		 *            the number of fetched or written rows, -1 if unknown
+		 * @param failure
+		 *            the error category, <code>null</code> if the statement
+		 *            succeeded
+		 */
+		public void statementExecuted(String shape, long nanos, long rows, Category failure);
+		
+		
+		/**
+		 * @param nanos
+		 *            the duration in nanoseconds
+		 * @param established
+		 *            <code>true</code> if a physical connection was opened,
+		 *            <code>false</code> if it was taken from the pool
+		 */
+		public void connectionAcquired(long nanos, boolean established);
+	}
+	
+	/**
+	 * Maximum number of statement shapes with own statistics.
+	 */
+	public static final int								MAX_SHAPES			= 1000;
+	
+	/**
+	 * Shape of the statements beyond {@link #MAX_SHAPES}.
+	 */
+	public static final String							OTHER_SHAPE			= "(other)";
+	
+	private static final int							MAX_SHAPE_LENGTH	= 2048;
+	private static final DB2ExceptionParser				EXCEPTION_PARSER	= new DB2ExceptionParser();
+	
+	private final ConcurrentMap<String, StatementStatistics>	statements			= new ConcurrentHashMap<String, StatementStatistics>();
+	private final AtomicLongArray						errors				= new AtomicLongArray(
+																					Category.values().length);
+	private final Histogram								acquireTimes		= new Histogram();
+	private final Histogram								establishTimes		= new Histogram();
+	private final List<Listener>						listeners			= new CopyOnWriteArrayList<Listener>();
+	private volatile DB2ServerMetrics					serverMetrics;
+	private ObjectName									objectName;
+	
+	
+	/**
+	 * @param listener
+	 *            the listener to add
+	 */
+	public void addListener(Listener listener)
+	{
+		listeners.add(listener);
+	}
+	
+	
+	/**
+	 * @param listener
+	 *            the listener to remove
+	 */
+	public void removeListener(Listener listener)
+	{
+		listeners.remove(listener);
+	}
+	
+	
+	/**
+	 * Records an executed statement.
+	 * 
+	 * @param sql
+	 *            the SQL text or an operation name
+	 * @param nanos
+	 *            the duration in nanoseconds
+	 * @param rows
+	 *            the number of fetched or written rows, -1 if unknown
+	 * @param failure
+	 *            the exception, <code>null</code> if the statement succeeded
+	 */
+	public void statementExecuted(String sql, long nanos, long rows, Throwable failure)
+	{
+		String shape = toShape(sql);
+		StatementStatistics statistics = statements.get(shape);
+		if(statistics == null)
+		{
+			if(statements.size() >= MAX_SHAPES)
+			{
+				shape = OTHER_SHAPE;
+			}
+			statistics = new StatementStatistics(shape);
+			StatementStatistics existing = statements.putIfAbsent(shape,statistics);
+			if(existing != null)
+			{
+				statistics = existing;
+			}
+		}
+		
+		Category category = null;
+		statistics.latency.record(nanos);
+		if(rows > 0)
+		{
+			statistics.rows.addAndGet(rows);
+		}
+		if(failure != null)
+		{
+			category = categorize(failure);
+			statistics.errors.incrementAndGet();
+			errors.incrementAndGet(category.ordinal());
+		}
+		
+		for(Listener listener : listeners)
+		{
+			listener.statementExecuted(shape,nanos,rows,category);
+		}
+	}
+	
+	
+	/**
+	 * Records the time to take a connection from the pool.
+	 * 
+	 * @param nanos
+	 *            the duration in nanoseconds
+	 */
+	public void connectionAcquired(long nanos)
+	{
+		acquireTimes.record(nanos);
+		for(Listener listener : listeners)
+		{
+			listener.connectionAcquired(nanos,false);
+		}
+	}
+	
+	
+	/**
+	 * Records the time to open a physical connection.
+	 * 
+	 * @param nanos
+	 *            the duration in nanoseconds
+	 */
+	public void connectionEstablished(long nanos)
+	{
+		establishTimes.record(nanos);
+		for(Listener listener : listeners)
+		{
+			listener.connectionAcquired(nanos,true);
+		}
+	}
+	
+	
+	/**
+	 * @param shape
+	 *            a statement shape
+	 * @return the statistics of the shape or <code>null</code>
+	 */
+	public StatementStatistics getStatementStatistics(String shape)
+	{
+		return statements.get(shape);
+	}
+	
+	
+	@Override
+	public List<StatementStatistics> getStatements()
+	{
+		return new ArrayList<StatementStatistics>(statements.values());
+	}
+	
+	
+	@Override
+	public long getStatementCount()
+	{
+		long count = 0;
+		for(StatementStatistics statistics : statements.values())
+		{
+			count += statistics.getExecutionCount();
+		}
+		return count;
+	}
+	
+	
+	@Override
+	public long getErrorCount()
+	{
+		long count = 0;
+		for(int i = 0; i < errors.length(); i++)
+		{
+			count += errors.get(i);
+		}
+		return count;
+	}
+	
+	
+	@Override
+	public long getRowCount()
+	{
+		long count = 0;
+		for(StatementStatistics statistics : statements.values())
+		{
+			count += statistics.getRowCount();
+		}
+		return count;
+	}
+	
+	
+	/**
+	 * @param category
+	 *            the error category
+	 * @return the number of failures of the category
+	 */
+	public long getErrorCount(Category category)
+	{
+		return errors.get(category.ordinal());
+	}
+	
+	
+	@Override
+	public Map<String, Long> getErrorCounts()
+	{
+		Map<String, Long> counts = new LinkedHashMap<String, Long>();
+		for(Category category : Category.values())
+		{
+			counts.put(category.name(),errors.get(category.ordinal()));
+		}
+		return counts;
+	}
+	
+	
+	/**
+	 * @return the histogram of the times to take a connection from the pool
+	 */
+	public Histogram getConnectionAcquireTimes()
+	{
+		return acquireTimes;
+	}
+	
+	
+	/**
+	 * @return the histogram of the times to open a physical connection
+	 */
+	public Histogram getConnectionEstablishTimes()
+	{
+		return establishTimes;
+	}
+	
+	
+	@Override
+	public long getConnectionAcquireCount()
+	{
+		return acquireTimes.getCount();
+	}
+	
+	
+	@Override
+	public double getConnectionAcquireMeanMillis()
+	{
+		return acquireTimes.getMeanMillis();
+	}
+	
+	
+	@Override
+	public double getConnectionAcquireP99Millis()
+	{
+		return acquireTimes.getPercentileMillis(99);
+	}
+	
+	
+	@Override
+	public long getConnectionEstablishCount()
+	{
+		return establishTimes.getCount();
+	}
+	
+	
+	@Override
+	public double getConnectionEstablishMeanMillis()
+	{
+		return establishTimes.getMeanMillis();
+	}
+	
+	
+	/**
+	 * @return the server-side metrics or <code>null</code> if they are not
+	 *         polled
+	 */
+	public DB2ServerMetrics getServerMetrics()
+	{
+		return serverMetrics;
+	}
+	
+	
+	void setServerMetrics(DB2ServerMetrics serverMetrics)
+	{
+		this.serverMetrics = serverMetrics;
+	}
+	
+	
+	@Override
+	public Map<String, Long> getServerConnectionMetrics()
+	{
+		DB2ServerMetrics serverMetrics = this.serverMetrics;
+		return serverMetrics != null ? serverMetrics.getConnectionMetrics() : Collections
+				.<String, Long> emptyMap();
+	}
+	
+	
+	@Override
+	public void reset()
+	{
+		statements.clear();
+		for(int i = 0; i < errors.length(); i++)
+		{
+			errors.set(i,0);
+		}
+		acquireTimes.reset();
+		establishTimes.reset();
+	}
+	
+	
+	/**
+	 * Registers this instrumentation with the platform MBean server as
+	 * <code>xdev.db.db2:type=Instrumentation,name=<i>name</i></code>.
+	 * 
+	 * @param name
+	 *            the name of the data source
+	 * @throws IllegalStateException
+	 *             if the registration fails
+	 */
+	synchronized void register(String name)
+	{
+		try
+		{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName("xdev.db.db2:type=Instrumentation,name="
+					+ ObjectName.quote(name));
+			if(server.isRegistered(objectName))
+			{
+				objectName = new ObjectName(objectName.getCanonicalName() + ",id="
+						+ Integer.toHexString(System.identityHashCode(this)));
+			}
+			server.registerMBean(this,objectName);
+			this.objectName = objectName;
+		}
+		catch(JMException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	
+	/**
+	 * Removes the registration of {@link #register(String)}.
+	 */
+	synchronized void unregister()
+	{
+		if(objectName != null)
+		{
+			try
+			{
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			}
+			catch(JMException e)
+			{
+				// not registered anymore
+			}
+			objectName = null;
+		}
+	}
+	
+	
+	/**
+	 * @param failure
+	 *            an exception
+	 * @return the category of the first {@link DB2SQLEngineException} or
+	 *         {@link SQLException} in the cause chain of <code>failure</code>
+	 */
+	public static Category categorize(Throwable failure)
+	{
+		for(Throwable cause = failure; cause != null; cause = cause.getCause())
+		{
+			if(cause instanceof DB2SQLEngineException)
+			{
+				return ((DB2SQLEngineException)cause).getCategory();
+			}
+			if(cause instanceof SQLException)
+			{
+				return EXCEPTION_PARSER.parseSQLException((SQLException)cause).getCategory();
+			}
+			if(cause.getCause() == cause)
+			{
+				break;
+			}
+		}
+		return Category.OTHER;
+	}
+	
+	
+	/**
+	 * Replaces the string and numeric literals of <code>sql</code> with
+	 * <code>?</code> and collapses whitespace.
+	 * 
+	 * @param sql
+	 *            the SQL text
+	 * @return the statement shape
+	 */
+	public static String toShape(String sql)
+	{
+		int length = Math.min(sql.length(),MAX_SHAPE_LENGTH);
+		StringBuilder sb = new StringBuilder(length);
+		boolean space = false;
+		for(int i = 0; i < length; i++)
+		{
+			char ch = sql.charAt(i);
+			if(Character.isWhitespace(ch))
+			{
+				space = sb.length() > 0;
+				continue;
+			}
+			if(space)
+			{
+				sb.append(' ');
+				space = false;
+			}
+			
+			if(ch == '\'')
+			{
+				// string literal, '' is an escaped quote
+				int end = i + 1;
+				while(end < length)
+				{
+					if(sql.charAt(end) == '\'')
+					{
+						if(end + 1 < length && sql.charAt(end + 1) == '\'')
+						{
+							end += 2;
+							continue;
+						}
+						break;
+					}
+					end++;
+				}
+				sb.append('?');
+				i = end;
+			}
+			else if(ch == '"')
+			{
+				// delimited identifier
+				int end = sql.indexOf('"',i + 1);
+				end = end < 0 || end >= length ? length - 1 : end;
+				sb.append(sql,i,end + 1);
+				i = end;
+			}
+			else if(Character.isDigit(ch) && (sb.length() == 0 || !isIdentifierPart(sb.charAt(sb.length() - 1))))
+			{
+				while(i + 1 < length && (Character.isLetterOrDigit(sql.charAt(i + 1)) || sql.charAt(i + 1) == '.'))
+				{
+					i++;
+				}
+				sb.append('?');
+			}
+			else
+			{
+				sb.append(ch);
+			}
+		}
+		return sb.toString();
+	}
+	
+	
+	private static boolean isIdentifierPart(char ch)
+	{
+		return Character.isLetterOrDigit(ch) || ch == '_' || ch == '$' || ch == '#' || ch == '@';
+	}
+	
+	
+	
+	/**
+	 * Statistics of one statement shape.
+	 */
+	public static final class StatementStatistics
+	{
+		private final String	shape;
+		final Histogram			latency	= new Histogram();
+		final AtomicLong		rows	= new AtomicLong();
+		final AtomicLong		errors	= new AtomicLong();
+		
+		
+		StatementStatistics(String shape)
+		{
+			this.shape = shape;
+		}
+		
+		
+		/**
+		 * @return the statement shape
+		 */
+		public String getShape()
+		{
+			return shape;
+		}
+		
+		
+		/**
+		 * @return the number of executions
+		 */
+		public long getExecutionCount()
+		{
+			return latency.getCount();
+		}
+		
+		
+		/**
+		 * @return the number of failed executions
+		 */
+		public long getErrorCount()
+		{
+			return errors.get();
+		}
+		
+		
+		/**
+		 * @return the number of fetched or written rows
+		 */
+		public long getRowCount()
+		{
+			return rows.get();
+		}
+		
+		
+		/**
+		 * @return the sum of the execution times in milliseconds
+		 */
+		public double getTotalMillis()
+		{
+			return latency.getTotalMillis();
+		}
+		
+		
+		/**
+		 * @return the mean execution time in milliseconds
+		 */
+		public double getMeanMillis()
+		{
+			return latency.getMeanMillis();
+		}
+		
+		
+		/**
+		 * @return the longest execution time in milliseconds
+		 */
+		public double getMaxMillis()
+		{
+			return latency.getMaxMillis();
+		}
+		
+		
+		/**
+		 * @return the median execution time in milliseconds
+		 */
+		public double getP50Millis()
+		{
+			return latency.getPercentileMillis(50);
+		}
+		
+		
+		/**
+		 * @return the 95th percentile of the execution time in milliseconds
+		 */
+		public double getP95Millis()
+		{
+			return latency.getPercentileMillis(95);
+		}
+		
+		
+		/**
+		 * @return the 99th percentile of the execution time in milliseconds
+		 */
+		public double getP99Millis()
+		{
+			return latency.getPercentileMillis(99);
+		}
+	}
+	
+	
+	
+	/**
+	 * Latency histogram with power-of-two buckets of microseconds. A
+	 * percentile is reported as the upper bound of its bucket, i.e. with an
+	 * error of at most a factor of two.
+	 */
+	public static final class Histogram
+	{
+		private static final int		BUCKETS	= 40;
+		
+		private final AtomicLongArray	buckets	= new AtomicLongArray(BUCKETS);
+		private final AtomicLong		count	= new AtomicLong();
+		private final AtomicLong		total	= new AtomicLong();
+		private final AtomicLong		max		= new AtomicLong();
+		
+		
+		void record(long nanos)
+		{
+			long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(0,nanos));
+			buckets.incrementAndGet(Math.min(BUCKETS - 1,64 - Long.numberOfLeadingZeros(micros)));
+			count.incrementAndGet();
+			total.addAndGet(nanos);
+			long current;
+			while(nanos > (current = max.get()) && !max.compareAndSet(current,nanos))
+			{
+				// retry
+			}
+		}
+		
+		
+		void reset()
+		{
+			for(int i = 0; i < BUCKETS; i++)
+			{
+				buckets.set(i,0);
+			}
+			count.set(0);
+			total.set(0);
+			max.set(0);
+		}
+		
+		
+		/**
+		 * @return the number of recorded durations
+		 */
+		public long getCount()
+		{
+			return count.get();
+		}
+		
+		
+		/**
+		 * @return the sum of the durations in milliseconds
+		 */
+		public double getTotalMillis()
+		{
+			return total.get() / 1e6;
+		}
+		
+		
+		/**
+		 * @return the mean duration in milliseconds
+		 */
+		public double getMeanMillis()
+		{
+			long count = this.count.get();
+			return count > 0 ? total.get() / 1e6 / count : 0;
+		}
+		
+		
+		/**
+		 * @return the longest duration in milliseconds
+		 */
+		public double getMaxMillis()
+		{
+			return max.get() / 1e6;
+		}
+		
+		
+		/**
+		 * @param percentile
+		 *            the percentile, from 0 to 100
+		 * @return the upper bound of the bucket of the percentile in
+		 *         milliseconds
+		 */
+		public double getPercentileMillis(double percentile)
+		{
+			long[] counts = new long[BUCKETS];
+			long sum = 0;
+			for(int i = 0; i < BUCKETS; i++)
+			{
+				sum += counts[i] = buckets.get(i);
+			}
+			if(sum == 0)
+			{
+				return 0;
+			}
+			long rank = (long)Math.ceil(sum * Math.min(100,Math.max(0,percentile)) / 100);
+			long seen = 0;
+			for(int i = 0; i < BUCKETS; i++)
+			{
+				seen += counts[i];
+				if(seen >= rank && counts[i] > 0)
+				{
+					return Math.min((1L << i) / 1e3,getMaxMillis());
+				}
+			}
+			return getMaxMillis();
+		}
+	}
+}
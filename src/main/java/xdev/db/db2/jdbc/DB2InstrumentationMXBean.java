@@ -0,0 +1,105 @@
+/*
+ * SqlEngine Database Adapter DB2 - XAPI SqlEngine Database Adapter for DB2
+ * Copyright © 2003 XDEV Software (https://xdev.software)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package xdev.db.db2.jdbc;
+
+
+import java.util.List;
+import java.util.Map;
+
+import xdev.db.db2.jdbc.DB2Instrumentation.StatementStatistics;
+
+
+/**
+ * JMX view of a {@link DB2Instrumentation}.
+ */
+public interface DB2InstrumentationMXBean
+{
+	/**
+	 * @return the number of executed statements and operations
+	 */
+	public long getStatementCount();
+	
+	
+	/**
+	 * @return the number of failed statements and operations
+	 */
+	public long getErrorCount();
+	
+	
+	/**
+	 * @return the number of fetched or written rows
+	 */
+	public long getRowCount();
+	
+	
+	/**
+	 * @return the number of failures per error category
+	 */
+	public Map<String, Long> getErrorCounts();
+	
+	
+	/**
+	 * @return the statistics per statement shape
+	 */
+	public List<StatementStatistics> getStatements();
+	
+	
+	/**
+	 * @return the number of connections taken from the pool
+	 */
+	public long getConnectionAcquireCount();
+	
+	
+	/**
+	 * @return the mean time to take a connection from the pool in
+	 *         milliseconds
+	 */
+	public double getConnectionAcquireMeanMillis();
+	
+	
+	/**
+	 * @return the 99th percentile of the time to take a connection from the
+	 *         pool in milliseconds
+	 */
+	public double getConnectionAcquireP99Millis();
+	
+	
+	/**
+	 * @return the number of opened physical connections
+	 */
+	public long getConnectionEstablishCount();
+	
+	
+	/**
+	 * @return the mean time to open a physical connection in milliseconds
+	 */
+	public double getConnectionEstablishMeanMillis();
+	
+	
+	/**
+	 * @return the server-side connection metrics of the last
+	 *         {@link DB2ServerMetrics} refresh, empty if not enabled
+	 */
+	public Map<String, Long> getServerConnectionMetrics();
+	
+	
+	/**
+	 * Resets all counters and histograms.
+	 */
+	public void reset();
+}
@@ -18,73 +18,1016 @@
 package xdev.db.db2.jdbc;
 
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.text.ParseException;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.Locale;
 import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import xdev.db.DBException;
+import xdev.db.Result;
+import xdev.db.WriteResult;
+import xdev.db.db2.jdbc.DB2ConnectionInformation.Server;
 import xdev.db.jdbc.JDBCConnection;
+import xdev.db.sql.SELECT;
+import xdev.db.sql.WritingQuery;
+import xdev.util.ProgressMonitor;
+
+import com.ibm.db2.jcc.DB2PreparedStatement;
 
 
 public class DB2JDBCConnection extends JDBCConnection<DB2JDBCDataSource, DB2Dbms>
 {
+	private static final String		SELECT_TABLE_CARDINALITY	= "SELECT CARD FROM SYSCAT.TABLES "
+			+ "WHERE TABSCHEMA = COALESCE(CAST(? AS VARCHAR(128)), CURRENT SCHEMA) "
+			+ "AND TABNAME = ? FOR READ ONLY";
+	
+	/**
+	 * Unfiltered select of a single table: plain column list or *, optional
+	 * schema and correlation name, no where, grouping or ordering.
+	 */
+	private static final Pattern	SIMPLE_SELECT				= Pattern
+			.compile("(?is)\\s*SELECT\\s+(?!DISTINCT\\s)(?:ALL\\s+)?([^()'\";]+?)\\s+FROM\\s+"
+					+ "(?:(\"(?:[^\"]|\"\")+\"|\\w+)\\s*\\.\\s*)?(\"(?:[^\"]|\"\")+\"|\\w+)"
+					+ "(?:\\s+(?:AS\\s+)?(?!WHERE\\b|GROUP\\b|ORDER\\b|FETCH\\b|FOR\\b|OFFSET\\b|WITH\\b)\\w+)?\\s*;?\\s*");
+	
+	
+	/**
+	 * Strategy used by {@link DB2JDBCConnection#getQueryRowCount(String)}.
+	 */
+	public static enum QueryRowCountMode
+	{
+		/**
+		 * Executes <code>SELECT COUNT(*) FROM (select)</code>.
+		 */
+		EXACT,
+		
+		/**
+		 * Reads <code>SYSCAT.TABLES.CARD</code> for unfiltered single-table
+		 * selects, otherwise the optimizer's estimate which DB2 returns on
+		 * PREPARE. Counts exactly if neither is available.
+		 */
+		ESTIMATED,
+		
+		/**
+		 * Counts exactly and keeps the result in the
+		 * {@link DB2JDBCDataSource#getQueryRowCountCache() row count cache} of
+		 * the data source until it expires.
+		 */
+		CACHED
+	}
+	
+	
+	/**
+	 * Target of read-only work: row counts, exports, LOB streams,
+	 * {@link DB2JDBCConnection#executeReadOnly(ReadOnlyWork) read-only
+	 * units of work} and metadata loads.
+	 * 
+	 * @see DB2JDBCDataSource#STANDBY_SERVERS
+	 */
+	public static enum ReadRouting
+	{
+		/**
+		 * Reads from the primary server, which sees all committed writes.
+		 */
+		PRIMARY,
+		
+		/**
+		 * Reads from a HADR reads-on-standby server, which may lag behind the
+		 * primary, or from the primary if no standby is available.
+		 */
+		STANDBY
+	}
+	
+	
+	/**
+	 * A unit of read-only work, see
+	 * {@link DB2JDBCConnection#executeReadOnly(ReadOnlyWork, ReadRouting)}.
+	 */
+	public static interface ReadOnlyWork<T>
+	{
+		/**
+		 * @param connection
+		 *            a connection to a standby or the primary server, which is
+		 *            closed by the caller
+		 * @return the result
+		 * @throws SQLException
+		 *             if a database error occurs
+		 */
+		public T execute(Connection connection) throws SQLException;
+	}
+	
+	
+	private static final DB2ExceptionParser	EXCEPTION_PARSER	= new DB2ExceptionParser();
+	
+	private DB2SchemaChangeBatch				schemaChanges;
+	private volatile ReadRouting				readRouting;
+	/**
+	 * Nesting of the timed entry points per thread, only the outermost call is
+	 * recorded.
+	 */
+	private final ThreadLocal<int[]>			executionDepth;
+	
+	
 	public DB2JDBCConnection(DB2JDBCDataSource dataSource)
 	{
-		super(dataSource);
+		super(dataSource);
+		
+		this.executionDepth = new ThreadLocal<int[]>()
+		{
+			@Override
+			protected int[] initialValue()
+			{
+				return new int[1];
+			}
+		};
+	}
+	
+	
+	/**
+	 * @return the routing of read-only work of this connection
+	 */
+	public ReadRouting getReadRouting()
+	{
+		ReadRouting readRouting = this.readRouting;
+		return readRouting != null ? readRouting : dataSource.getReadRouting();
+	}
+	
+	
+	/**
+	 * Overrides the {@link DB2JDBCDataSource#getReadRouting() routing of the
+	 * data source}, e.g. {@link ReadRouting#PRIMARY} to read the own writes.
+	 * 
+	 * @param readRouting
+	 *            the routing, <code>null</code> for the one of the data source
+	 */
+	public void setReadRouting(ReadRouting readRouting)
+	{
+		this.readRouting = readRouting;
+	}
+	
+	
+	/**
+	 * @return the pending schema changes of {@link DB2JDBCMetaData},
+	 *         <code>null</code> if the changes are not batched
+	 */
+	synchronized DB2SchemaChangeBatch getSchemaChanges()
+	{
+		return schemaChanges;
+	}
+	
+	
+	/**
+	 * Starts to batch the schema changes of {@link DB2JDBCMetaData}. By default
+	 * every change is executed immediately. Batched column changes of a table
+	 * are combined into one <code>ALTER TABLE</code> statement followed by at
+	 * most one table reorganization and the index batch, which are executed
+	 * when the changes of the next table begin. The changes of the last table
+	 * are executed by {@link #flushSchemaChanges()}, which has to be called
+	 * before the changed tables are used.
+	 */
+	public synchronized void beginSchemaChanges()
+	{
+		if(schemaChanges == null)
+		{
+			schemaChanges = new DB2SchemaChangeBatch();
+		}
+	}
+	
+	
+	/**
+	 * Executes the pending schema changes of {@link DB2JDBCMetaData} and ends
+	 * the batch started by {@link #beginSchemaChanges()}. {@link #close()}
+	 * calls it as a last resort.
+	 * 
+	 * @throws DBException
+	 *             if a change fails
+	 */
+	public synchronized void flushSchemaChanges() throws DBException
+	{
+		if(schemaChanges == null)
+		{
+			return;
+		}
+		
+		DB2SchemaChangeBatch schemaChanges = this.schemaChanges;
+		this.schemaChanges = null;
+		if(schemaChanges.isEmpty())
+		{
+			return;
+		}
+		
+		try
+		{
+			Connection connection = super.getConnection();
+			try
+			{
+				schemaChanges.flush(connection);
+			}
+			finally
+			{
+				connection.close();
+			}
+		}
+		catch(SQLException e)
+		{
+			throw new DBException(dataSource,e);
+		}
+	}
+	
+	
+	@Override
+	public void close() throws DBException
+	{
+		try
+		{
+			flushSchemaChanges();
+		}
+		finally
+		{
+			super.close();
+		}
+	}
+	
+	
+	@Override
+	protected Connection establishConnection() throws DBException
+	{
+		DB2ConnectionPool pool = dataSource.getConnectionPool();
+		if(pool != null)
+		{
+			long start = System.nanoTime();
+			Connection connection = pool.getConnection();
+			DB2Instrumentation instrumentation = dataSource.getInstrumentation();
+			if(instrumentation != null)
+			{
+				instrumentation.connectionAcquired(System.nanoTime() - start);
+			}
+			return connection;
+		}
+		return establishPhysicalConnection();
+	}
+	
+	
+	/**
+	 * Opens a new physical connection. The schema is set by the
+	 * <code>currentSchema</code> property of the url, <code>SET SCHEMA</code>
+	 * is only executed if the url extension prevents that.
+	 */
+	Connection establishPhysicalConnection() throws DBException
+	{
+		long start = System.nanoTime();
+		Connection connection = initConnection(super.establishConnection());
+		connectionEstablished(start);
+		return connection;
+	}
+	
+	
+	/**
+	 * Opens a new physical connection to a HADR standby server, which is
+	 * read only and uses the isolation level uncommitted read, the only one
+	 * a standby supports.
+	 */
+	Connection establishStandbyConnection(Server standby) throws DBException
+	{
+		long start = System.nanoTime();
+		DB2ConnectionInformation info = dataSource.getConnectionInformation(standby);
+		Connection con;
+		try
+		{
+			con = DriverManager.getConnection(info.createJdbcConnectionUrl(),
+					dataSource.getUserName(),dataSource.getPassword().getPlainText());
+		}
+		catch(SQLException e)
+		{
+			throw new DBException(dataSource,e);
+		}
+		
+		initConnection(con);
+		try
+		{
+			con.setReadOnly(true);
+			con.setTransactionIsolation(Connection.TRANSACTION_READ_UNCOMMITTED);
+		}
+		catch(SQLException e)
+		{
+			close(con);
+			throw new DBException(dataSource,e);
+		}
+		connectionEstablished(start);
+		return con;
+	}
+	
+	
+	private Connection initConnection(Connection con) throws DBException
+	{
+		try
+		{
+			DB2Dbms dbms = dataSource.getDbmsAdaptor();
+			if(!dbms.isServerVersionDetected())
+			{
+				dbms.detectServerVersion(con.getMetaData());
+			}
+			
+			String schema = dataSource.getSessionSchema();
+			if(schema != null && !dataSource.getConnectionInformation().isUrlPropertiesApplicable())
+			{
+				Statement statement = con.createStatement();
+				try
+				{
+					statement.execute("SET SCHEMA \"" + schema.replace("\"","\"\"") + "\"");
+				}
+				finally
+				{
+					statement.close();
+				}
+			}
+		}
+		catch(SQLException e)
+		{
+			close(con);
+			throw new DBException(dataSource,e);
+		}
+		
+		return con;
+	}
+	
+	
+	private void connectionEstablished(long start)
+	{
+		DB2Instrumentation instrumentation = dataSource.getInstrumentation();
+		if(instrumentation != null)
+		{
+			instrumentation.connectionEstablished(System.nanoTime() - start);
+		}
+	}
+	
+	
+	private void statementExecuted(String sql, long start, long rows, Throwable failure)
+	{
+		DB2Instrumentation instrumentation = dataSource.getInstrumentation();
+		if(instrumentation != null)
+		{
+			instrumentation.statementExecuted(sql,System.nanoTime() - start,rows,failure);
+		}
+	}
+	
+	
+	/**
+	 * Records an executed query with the instrumentation and the slow query
+	 * capture of the data source.
+	 */
+	private void queryExecuted(String sql, Object[] params, long start, long rows,
+			Throwable failure)
+	{
+		long nanos = System.nanoTime() - start;
+		DB2Instrumentation instrumentation = dataSource.getInstrumentation();
+		if(instrumentation != null)
+		{
+			instrumentation.statementExecuted(sql,nanos,rows,failure);
+		}
+		DB2SlowQueryCapture slowQueryCapture = dataSource.getSlowQueryCapture();
+		if(slowQueryCapture != null)
+		{
+			slowQueryCapture.statementExecuted(sql,params,nanos,rows,failure);
+		}
+	}
+	
+	
+	private static void close(Connection con)
+	{
+		try
+		{
+			con.close();
+		}
+		catch(SQLException closeException)
+		{
+			// the original exception is reported
+		}
+	}
+	
+	
+	@Override
+	public Result query(String sql, Object... params) throws DBException
+	{
+		long start = System.nanoTime();
+		enterExecution();
+		try
+		{
+			Result result = super.query(sql,params);
+			executed(sql,params,start,-1,null);
+			return result;
+		}
+		catch(DBException e)
+		{
+			executed(sql,params,start,-1,e);
+			throw e;
+		}
+		finally
+		{
+			exitExecution();
+		}
+	}
+	
+	
+	@Override
+	public Result query(SELECT select, Object... params) throws DBException
+	{
+		long start = System.nanoTime();
+		enterExecution();
+		try
+		{
+			Result result = super.query(select,params);
+			executed(select.toString(),params,start,-1,null);
+			return result;
+		}
+		catch(DBException e)
+		{
+			executed(select.toString(),params,start,-1,e);
+			throw e;
+		}
+		finally
+		{
+			exitExecution();
+		}
+	}
+	
+	
+	@Override
+	public WriteResult write(String sql, boolean returnGeneratedKeys, Object... params)
+			throws DBException
+	{
+		long start = System.nanoTime();
+		enterExecution();
+		try
+		{
+			WriteResult result = super.write(sql,returnGeneratedKeys,params);
+			executed(sql,params,start,result.getAffectedRows(),null);
+			return result;
+		}
+		catch(DBException e)
+		{
+			executed(sql,params,start,-1,e);
+			throw e;
+		}
+		finally
+		{
+			exitExecution();
+		}
+	}
+	
+	
+	@Override
+	public WriteResult write(WritingQuery query, boolean returnGeneratedKeys, Object... params)
+			throws DBException
+	{
+		long start = System.nanoTime();
+		enterExecution();
+		try
+		{
+			WriteResult result = super.write(query,returnGeneratedKeys,params);
+			executed(query.toString(),params,start,result.getAffectedRows(),null);
+			return result;
+		}
+		catch(DBException e)
+		{
+			executed(query.toString(),params,start,-1,e);
+			throw e;
+		}
+		finally
+		{
+			exitExecution();
+		}
+	}
+	
+	
+	/**
+	 * Records a call of the query and write entry points, the nested calls of
+	 * the super implementation are not recorded again.
+	 * 
+	 * @see #queryExecuted(String, Object[], long, long, Throwable)
+	 */
+	private void executed(String sql, Object[] params, long start, long rows, Throwable failure)
+	{
+		if(executionDepth.get()[0] == 1)
+		{
+			queryExecuted(sql,params,start,rows,failure);
+		}
+	}
+	
+	
+	private void enterExecution()
+	{
+		executionDepth.get()[0]++;
+	}
+	
+	
+	private void exitExecution()
+	{
+		int[] depth = executionDepth.get();
+		if(--depth[0] == 0)
+		{
+			executionDepth.remove();
+		}
+	}
+	
+	
+	/**
+	 * Counts the rows of <code>select</code> with the
+	 * {@link DB2JDBCDataSource#getQueryRowCountMode() query row count mode} of
+	 * the data source.
+	 * 
+	 * @see #getQueryRowCount(String, QueryRowCountMode)
+	 */
+	@Override
+	public int getQueryRowCount(String select) throws DBException
+	{
+		return getQueryRowCount(select,dataSource.getQueryRowCountMode());
+	}
+	
+	
+	/**
+	 * Determines the number of rows <code>select</code> returns.
+	 * 
+	 * @param select
+	 *            the select statement
+	 * @param mode
+	 *            the strategy to use
+	 * @return the (estimated) row count
+	 * @throws DBException
+	 *             if a database error occurs
+	 */
+	public int getQueryRowCount(String select, QueryRowCountMode mode) throws DBException
+	{
+		switch(mode)
+		{
+			case ESTIMATED:
+			{
+				int rowCount = estimateQueryRowCount(select);
+				return rowCount >= 0 ? rowCount : countQueryRows(select);
+			}
+			
+			case CACHED:
+			{
+				DB2QueryRowCountCache cache = dataSource.getQueryRowCountCache();
+				int rowCount = cache.get(select);
+				if(rowCount < 0)
+				{
+					rowCount = countQueryRows(select);
+					cache.put(select,rowCount);
+				}
+				return rowCount;
+			}
+			
+			default:
+				return countQueryRows(select);
+		}
+	}
+	
+	
+	private int countQueryRows(String select) throws DBException
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append("SELECT COUNT(*) FROM (");
+		sb.append(select);
+		sb.append(")");
+		String sql = sb.toString();
+		
+		long start = System.nanoTime();
+		try
+		{
+			Connection connection = dataSource.getReadConnection(getReadRouting());
+			try
+			{
+				Statement statement = connection.createStatement();
+				try
+				{
+					ResultSet result = statement.executeQuery(sql);
+					result.next();
+					int rowCount = result.getInt(1);
+					queryExecuted(sql,null,start,1,null);
+					return rowCount;
+				}
+				finally
+				{
+					statement.close();
+				}
+			}
+			finally
+			{
+				connection.close();
+			}
+		}
+		catch(SQLException e)
+		{
+			queryExecuted(sql,null,start,-1,e);
+			throw new DBException(dataSource,e);
+		}
+	}
+	
+	
+	/**
+	 * Returns the cardinality of the catalog statistics for unfiltered
+	 * single-table selects, otherwise the optimizer's estimate of the prepared
+	 * statement.
+	 * 
+	 * @return the estimated row count or -1 if no estimate is available
+	 */
+	private int estimateQueryRowCount(String select) throws DBException
+	{
+		try
+		{
+			Connection connection = dataSource.getReadConnection(getReadRouting());
+			try
+			{
+				Matcher matcher = SIMPLE_SELECT.matcher(select);
+				if(matcher.matches())
+				{
+					long card = readCardinality(connection,matcher.group(2),matcher.group(3));
+					if(card >= 0)
+					{
+						return (int)Math.min(card,Integer.MAX_VALUE);
+					}
+				}
+				
+				return readOptimizerEstimate(connection,select);
+			}
+			finally
+			{
+				connection.close();
+			}
+		}
+		catch(SQLException e)
+		{
+			throw new DBException(dataSource,e);
+		}
+	}
+	
+	
+	private long readCardinality(Connection connection, String schema, String table)
+			throws SQLException
+	{
+		PreparedStatement statement = connection.prepareStatement(SELECT_TABLE_CARDINALITY);
+		try
+		{
+			statement.setString(1,schema != null ? toCatalogName(schema) : null);
+			statement.setString(2,toCatalogName(table));
+			ResultSet rs = statement.executeQuery();
+			try
+			{
+				return rs.next() ? rs.getLong(1) : -1;
+			}
+			finally
+			{
+				rs.close();
+			}
+		}
+		finally
+		{
+			statement.close();
+		}
+	}
+	
+	
+	/**
+	 * The optimizer's estimate is returned by the server on PREPARE, the
+	 * statement itself is not executed.
+	 */
+	private int readOptimizerEstimate(Connection connection, String select) throws SQLException
+	{
+		PreparedStatement statement = connection.prepareStatement(select);
+		try
+		{
+			if(!statement.isWrapperFor(DB2PreparedStatement.class))
+			{
+				return -1;
+			}
+			
+			// forces the deferred prepare
+			statement.getMetaData();
+			int estimate = statement.unwrap(DB2PreparedStatement.class).getEstimateRowCount();
+			return estimate >= 0 ? estimate : -1;
+		}
+		finally
+		{
+			statement.close();
+		}
+	}
+	
+	
+	private static String toCatalogName(String identifier)
+	{
+		if(identifier.length() > 1 && identifier.charAt(0) == '"')
+		{
+			return identifier.substring(1,identifier.length() - 1).replace("\"\"","\"");
+		}
+		return identifier.toUpperCase(Locale.ENGLISH);
 	}
 	
 	
-	@Override
-	protected Connection establishConnection() throws DBException
+	/**
+	 * Inserts all <code>rows</code> with the strategy of <code>insert</code>.
+	 * Auto-commit is disabled for the duration of the insert, the rows are
+	 * committed in the intervals of <code>insert</code>.
+	 * 
+	 * @param insert
+	 *            the target table and the options
+	 * @param rows
+	 *            the rows, each array holds the values of the columns
+	 * @return the number of inserted rows
+	 * @throws DBException
+	 *             if the insert fails, uncommitted rows are rolled back
+	 */
+	public long bulkInsert(DB2BulkInsert insert, Iterator<Object[]> rows) throws DBException
+	{
+		try
+		{
+			Connection connection = super.getConnection();
+			try
+			{
+				boolean autoCommit = connection.getAutoCommit();
+				connection.setAutoCommit(false);
+				String shape = "INSERT INTO " + insert.getTable();
+				long start = System.nanoTime();
+				try
+				{
+					long rowCount = insert.execute(connection,rows);
+					statementExecuted(shape,start,rowCount,null);
+					return rowCount;
+				}
+				catch(Exception e)
+				{
+					statementExecuted(shape,start,-1,e);
+					throw e;
+				}
+				finally
+				{
+					connection.setAutoCommit(autoCommit);
+				}
+			}
+			finally
+			{
+				connection.close();
+			}
+		}
+		catch(DBException e)
+		{
+			throw e;
+		}
+		catch(Exception e)
+		{
+			throw new DBException(dataSource,e);
+		}
+	}
+	
+	
+	/**
+	 * Inserts or updates all <code>rows</code> with <code>MERGE</code>
+	 * statements. Auto-commit is disabled for the duration of the upsert, the
+	 * rows are committed at the end.
+	 * 
+	 * @param upsert
+	 *            the target table, the key columns and the batch size
+	 * @param rows
+	 *            the rows, each array holds the values of the columns
+	 * @return the number of inserted or updated rows
+	 * @throws DBException
+	 *             if the upsert fails, all rows are rolled back
+	 */
+	public long upsert(DB2Upsert upsert, Iterator<Object[]> rows) throws DBException
 	{
-		Connection con = super.establishConnection();
-		
 		try
 		{
-			String schema = dataSource.getSchema();
-			if(schema != null && schema.length() > 0 && !schema.equals(dataSource.getUserName()))
+			Connection connection = super.getConnection();
+			try
+			{
+				boolean autoCommit = connection.getAutoCommit();
+				connection.setAutoCommit(false);
+				String shape = "MERGE INTO " + upsert.getTable();
+				long start = System.nanoTime();
+				try
+				{
+					long rowCount = upsert.execute(connection,dataSource.getDbmsAdaptor()
+							.getDMLAssembler(),rows);
+					statementExecuted(shape,start,rowCount,null);
+					return rowCount;
+				}
+				catch(SQLException e)
+				{
+					statementExecuted(shape,start,-1,e);
+					throw e;
+				}
+				catch(RuntimeException e)
+				{
+					statementExecuted(shape,start,-1,e);
+					throw e;
+				}
+				finally
+				{
+					connection.setAutoCommit(autoCommit);
+				}
+			}
+			finally
 			{
-				con.createStatement().execute("SET SCHEMA " + schema);
+				connection.close();
 			}
 		}
 		catch(SQLException e)
 		{
 			throw new DBException(dataSource,e);
 		}
-		
-		return con;
 	}
 	
 	
-	@Override
-	public int getQueryRowCount(String select) throws DBException
+	/**
+	 * Executes <code>work</code> in one transaction. If a
+	 * {@link DB2JDBCDataSource#getRetryPolicy() retry policy} is set, the work
+	 * is repeated after deadlocks, lock timeouts and client reroutes. Work
+	 * which failed during the commit is repeated only if it is
+	 * <code>idempotent</code>.
+	 * 
+	 * @param work
+	 *            the unit of work, which must not have effects outside of the
+	 *            transaction
+	 * @param idempotent
+	 *            <code>true</code> if applying the work twice has the same
+	 *            effect as applying it once
+	 * @return the result of the work
+	 * @throws DBException
+	 *             if the work fails, its cause is a {@link DB2SQLEngineException}
+	 */
+	public <T> T execute(DB2RetryPolicy.Work<T> work, boolean idempotent) throws DBException
 	{
-		StringBuilder sb = new StringBuilder();
-		sb.append("SELECT COUNT(*) FROM (");
-		sb.append(select);
-		sb.append(")");
-		
+		DB2RetryPolicy policy = dataSource.getRetryPolicy();
+		for(int attempt = 1;; attempt++)
+		{
+			boolean[] committing = new boolean[1];
+			try
+			{
+				return executeTransaction(work,committing);
+			}
+			catch(SQLException e)
+			{
+				DB2SQLEngineException failure = EXCEPTION_PARSER.parseSQLException(e);
+				if(policy == null || !policy.retry(failure,attempt,idempotent || !committing[0]))
+				{
+					throw new DBException(dataSource,failure);
+				}
+			}
+		}
+	}
+	
+	
+	private <T> T executeTransaction(DB2RetryPolicy.Work<T> work, boolean[] committing)
+			throws SQLException, DBException
+	{
+		Connection connection = super.getConnection();
 		try
 		{
-			ResultSet result = queryJDBC(sb.toString());
+			boolean autoCommit = connection.getAutoCommit();
+			connection.setAutoCommit(false);
 			try
 			{
-				result.next();
-				int rowCount = result.getInt(1);
-				return rowCount;
+				T result = work.execute(connection);
+				committing[0] = true;
+				connection.commit();
+				return result;
+			}
+			catch(SQLException e)
+			{
+				rollback(connection);
+				throw e;
+			}
+			catch(RuntimeException e)
+			{
+				rollback(connection);
+				throw e;
 			}
 			finally
 			{
-				result.close();
+				connection.setAutoCommit(autoCommit);
 			}
 		}
-		catch(DBException e)
+		finally
 		{
-			throw e;
+			connection.close();
+		}
+	}
+	
+	
+	private static void rollback(Connection connection)
+	{
+		try
+		{
+			connection.rollback();
+		}
+		catch(SQLException e)
+		{
+			// the original exception is reported
+		}
+	}
+	
+	
+	/**
+	 * Executes read-only <code>work</code> with the {@link #getReadRouting()
+	 * read routing} of this connection.
+	 * 
+	 * @see #executeReadOnly(ReadOnlyWork, ReadRouting)
+	 */
+	public <T> T executeReadOnly(ReadOnlyWork<T> work) throws DBException
+	{
+		return executeReadOnly(work,getReadRouting());
+	}
+	
+	
+	/**
+	 * Executes read-only <code>work</code> on a standby or on the primary
+	 * server, depending on <code>routing</code>.
+	 * 
+	 * @param work
+	 *            the read-only unit of work
+	 * @param routing
+	 *            the routing of this call, {@link ReadRouting#PRIMARY} to read
+	 *            the own writes
+	 * @return the result of the work
+	 * @throws DBException
+	 *             if the work fails
+	 */
+	public <T> T executeReadOnly(ReadOnlyWork<T> work, ReadRouting routing)
+			throws DBException
+	{
+		try
+		{
+			Connection connection = dataSource.getReadConnection(routing);
+			try
+			{
+				return work.execute(connection);
+			}
+			finally
+			{
+				connection.close();
+			}
+		}
+		catch(SQLException e)
+		{
+			throw new DBException(dataSource,EXCEPTION_PARSER.parseSQLException(e));
+		}
+	}
+	
+	
+	/**
+	 * Exports the result of <code>select</code> with the settings of
+	 * <code>exporter</code>.
+	 * 
+	 * @param select
+	 *            the query, e.g. <code>SELECT * FROM table</code>
+	 * @param channel
+	 *            the target, which is not closed
+	 * @param exporter
+	 *            the format and buffer settings
+	 * @param monitor
+	 *            receives the progress, may be <code>null</code>
+	 * @return the number of exported rows
+	 * @throws DBException
+	 *             if the export fails
+	 */
+	public long export(String select, WritableByteChannel channel, DB2Exporter exporter,
+			ProgressMonitor monitor) throws DBException
+	{
+		try
+		{
+			Connection connection = dataSource.getReadConnection(getReadRouting());
+			long start = System.nanoTime();
+			try
+			{
+				long rowCount = exporter.export(connection,select,channel,monitor);
+				queryExecuted(select,null,start,rowCount,null);
+				return rowCount;
+			}
+			catch(Exception e)
+			{
+				queryExecuted(select,null,start,-1,e);
+				throw e;
+			}
+			finally
+			{
+				connection.close();
+			}
 		}
 		catch(Exception e)
 		{
@@ -93,6 +1036,90 @@ public class DB2JDBCConnection extends JDBCConnection<DB2JDBCDataSource, DB2Dbms
 	}
 	
 	
+	/**
+	 * Exports the result of <code>select</code> into <code>file</code>.
+	 * 
+	 * @see #export(String, WritableByteChannel, DB2Exporter, ProgressMonitor)
+	 */
+	public long export(String select, File file, DB2Exporter exporter, ProgressMonitor monitor)
+			throws DBException
+	{
+		try
+		{
+			FileChannel channel = new FileOutputStream(file).getChannel();
+			try
+			{
+				return export(select,channel,exporter,monitor);
+			}
+			finally
+			{
+				channel.close();
+			}
+		}
+		catch(IOException e)
+		{
+			throw new DBException(dataSource,e);
+		}
+	}
+	
+	
+	/**
+	 * Opens a stream over the BLOB in the first column of the first row of
+	 * <code>select</code>. The data is fetched while the stream is read, the
+	 * cursor and the connection are held until the stream is closed.
+	 * 
+	 * @param select
+	 *            the query, e.g. <code>SELECT data FROM docs WHERE id = ?</code>
+	 * @param params
+	 *            the parameters of the query
+	 * @return the stream or <code>null</code> if there is no row or the value
+	 *         is null
+	 * @throws DBException
+	 *             if the query fails
+	 * @see DB2JDBCDataSource#PROGRESSIVE_STREAMING
+	 */
+	public InputStream openBinaryStream(String select, Object... params) throws DBException
+	{
+		long start = System.nanoTime();
+		try
+		{
+			Connection connection = dataSource.getReadConnection(getReadRouting());
+			InputStream stream = DB2LobStream.openBinaryStream(connection,select,params);
+			queryExecuted(select,params,start,-1,null);
+			return stream;
+		}
+		catch(SQLException e)
+		{
+			queryExecuted(select,params,start,-1,e);
+			throw new DBException(dataSource,e);
+		}
+	}
+	
+	
+	/**
+	 * Opens a reader over the CLOB in the first column of the first row of
+	 * <code>select</code>.
+	 * 
+	 * @see #openBinaryStream(String, Object...)
+	 */
+	public Reader openCharacterStream(String select, Object... params) throws DBException
+	{
+		long start = System.nanoTime();
+		try
+		{
+			Connection connection = dataSource.getReadConnection(getReadRouting());
+			Reader stream = DB2LobStream.openCharacterStream(connection,select,params);
+			queryExecuted(select,params,start,-1,null);
+			return stream;
+		}
+		catch(SQLException e)
+		{
+			queryExecuted(select,params,start,-1,e);
+			throw new DBException(dataSource,e);
+		}
+	}
+	
+	
 	@Override
 	public void createTable(String tableName, String primaryKey, Map<String, String> columnMap,
 			boolean isAutoIncrement, Map<String, String> foreignKeys) throws Exception
@@ -108,34 +1135,15 @@ public class DB2JDBCConnection extends JDBCConnection<DB2JDBCDataSource, DB2Dbms
 					columnMap.put(primaryKey, "INTEGER"); //$NON-NLS-1$
 				}
 				
-				StringBuffer createStatement = createStringBuffer(tableName, primaryKey, columnMap, isAutoIncrement);
-				
-				int i = 1;
-				
-				for(String keySet : columnMap.keySet())
-				{
-					if(!keySet.equals(primaryKey))
-					{
-						if(i < columnMap.size())
-						{
-							createStatement.append(keySet + " " + columnMap.get(keySet) + ","); //$NON-NLS-1$ //$NON-NLS-2$
-							
-						}
-						else
-						{
-							createStatement.append(keySet + " " + columnMap.get(keySet) + ")"); //$NON-NLS-1$ //$NON-NLS-2$
-							
-						}
-					}
-					i++;
-				}
+				String createStatement = createTableStatement(tableName,primaryKey,columnMap,
+						isAutoIncrement);
 				
 				if(log.isDebugEnabled())
 				{
-					log.debug("SQL Statement to create a table: " + createStatement.toString()); //$NON-NLS-1$
+					log.debug("SQL Statement to create a table: " + createStatement); //$NON-NLS-1$
 				}
 				
-				statement.execute(createStatement.toString());
+				statement.execute(createStatement);
 			}
 		}
 		catch(Exception e)
@@ -149,6 +1157,41 @@ public class DB2JDBCConnection extends JDBCConnection<DB2JDBCDataSource, DB2Dbms
 		}
 	}
 	
+	
+	/**
+	 * Builds the statement of
+	 * {@link #createTable(String, String, Map, boolean, Map)}, the primary key
+	 * has to be part of <code>columnMap</code>.
+	 */
+	static String createTableStatement(String tableName, String primaryKey,
+			Map<String, String> columnMap, boolean isAutoIncrement)
+	{
+		StringBuffer createStatement = createStringBuffer(tableName, primaryKey, columnMap, isAutoIncrement);
+		
+		int i = 1;
+		
+		for(String keySet : columnMap.keySet())
+		{
+			if(!keySet.equals(primaryKey))
+			{
+				if(i < columnMap.size())
+				{
+					createStatement.append(keySet + " " + columnMap.get(keySet) + ","); //$NON-NLS-1$ //$NON-NLS-2$
+					
+				}
+				else
+				{
+					createStatement.append(keySet + " " + columnMap.get(keySet) + ")"); //$NON-NLS-1$ //$NON-NLS-2$
+					
+				}
+			}
+			i++;
+		}
+		
+		return createStatement.toString();
+	}
+	
+	
 	/**
 	 * Creates the StringBuffer depending on whether the table is AutoIncrement or not
 	 * @param tableName
@@ -220,9 +1263,89 @@ public class DB2JDBCConnection extends JDBCConnection<DB2JDBCDataSource, DB2Dbms
 	
 	@Override
 	public Date getServerTime() throws DBException, ParseException
+	{
+		DB2ServerClock clock = dataSource.getServerClock();
+		if(clock == null)
+		{
+			return getExactServerTime();
+		}
+		
+		if(clock.needsSync())
+		{
+			syncServerClock(clock,Long.MAX_VALUE);
+		}
+		return clock.currentTime();
+	}
+	
+	
+	/**
+	 * Returns the server time with an error of at most <code>maxError</code>
+	 * milliseconds. The server clock is synchronized if its accuracy is not
+	 * sufficient, the server is queried if even a synchronization is not
+	 * accurate enough.
+	 * 
+	 * @param maxError
+	 *            the maximum error in milliseconds
+	 * @return the server time
+	 * @see DB2ServerClock#getAccuracy()
+	 */
+	public Date getServerTime(long maxError) throws DBException, ParseException
+	{
+		DB2ServerClock clock = dataSource.getServerClock();
+		if(clock == null)
+		{
+			return getExactServerTime();
+		}
+		
+		if(clock.needsSync() || clock.getAccuracy() > maxError)
+		{
+			syncServerClock(clock,maxError);
+			if(clock.getAccuracy() > maxError)
+			{
+				return getExactServerTime();
+			}
+		}
+		return clock.currentTime();
+	}
+	
+	
+	/**
+	 * Queries the server time.
+	 * 
+	 * @return the server time
+	 */
+	public Date getExactServerTime() throws DBException, ParseException
 	{
 		String selectTime = "SELECT current timestamp FROM sysibm.sysdummy1"; //$NON-NLS-1$
 		return super.getServerTime(selectTime);
 	}
 	
+	
+	private void syncServerClock(DB2ServerClock clock, long maxError) throws DBException
+	{
+		try
+		{
+			Connection connection = super.getConnection();
+			try
+			{
+				synchronized(clock)
+				{
+					// another connection may have synchronized meanwhile
+					if(clock.needsSync() || clock.getAccuracy() > maxError)
+					{
+						clock.sync(connection);
+					}
+				}
+			}
+			finally
+			{
+				connection.close();
+			}
+		}
+		catch(SQLException e)
+		{
+			throw new DBException(dataSource,e);
+		}
+	}
+	
 }
@@ -18,15 +18,603 @@
 package xdev.db.db2.jdbc;
 
 
+import java.sql.Connection;
+import java.util.Locale;
+
 import xdev.db.DBException;
+import xdev.db.db2.jdbc.DB2ConnectionInformation.Server;
+import xdev.db.db2.jdbc.DB2JDBCConnection.QueryRowCountMode;
+import xdev.db.db2.jdbc.DB2JDBCConnection.ReadRouting;
+import xdev.db.db2.jdbc.DB2JDBCMetaData.RowCountMode;
 import xdev.db.jdbc.JDBCDataSource;
 
 
 public class DB2JDBCDataSource extends JDBCDataSource<DB2JDBCDataSource, DB2Dbms>
 {
+	/**
+	 * Name of the {@link DB2PerformanceProfile} which sets the fetch
+	 * properties of the connection url, default is
+	 * {@link DB2PerformanceProfile#DEFAULT}.
+	 */
+	public static final Parameter<String>	PERFORMANCE_PROFILE	= new Parameter<String>(
+			"performanceProfile",DB2PerformanceProfile.DEFAULT.name());
+	
+	/**
+	 * Size of the query blocks in bytes, overrides the value of the
+	 * performance profile if greater than 0.
+	 */
+	public static final Parameter<Integer>	QUERY_DATA_SIZE		= new Parameter<Integer>(
+			"queryDataSize",0);
+	
+	/**
+	 * Default fetch size of the statements, overrides the value of the
+	 * performance profile if greater than 0.
+	 */
+	public static final Parameter<Integer>	FETCH_SIZE			= new Parameter<Integer>(
+			"fetchSize",0);
+	
+	/**
+	 * Progressive streaming of LOBs: values up to
+	 * {@link #LOB_INLINE_THRESHOLD} are sent with the rows, larger values are
+	 * fetched on demand while they are read through
+	 * {@link DB2JDBCConnection#openBinaryStream(String, Object...)} or
+	 * {@link DB2JDBCConnection#openCharacterStream(String, Object...)}. The
+	 * results of <code>query()</code> still contain the complete values.
+	 * Default is <code>true</code>.
+	 */
+	public static final Parameter<Boolean>	PROGRESSIVE_STREAMING	= new Parameter<Boolean>(
+			"progressiveStreaming",Boolean.TRUE);
+	
+	/**
+	 * Size in bytes up to which LOBs are inlined in the query blocks, 0 for
+	 * the driver default of 1 MB.
+	 */
+	public static final Parameter<Integer>	LOB_INLINE_THRESHOLD	= new Parameter<Integer>(
+			"lobInlineThreshold",0);
+	
+	/**
+	 * Comma separated alternate servers of the client reroute, e.g.
+	 * <code>standby:50000,member2:50000</code>.
+	 */
+	public static final Parameter<String>	ALTERNATE_SERVERS		= new Parameter<String>(
+			"alternateServers","");
+	
+	/**
+	 * Seamless failover: after a reroute in a transaction boundary the
+	 * failed statement is repeated by the driver instead of throwing
+	 * SQLCODE -4498. Default is <code>false</code>.
+	 */
+	public static final Parameter<Boolean>	SEAMLESS_FAILOVER		= new Parameter<Boolean>(
+			"seamlessFailover",Boolean.FALSE);
+	
+	/**
+	 * Transaction-level workload balancing across the members of a pureScale
+	 * or Sysplex group, cannot be combined with {@link #CLIENT_AFFINITIES}.
+	 * Default is <code>false</code>.
+	 */
+	public static final Parameter<Boolean>	WORKLOAD_BALANCING		= new Parameter<Boolean>(
+			"workloadBalancing",Boolean.FALSE);
+	
+	/**
+	 * Client affinities: the primary and the {@link #ALTERNATE_SERVERS} are
+	 * tried in their order instead of the server list of the server, cannot
+	 * be combined with {@link #WORKLOAD_BALANCING}. Default is
+	 * <code>false</code>.
+	 */
+	public static final Parameter<Boolean>	CLIENT_AFFINITIES		= new Parameter<Boolean>(
+			"clientAffinities",Boolean.FALSE);
+	
+	/**
+	 * Maximum number of physical connections of the driver to all members
+	 * with {@link #WORKLOAD_BALANCING}, 0 for the driver default.
+	 */
+	public static final Parameter<Integer>	MAX_TRANSPORT_OBJECTS	= new Parameter<Integer>(
+			"maxTransportObjects",0);
+	
+	/**
+	 * Comma separated HADR reads-on-standby servers for read-only work, e.g.
+	 * <code>standby1:50000,standby2:50000</code>.
+	 * 
+	 * @see DB2StandbyRouter
+	 */
+	public static final Parameter<String>	STANDBY_SERVERS			= new Parameter<String>(
+			"standbyServers","");
+	
+	private volatile RowCountMode		rowCountMode				= RowCountMode.EXACT;
+	private volatile long				rowCountStatisticsMaxAge	= 0;
+	private volatile int				bulkMetaDataThreshold		= 0;
+	private volatile int				metaDataParallelism			= 1;
+	private volatile DB2MetaDataCache	metaDataCache;
+	private volatile QueryRowCountMode	queryRowCountMode			= QueryRowCountMode.EXACT;
+	private final DB2QueryRowCountCache	queryRowCountCache			= new DB2QueryRowCountCache();
+	private volatile DB2ConnectionPool	connectionPool;
+	private volatile int				statementCacheSize			= 0;
+	private final DB2StatementCache.Statistics	statementCacheStatistics	= new DB2StatementCache.Statistics();
+	private volatile DB2ServerClock		serverClock;
+	private volatile DB2RetryPolicy		retryPolicy;
+	private volatile ReadRouting		readRouting					= ReadRouting.STANDBY;
+	private volatile DB2StandbyRouter	standbyRouter;
+	private volatile DB2Instrumentation	instrumentation;
+	private DB2ServerMetrics			serverMetrics;
+	private volatile DB2SlowQueryCapture	slowQueryCapture;
+	
+	
 	public DB2JDBCDataSource()
 	{
 		super(new DB2Dbms());
+		getDbmsAdaptor().setDataSource(this);
+	}
+	
+	
+	/**
+	 * @return the strategy used by {@link DB2JDBCMetaData} to determine row
+	 *         counts
+	 */
+	public RowCountMode getRowCountMode()
+	{
+		return rowCountMode;
+	}
+	
+	
+	/**
+	 * Sets the strategy used by {@link DB2JDBCMetaData} to determine row
+	 * counts, default is {@link RowCountMode#EXACT}.
+	 * 
+	 * @param rowCountMode
+	 *            the new row count mode
+	 */
+	public void setRowCountMode(RowCountMode rowCountMode)
+	{
+		this.rowCountMode = rowCountMode != null ? rowCountMode : RowCountMode.EXACT;
+	}
+	
+	
+	/**
+	 * @return the maximum age of catalog statistics in milliseconds, 0 if
+	 *         unlimited
+	 */
+	public long getRowCountStatisticsMaxAge()
+	{
+		return rowCountStatisticsMaxAge;
+	}
+	
+	
+	/**
+	 * Sets the maximum age of the catalog statistics. In
+	 * {@link RowCountMode#ESTIMATED_OR_EXACT} tables with older statistics are
+	 * counted exactly.
+	 * 
+	 * @param rowCountStatisticsMaxAge
+	 *            the maximum age in milliseconds, 0 for unlimited
+	 */
+	public void setRowCountStatisticsMaxAge(long rowCountStatisticsMaxAge)
+	{
+		this.rowCountStatisticsMaxAge = Math.max(0,rowCountStatisticsMaxAge);
+	}
+	
+	
+	/**
+	 * @return the minimum number of tables for which {@link DB2JDBCMetaData}
+	 *         loads a schema-wide snapshot, 0 if disabled
+	 */
+	public int getBulkMetaDataThreshold()
+	{
+		return bulkMetaDataThreshold;
+	}
+	
+	
+	/**
+	 * Sets the minimum number of requested tables for which
+	 * {@link DB2JDBCMetaData} reads the metadata of the whole schema with a
+	 * fixed number of catalog queries instead of querying table by table.
+	 * 
+	 * @param bulkMetaDataThreshold
+	 *            the threshold, 0 to disable the bulk loading
+	 */
+	public void setBulkMetaDataThreshold(int bulkMetaDataThreshold)
+	{
+		this.bulkMetaDataThreshold = Math.max(0,bulkMetaDataThreshold);
+	}
+	
+	
+	/**
+	 * @return the number of connections {@link DB2JDBCMetaData} uses to load
+	 *         table metadata in parallel
+	 */
+	public int getMetaDataParallelism()
+	{
+		return metaDataParallelism;
+	}
+	
+	
+	/**
+	 * Sets the number of connections {@link DB2JDBCMetaData} uses to load
+	 * table metadata in parallel, default is 1 (sequential).
+	 * 
+	 * @param metaDataParallelism
+	 *            the number of connections
+	 */
+	public void setMetaDataParallelism(int metaDataParallelism)
+	{
+		this.metaDataParallelism = Math.max(1,metaDataParallelism);
+	}
+	
+	
+	/**
+	 * @return the metadata cache or <code>null</code> if caching is disabled
+	 */
+	public DB2MetaDataCache getMetaDataCache()
+	{
+		return metaDataCache;
+	}
+	
+	
+	/**
+	 * Enables caching of the table metadata loaded by {@link DB2JDBCMetaData}
+	 * . The cache is validated against the catalog timestamps on every access,
+	 * see {@link DB2MetaDataCache}.
+	 * 
+	 * @param maxSize
+	 *            the maximum number of cached tables, 0 to disable the cache
+	 */
+	public void setMetaDataCacheSize(int maxSize)
+	{
+		this.metaDataCache = maxSize > 0 ? new DB2MetaDataCache(maxSize) : null;
+	}
+	
+	
+	/**
+	 * @return the strategy used by
+	 *         {@link DB2JDBCConnection#getQueryRowCount(String)}
+	 */
+	public QueryRowCountMode getQueryRowCountMode()
+	{
+		return queryRowCountMode;
+	}
+	
+	
+	/**
+	 * Sets the strategy used by
+	 * {@link DB2JDBCConnection#getQueryRowCount(String)}, default is
+	 * {@link QueryRowCountMode#EXACT}.
+	 * 
+	 * @param queryRowCountMode
+	 *            the new query row count mode
+	 */
+	public void setQueryRowCountMode(QueryRowCountMode queryRowCountMode)
+	{
+		this.queryRowCountMode = queryRowCountMode != null ? queryRowCountMode
+				: QueryRowCountMode.EXACT;
+	}
+	
+	
+	/**
+	 * @return the cache used by {@link QueryRowCountMode#CACHED}
+	 */
+	public DB2QueryRowCountCache getQueryRowCountCache()
+	{
+		return queryRowCountCache;
+	}
+	
+	
+	/**
+	 * @return the connection pool or <code>null</code> if pooling is disabled
+	 */
+	public DB2ConnectionPool getConnectionPool()
+	{
+		return connectionPool;
+	}
+	
+	
+	/**
+	 * Enables pooling of the physical connections. A previous pool is closed.
+	 * The pool opens <code>minSize</code> connections on first use or on
+	 * {@link DB2ConnectionPool#warmUp()}.
+	 * 
+	 * @param minSize
+	 *            the number of connections kept open
+	 * @param maxSize
+	 *            the maximum number of open connections, 0 to disable pooling
+	 */
+	public synchronized void setConnectionPoolSize(int minSize, int maxSize)
+	{
+		DB2ConnectionPool oldPool = connectionPool;
+		connectionPool = maxSize > 0 ? new DB2ConnectionPool(this,minSize,maxSize,
+				new DB2ConnectionPool.ConnectionFactory()
+				{
+					@Override
+					public Connection createConnection() throws DBException
+					{
+						return new DB2JDBCConnection(DB2JDBCDataSource.this)
+								.establishPhysicalConnection();
+					}
+				}) : null;
+		if(oldPool != null)
+		{
+			oldPool.close();
+		}
+	}
+	
+	
+	/**
+	 * @return the maximum number of cached prepared statements per pooled
+	 *         connection, 0 if disabled
+	 */
+	public int getStatementCacheSize()
+	{
+		return statementCacheSize;
+	}
+	
+	
+	/**
+	 * Sets the maximum number of prepared statements cached per pooled
+	 * connection, see {@link DB2StatementCache}. Takes effect for connections
+	 * opened afterwards and requires the
+	 * {@link #setConnectionPoolSize(int, int) connection pool}.
+	 * <p>
+	 * If the driver caches statements itself (<code>maxStatements</code> in
+	 * the url extension) the cache is not used.
+	 * 
+	 * @param statementCacheSize
+	 *            the cache size, 0 to disable the cache
+	 */
+	public void setStatementCacheSize(int statementCacheSize)
+	{
+		this.statementCacheSize = Math.max(0,statementCacheSize);
+	}
+	
+	
+	/**
+	 * @return the hit, miss and eviction counters of all statement caches
+	 */
+	public DB2StatementCache.Statistics getStatementCacheStatistics()
+	{
+		return statementCacheStatistics;
+	}
+	
+	
+	/**
+	 * @return the shared server clock or <code>null</code> if the server time
+	 *         is queried on every call
+	 */
+	public DB2ServerClock getServerClock()
+	{
+		return serverClock;
+	}
+	
+	
+	/**
+	 * Lets {@link DB2JDBCConnection#getServerTime()} compute the server time
+	 * locally from a measured clock offset, which is synchronized again after
+	 * <code>syncInterval</code> milliseconds. Default is 0, the server time is
+	 * queried on every call.
+	 * 
+	 * @param syncInterval
+	 *            the sync interval in milliseconds, 0 to disable the clock
+	 */
+	public void setServerClockSyncInterval(long syncInterval)
+	{
+		this.serverClock = syncInterval > 0 ? new DB2ServerClock(syncInterval) : null;
+	}
+	
+	
+	/**
+	 * @return the retry policy of {@link DB2JDBCConnection#execute}, or
+	 *         <code>null</code> if units of work are executed once
+	 */
+	public DB2RetryPolicy getRetryPolicy()
+	{
+		return retryPolicy;
+	}
+	
+	
+	/**
+	 * Sets the policy which repeats units of work of
+	 * {@link DB2JDBCConnection#execute} after deadlocks, lock timeouts and
+	 * client reroutes. Default is <code>null</code>, no retries.
+	 * 
+	 * @param retryPolicy
+	 *            the policy or <code>null</code>
+	 */
+	public void setRetryPolicy(DB2RetryPolicy retryPolicy)
+	{
+		this.retryPolicy = retryPolicy;
+	}
+	
+	
+	/**
+	 * @return the instrumentation or <code>null</code> if it is disabled
+	 */
+	public DB2Instrumentation getInstrumentation()
+	{
+		return instrumentation;
+	}
+	
+	
+	/**
+	 * Enables the recording of statement latencies, row counts, connection
+	 * times and errors. The instrumentation is registered with the platform
+	 * MBean server while it is enabled. Default is <code>false</code>.
+	 * 
+	 * @param enabled
+	 *            <code>true</code> to enable the instrumentation
+	 * @throws IllegalStateException
+	 *             if the MBean cannot be registered
+	 */
+	public synchronized void setInstrumentationEnabled(boolean enabled)
+	{
+		if(enabled && instrumentation == null)
+		{
+			DB2Instrumentation instrumentation = new DB2Instrumentation();
+			instrumentation.setServerMetrics(serverMetrics);
+			instrumentation.register(getHost() + ":" + getPort() + "/" + getCatalog());
+			this.instrumentation = instrumentation;
+		}
+		else if(!enabled && instrumentation != null)
+		{
+			instrumentation.unregister();
+			instrumentation = null;
+		}
+	}
+	
+	
+	/**
+	 * @return the server-side metrics or <code>null</code> if they are not
+	 *         polled
+	 */
+	public synchronized DB2ServerMetrics getServerMetrics()
+	{
+		return serverMetrics;
+	}
+	
+	
+	/**
+	 * Polls the server-side metrics of <code>MON_GET_CONNECTION</code> and
+	 * <code>MON_GET_PKG_CACHE_STMT</code> every <code>interval</code>
+	 * milliseconds. Default is 0, disabled.
+	 * 
+	 * @param interval
+	 *            the poll interval in milliseconds, 0 to disable
+	 */
+	public synchronized void setServerMetricsInterval(long interval)
+	{
+		if(serverMetrics != null)
+		{
+			serverMetrics.close();
+		}
+		serverMetrics = interval > 0 ? new DB2ServerMetrics(this,interval) : null;
+		DB2Instrumentation instrumentation = this.instrumentation;
+		if(instrumentation != null)
+		{
+			instrumentation.setServerMetrics(serverMetrics);
+		}
+	}
+	
+	
+	/**
+	 * @return the slow query capture or <code>null</code> if it is disabled
+	 */
+	public DB2SlowQueryCapture getSlowQueryCapture()
+	{
+		return slowQueryCapture;
+	}
+	
+	
+	/**
+	 * Captures the statements of {@link DB2JDBCConnection} which take longer
+	 * than <code>threshold</code> milliseconds, together with their access
+	 * plan. A previous capture is closed. Default is 0, disabled.
+	 * 
+	 * @param threshold
+	 *            the minimum duration in milliseconds, 0 to disable
+	 * @param capacity
+	 *            the number of kept entries, e.g.
+	 *            {@link DB2SlowQueryCapture#DEFAULT_CAPACITY}
+	 */
+	public synchronized void setSlowQueryCapture(long threshold, int capacity)
+	{
+		DB2SlowQueryCapture oldCapture = slowQueryCapture;
+		slowQueryCapture = threshold > 0 ? new DB2SlowQueryCapture(this,threshold,capacity)
+				: null;
+		if(oldCapture != null)
+		{
+			oldCapture.close();
+		}
+	}
+	
+	
+	/**
+	 * @return the default routing of read-only work
+	 */
+	public ReadRouting getReadRouting()
+	{
+		return readRouting;
+	}
+	
+	
+	/**
+	 * Sets the default routing of read-only work, which is
+	 * {@link ReadRouting#STANDBY}. It takes effect only if
+	 * {@link #STANDBY_SERVERS} are set.
+	 * 
+	 * @param readRouting
+	 *            the routing
+	 * @see DB2JDBCConnection#setReadRouting(ReadRouting)
+	 */
+	public void setReadRouting(ReadRouting readRouting)
+	{
+		this.readRouting = readRouting != null ? readRouting : ReadRouting.STANDBY;
+	}
+	
+	
+	/**
+	 * @return the router of the {@link #STANDBY_SERVERS} or <code>null</code>
+	 *         if none are set
+	 */
+	public DB2StandbyRouter getStandbyRouter()
+	{
+		String servers = getParameterValue(STANDBY_SERVERS);
+		if(servers != null && servers.trim().length() == 0)
+		{
+			servers = null;
+		}
+		
+		DB2StandbyRouter router = standbyRouter;
+		if(router == null ? servers == null : router.getServerList().equals(servers))
+		{
+			return router;
+		}
+		
+		synchronized(this)
+		{
+			router = standbyRouter;
+			if(router == null ? servers == null : router.getServerList().equals(servers))
+			{
+				return router;
+			}
+			if(router != null)
+			{
+				router.close();
+			}
+			router = servers != null ? new DB2StandbyRouter(this,servers) : null;
+			standbyRouter = router;
+			return router;
+		}
+	}
+	
+	
+	/**
+	 * Connects to a standby server if <code>routing</code> is
+	 * {@link ReadRouting#STANDBY} and one is available, otherwise to the
+	 * primary server, with the same pooled and initialized connections as
+	 * {@link DB2JDBCConnection}. Used for all read-only work of the connections
+	 * and the metadata.
+	 * 
+	 * @throws DBException
+	 *             if no connection can be established
+	 */
+	Connection getReadConnection(ReadRouting routing) throws DBException
+	{
+		if(routing == ReadRouting.STANDBY)
+		{
+			DB2StandbyRouter router = getStandbyRouter();
+			Connection connection = router != null ? router.getConnection() : null;
+			if(connection != null)
+			{
+				return connection;
+			}
+		}
+		return openConnectionImpl().establishConnection();
+	}
+	
+	
+	/**
+	 * @return <code>true</code> if the driver's statement cache is enabled by
+	 *         the <code>maxStatements</code> property
+	 */
+	boolean isDriverStatementCacheEnabled()
+	{
+		return getConnectionInformation().isDriverStatementCacheEnabled();
 	}
 	
 	
@@ -35,15 +623,153 @@ public class DB2JDBCDataSource extends JDBCDataSource<DB2JDBCDataSource, DB2Dbms
 	{
 		return new Parameter[]{HOST.clone(),PORT.clone(50000),USERNAME.clone("db2admin"),
 				PASSWORD.clone(),SCHEMA.clone(),CATALOG.clone(),URL_EXTENSION.clone(),
-				IS_SERVER_DATASOURCE.clone(),SERVER_URL.clone(),AUTH_KEY.clone()};
+				IS_SERVER_DATASOURCE.clone(),SERVER_URL.clone(),AUTH_KEY.clone(),
+				PERFORMANCE_PROFILE.clone(),QUERY_DATA_SIZE.clone(),FETCH_SIZE.clone(),
+				PROGRESSIVE_STREAMING.clone(),LOB_INLINE_THRESHOLD.clone(),
+				ALTERNATE_SERVERS.clone(),SEAMLESS_FAILOVER.clone(),WORKLOAD_BALANCING.clone(),
+				CLIENT_AFFINITIES.clone(),MAX_TRANSPORT_OBJECTS.clone(),STANDBY_SERVERS.clone()};
 	}
 	
 	
 	@Override
 	protected DB2ConnectionInformation getConnectionInformation()
 	{
-		return new DB2ConnectionInformation(getHost(),getPort(),getUserName(),getPassword()
-				.getPlainText(),getCatalog(),getUrlExtension(),getDbmsAdaptor());
+		return getConnectionInformation(null);
+	}
+	
+	
+	/**
+	 * @param standby
+	 *            a standby server or <code>null</code> for the primary server
+	 * @return the connection information of the server
+	 */
+	DB2ConnectionInformation getConnectionInformation(Server standby)
+	{
+		DB2ConnectionInformation info = standby != null ? new DB2ConnectionInformation(
+				standby.getHost(),standby.getPort(),getUserName(),getPassword().getPlainText(),
+				getCatalog(),getUrlExtension(),getDbmsAdaptor()) : new DB2ConnectionInformation(
+				getHost(),getPort(),getUserName(),getPassword().getPlainText(),getCatalog(),
+				getUrlExtension(),getDbmsAdaptor());
+		info.setProperty("currentSchema",getSessionSchema());
+		getPerformanceProfile().applyTo(info);
+		Integer queryDataSize = getParameterValue(QUERY_DATA_SIZE);
+		if(queryDataSize != null && queryDataSize > 0)
+		{
+			info.setProperty("queryDataSize",queryDataSize.toString());
+		}
+		Integer fetchSize = getParameterValue(FETCH_SIZE);
+		if(fetchSize != null && fetchSize > 0)
+		{
+			info.setProperty("fetchSize",fetchSize.toString());
+		}
+		applyLobProperties(info);
+		if(standby == null)
+		{
+			applyFailoverProperties(info);
+		}
+		return info;
+	}
+	
+	
+	private void applyFailoverProperties(DB2ConnectionInformation info)
+	{
+		applyFailoverProperties(info,getParameterValue(ALTERNATE_SERVERS),
+				getParameterValue(SEAMLESS_FAILOVER),getParameterValue(WORKLOAD_BALANCING),
+				getParameterValue(MAX_TRANSPORT_OBJECTS),getParameterValue(CLIENT_AFFINITIES));
+	}
+	
+	
+	/**
+	 * Sets the driver properties of the failover parameters.
+	 * 
+	 * @throws IllegalStateException
+	 *             if workload balancing and client affinities are enabled
+	 *             together
+	 */
+	static void applyFailoverProperties(DB2ConnectionInformation info, String alternateServers,
+			Boolean seamlessFailover, Boolean workloadBalancing, Integer maxTransportObjects,
+			Boolean clientAffinities)
+	{
+		if(workloadBalancing != null && workloadBalancing && clientAffinities != null
+				&& clientAffinities)
+		{
+			throw new IllegalStateException(WORKLOAD_BALANCING.getName() + " and "
+					+ CLIENT_AFFINITIES.getName() + " cannot be enabled together");
+		}
+		
+		info.addAlternateServers(alternateServers);
+		
+		if(seamlessFailover != null && seamlessFailover)
+		{
+			// com.ibm.db2.jcc.DB2BaseDataSource.YES
+			info.setProperty("enableSeamlessFailover","1");
+		}
+		if(workloadBalancing != null && workloadBalancing)
+		{
+			info.setProperty("enableSysplexWLB","true");
+			if(maxTransportObjects != null && maxTransportObjects > 0)
+			{
+				info.setProperty("maxTransportObjects",maxTransportObjects.toString());
+			}
+		}
+		if(clientAffinities != null && clientAffinities)
+		{
+			// com.ibm.db2.jcc.DB2BaseDataSource.YES
+			info.setProperty("enableClientAffinitiesList","1");
+		}
+	}
+	
+	
+	private void applyLobProperties(DB2ConnectionInformation info)
+	{
+		Boolean progressiveStreaming = getParameterValue(PROGRESSIVE_STREAMING);
+		if(progressiveStreaming != null && !progressiveStreaming)
+		{
+			// com.ibm.db2.jcc.DB2BaseDataSource.NO, LOBs are fetched as
+			// locators instead of being materialized
+			info.setProperty("progressiveStreaming","2");
+			info.setProperty("fullyMaterializeLobData","false");
+			return;
+		}
+		
+		// com.ibm.db2.jcc.DB2BaseDataSource.YES
+		info.setProperty("progressiveStreaming","1");
+		Integer inlineThreshold = getParameterValue(LOB_INLINE_THRESHOLD);
+		if(inlineThreshold != null && inlineThreshold > 0)
+		{
+			info.setProperty("streamBufferSize",inlineThreshold.toString());
+		}
+	}
+	
+	
+	/**
+	 * @return the performance profile set by {@link #PERFORMANCE_PROFILE}
+	 * @throws IllegalArgumentException
+	 *             if the parameter names an unknown profile
+	 */
+	public DB2PerformanceProfile getPerformanceProfile()
+	{
+		return DB2PerformanceProfile.forName(getParameterValue(PERFORMANCE_PROFILE));
+	}
+	
+	
+	/**
+	 * @return the schema the sessions have to switch to or <code>null</code>
+	 *         if the default schema of the user is used
+	 */
+	String getSessionSchema()
+	{
+		String schema = getSchema();
+		if(schema == null || schema.length() == 0 || schema.equals(getUserName()))
+		{
+			return null;
+		}
+		if(schema.length() > 1 && schema.startsWith("\"") && schema.endsWith("\""))
+		{
+			return schema.substring(1,schema.length() - 1);
+		}
+		// the same case folding as for an unquoted SET SCHEMA
+		return schema.toUpperCase(Locale.ENGLISH);
 	}
 	
 	
@@ -61,9 +787,13 @@ public class DB2JDBCDataSource extends JDBCDataSource<DB2JDBCDataSource, DB2Dbms
 	}
 	
 	
+	/**
+	 * @see DB2JDBCConnection#export(String, java.nio.channels.WritableByteChannel,
+	 *      DB2Exporter, xdev.util.ProgressMonitor)
+	 */
 	@Override
 	public boolean canExport()
 	{
-		return false;
+		return true;
 	}
 }
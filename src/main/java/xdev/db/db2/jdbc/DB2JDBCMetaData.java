@@ -20,19 +20,32 @@ package xdev.db.db2.jdbc;
 
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-
-import com.xdev.jadoth.sqlengine.interfaces.ConnectionProvider;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import xdev.db.ColumnMetaData;
 import xdev.db.DBException;
@@ -44,6 +57,8 @@ import xdev.db.StoredProcedure;
 import xdev.db.StoredProcedure.Param;
 import xdev.db.StoredProcedure.ParamType;
 import xdev.db.StoredProcedure.ReturnTypeFlavor;
+import xdev.db.db2.jdbc.DB2MetaDataCache.CachedTableMetaData;
+import xdev.db.db2.jdbc.DB2MetaDataCache.Stamp;
 import xdev.db.jdbc.JDBCColumnsMetaData;
 import xdev.db.jdbc.JDBCConnection;
 import xdev.db.jdbc.JDBCDataSource;
@@ -52,12 +67,16 @@ import xdev.db.sql.Functions;
 import xdev.db.sql.SELECT;
 import xdev.db.sql.Table;
 import xdev.util.ProgressMonitor;
+import xdev.util.logging.LoggerFactory;
+import xdev.util.logging.XdevLogger;
 
 
 public class DB2JDBCMetaData extends JDBCMetaData
 {
 	private static final long	serialVersionUID	= 2862594319338582561L;
 	
+	private static final XdevLogger	log					= LoggerFactory.getLogger(DB2JDBCMetaData.class);
+	
 	// constant strings
 	private static final String	PARAMETER_TYPE		= "PARAMETER_TYPE";
 	private static final String	SQLJ				= "SQLJ";
@@ -72,6 +91,41 @@ public class DB2JDBCMetaData extends JDBCMetaData
 	private static final String	PROCEDURE			= "PROCEDURE";
 	private static final String	FUNCTION			= "FUNCTION";
 	
+	private static final String	SELECT_TABLE_STATISTICS	= "SELECT CARD, STATS_TIME FROM SYSCAT.TABLES "
+			+ "WHERE TABSCHEMA = COALESCE(CAST(? AS VARCHAR(128)), CURRENT SCHEMA) "
+			+ "AND TABNAME = ? FOR READ ONLY";
+	
+	
+	/**
+	 * Strategy used to determine the row count of a table if
+	 * {@link #ROW_COUNT} is requested.
+	 */
+	public static enum RowCountMode
+	{
+		/**
+		 * Counts the rows with <code>SELECT COUNT(*)</code>, which scans the
+		 * whole table.
+		 */
+		EXACT,
+		
+		/**
+		 * Reads the cardinality of the last RUNSTATS from
+		 * <code>SYSCAT.TABLES.CARD</code>, tables without statistics get
+		 * {@link DB2JDBCMetaData#UNKNOWN_ROW_COUNT}.
+		 */
+		ESTIMATED,
+		
+		/**
+		 * Like {@link #ESTIMATED}, but counts exactly if the statistics are
+		 * missing or older than
+		 * {@link DB2JDBCDataSource#getRowCountStatisticsMaxAge()}.
+		 */
+		ESTIMATED_OR_EXACT
+	}
+	
+	private final Set<String>	estimatedRowCounts	= new ConcurrentHashMap<String, Boolean>()
+															.keySet(Boolean.TRUE);
+	
 	
 	public DB2JDBCMetaData(DB2JDBCDataSource dataSource) throws DBException
 	{
@@ -79,6 +133,20 @@ public class DB2JDBCMetaData extends JDBCMetaData
 	}
 	
 	
+	/**
+	 * Returns whether the row count of <code>table</code> was taken from the
+	 * catalog statistics rather than counted exactly.
+	 * 
+	 * @param table
+	 *            the table
+	 * @return <code>true</code> if the row count is an estimate
+	 */
+	public boolean isRowCountEstimated(TableInfo table)
+	{
+		return estimatedRowCounts.contains(getQualifiedName(table));
+	}
+	
+	
 	@Override
 	protected String getCatalog(JDBCDataSource dataSource)
 	{
@@ -89,31 +157,78 @@ public class DB2JDBCMetaData extends JDBCMetaData
 	@Override
 	public TableInfo[] getTableInfos(ProgressMonitor monitor, EnumSet<TableType> types)
 			throws DBException
+	{
+		long start = System.nanoTime();
+		try
+		{
+			TableInfo[] tables = readTableInfos(monitor,types);
+			metaDataLoaded("getTableInfos",start,tables.length,null);
+			return tables;
+		}
+		catch(DBException e)
+		{
+			metaDataLoaded("getTableInfos",start,-1,e);
+			throw e;
+		}
+	}
+	
+	
+	private TableInfo[] readTableInfos(ProgressMonitor monitor, EnumSet<TableType> types)
+			throws DBException
 	{
 		monitor.beginTask("",ProgressMonitor.UNKNOWN);
 		
-		List<TableInfo> list = new ArrayList<TableInfo>();
+		String schema = getSchema(dataSource);
+		String condition;
+		String tableTypeStatement = getTableTypeStatement(types);
 		
-		JDBCConnection jdbcConnection = (JDBCConnection)dataSource.openConnection();
+		if(schema != null && schema.length() > 0)
+		{
+			condition = "tabschema = '" + schema + "' and " + tableTypeStatement;
+		}
+		else
+		{
+			condition = "tabschema not like 'SYS%' and tabschema not like 'DB2QP' and "
+					+ tableTypeStatement;
+		}
 		
-		try
+		DB2MetaDataCache cache = getDB2DataSource().getMetaDataCache();
+		String fingerprint = null;
+		if(cache != null)
 		{
-			String schema = getSchema(dataSource);
-			String sql;
-			String tableTypeStatement = getTableTypeStatement(types);
-			
-			if(schema != null && schema.length() > 0)
+			try
+			{
+				Connection connection = getReadConnection();
+				try
+				{
+					fingerprint = cache.readTableInfosFingerprint(connection,condition);
+				}
+				finally
+				{
+					connection.close();
+				}
+			}
+			catch(SQLException e)
 			{
-				sql = "Select tabschema, tabname, type from syscat.tables where tabschema = '"
-						+ schema + "' and " + tableTypeStatement + " for read only";
+				throw new DBException(dataSource,e);
 			}
-			else
+			
+			TableInfo[] tables = cache.getTableInfos(condition,fingerprint);
+			if(tables != null)
 			{
-				sql = "Select tabschema, tabname, type from syscat.tables where tabschema not like 'SYS%' "
-						+ "and tabschema not like 'DB2QP' and "
-						+ tableTypeStatement
-						+ " for read only";
+				monitor.done();
+				return tables;
 			}
+		}
+		
+		List<TableInfo> list = new ArrayList<TableInfo>();
+		
+		JDBCConnection jdbcConnection = (JDBCConnection)dataSource.openConnection();
+		
+		try
+		{
+			String sql = "Select tabschema, tabname, type from syscat.tables where " + condition
+					+ " for read only";
 			
 			Result rs = jdbcConnection.query(sql);
 			while(rs.next() && !monitor.isCanceled())
@@ -134,10 +249,16 @@ public class DB2JDBCMetaData extends JDBCMetaData
 			jdbcConnection.close();
 		}
 		
-		monitor.done();
-		
 		TableInfo[] tables = list.toArray(new TableInfo[list.size()]);
 		Arrays.sort(tables);
+		
+		if(cache != null && !monitor.isCanceled())
+		{
+			cache.putTableInfos(condition,fingerprint,tables);
+		}
+		
+		monitor.done();
+		
 		return tables;
 	}
 	
@@ -229,57 +350,631 @@ public class DB2JDBCMetaData extends JDBCMetaData
 			
 			if((flags & ROW_COUNT) != 0)
 			{
+				count = getRowCount(jdbcConnection,meta,table,tableIdentity);
+			}
+		}
+		
+		Index[] indices = new Index[indexMap.size()];
+		int i = 0;
+		for(IndexInfo indexInfo : indexMap.keySet())
+		{
+			Set<String> columnList = indexMap.get(indexInfo);
+			String[] indexColumns = columnList.toArray(new String[columnList.size()]);
+			indices[i++] = new Index(indexInfo.name,indexInfo.type,indexColumns);
+		}
+		
+		TableMetaData tableMeta = new TableMetaData(table,columns,indices,count);
+		unquoteDefaultValues(tableMeta);
+		return tableMeta;
+	}
+	
+	
+	private void unquoteDefaultValues(TableMetaData tableMeta)
+	{
+		for(ColumnMetaData column : tableMeta.getColumns())
+		{
+			Object def = column.getDefaultValue();
+			if(def instanceof String)
+			{
+				String str = (String)def;
+				int length = str.length();
+				if(length >= 2)
+				{
+					if(str.charAt(0) == '\'' && str.charAt(length - 1) == '\'')
+					{
+						column.setDefaultValue(str.substring(1,length - 1));
+					}
+				}
+			}
+		}
+	}
+	
+	
+	/**
+	 * Loads the metadata of <code>tables</code>. If at least
+	 * {@link DB2JDBCDataSource#getBulkMetaDataThreshold()} tables are
+	 * requested, the metadata of all affected schemas is read with a fixed
+	 * number of catalog queries, see {@link DB2MetaDataSnapshot}.
+	 */
+	@Override
+	public TableMetaData[] getTableMetaData(ProgressMonitor monitor, int flags,
+			TableInfo... tables) throws DBException
+	{
+		long start = System.nanoTime();
+		try
+		{
+			TableMetaData[] metaData = readTableMetaData(monitor,flags,tables);
+			metaDataLoaded("getTableMetaData",start,metaData.length,null);
+			return metaData;
+		}
+		catch(DBException e)
+		{
+			metaDataLoaded("getTableMetaData",start,-1,e);
+			throw e;
+		}
+	}
+	
+	
+	private TableMetaData[] readTableMetaData(ProgressMonitor monitor, int flags,
+			TableInfo... tables) throws DBException
+	{
+		DB2MetaDataCache cache = getDB2DataSource().getMetaDataCache();
+		boolean rowCount = (flags & ROW_COUNT) != 0;
+		if(cache == null
+				|| (rowCount && getDB2DataSource().getRowCountMode() != RowCountMode.ESTIMATED))
+		{
+			return loadTableMetaData(monitor,flags,tables);
+		}
+		
+		String defaultSchema;
+		Map<String, Stamp> stamps;
+		try
+		{
+			Connection connection = getReadConnection();
+			try
+			{
+				defaultSchema = getDefaultSchema(connection);
+				Map<String, Set<String>> tableNames = new LinkedHashMap<String, Set<String>>();
+				for(TableInfo table : tables)
+				{
+					String schema = getSchema(table,defaultSchema);
+					Set<String> names = tableNames.get(schema);
+					if(names == null)
+					{
+						names = new LinkedHashSet<String>();
+						tableNames.put(schema,names);
+					}
+					names.add(table.getName());
+				}
+				
+				// full snapshots are validated schema-wide
+				int threshold = getDB2DataSource().getBulkMetaDataThreshold();
+				if(threshold > 0 && tables.length >= threshold)
+				{
+					stamps = cache.readStamps(connection,tableNames.keySet());
+				}
+				else
+				{
+					stamps = cache.readStamps(connection,tableNames);
+				}
+			}
+			finally
+			{
+				connection.close();
+			}
+		}
+		catch(SQLException e)
+		{
+			throw new DBException(dataSource,e);
+		}
+		
+		TableMetaData[] result = new TableMetaData[tables.length];
+		List<TableInfo> missing = new ArrayList<TableInfo>();
+		for(int i = 0; i < tables.length; i++)
+		{
+			TableInfo table = tables[i];
+			String key = DB2MetaDataSnapshot.key(getSchema(table,defaultSchema),table.getName());
+			CachedTableMetaData cached = cache.getTableMetaData(key,flags,stamps.get(key),
+					rowCount);
+			if(cached != null)
+			{
+				result[i] = cached.tableMetaData;
+				setRowCountEstimated(table,cached.rowCountEstimated);
+			}
+			else
+			{
+				missing.add(table);
+			}
+		}
+		
+		if(missing.isEmpty())
+		{
+			monitor.beginTask("",tables.length);
+			monitor.done();
+			return result;
+		}
+		
+		Map<String, TableMetaData> loaded = new HashMap<String, TableMetaData>();
+		for(TableMetaData tableMeta : loadTableMetaData(monitor,flags,
+				missing.toArray(new TableInfo[missing.size()])))
+		{
+			TableInfo table = tableMeta.getTableInfo();
+			String key = DB2MetaDataSnapshot.key(getSchema(table,defaultSchema),table.getName());
+			cache.putTableMetaData(key,flags,stamps.get(key),new CachedTableMetaData(tableMeta,
+					isRowCountEstimated(table)));
+			loaded.put(key,tableMeta);
+		}
+		
+		List<TableMetaData> list = new ArrayList<TableMetaData>(tables.length);
+		for(int i = 0; i < tables.length; i++)
+		{
+			TableMetaData tableMeta = result[i];
+			if(tableMeta == null)
+			{
+				TableInfo table = tables[i];
+				tableMeta = loaded.get(DB2MetaDataSnapshot.key(getSchema(table,defaultSchema),
+						table.getName()));
+			}
+			if(tableMeta != null)
+			{
+				list.add(tableMeta);
+			}
+		}
+		return list.toArray(new TableMetaData[list.size()]);
+	}
+	
+	
+	private TableMetaData[] loadTableMetaData(ProgressMonitor monitor, int flags,
+			TableInfo... tables) throws DBException
+	{
+		int threshold = getDB2DataSource().getBulkMetaDataThreshold();
+		if(threshold > 0 && tables.length >= threshold)
+		{
+			return getTableMetaDataBulk(monitor,flags,tables);
+		}
+		
+		int parallelism = Math.min(getDB2DataSource().getMetaDataParallelism(),tables.length);
+		if(parallelism > 1)
+		{
+			return getTableMetaDataParallel(monitor,flags,tables,parallelism);
+		}
+		
+		return super.getTableMetaData(monitor,flags,tables);
+	}
+	
+	
+	/**
+	 * Loads the metadata with <code>parallelism</code> worker threads, each
+	 * using its own connection. The monitor is only accessed by the calling
+	 * thread, the result has the order of <code>tables</code>.
+	 */
+	private TableMetaData[] getTableMetaDataParallel(ProgressMonitor monitor, final int flags,
+			final TableInfo[] tables, int parallelism) throws DBException
+	{
+		monitor.beginTask("",tables.length);
+		
+		final TableMetaData[] result = new TableMetaData[tables.length];
+		final AtomicInteger nextTable = new AtomicInteger();
+		final AtomicBoolean canceled = new AtomicBoolean();
+		final BlockingQueue<Object> completed = new LinkedBlockingQueue<Object>();
+		// only the results received through the queue are visible to this thread
+		final boolean[] received = new boolean[tables.length];
+		
+		ExecutorService executor = Executors.newFixedThreadPool(parallelism,new ThreadFactory()
+		{
+			private final AtomicInteger	threadNumber	= new AtomicInteger();
+			
+			
+			@Override
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable,"DB2-MetaData-" + threadNumber.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		
+		try
+		{
+			for(int i = 0; i < parallelism; i++)
+			{
+				executor.execute(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						try
+						{
+							JDBCConnection jdbcConnection = (JDBCConnection)dataSource
+									.openConnection();
+							try
+							{
+								DatabaseMetaData meta = jdbcConnection.getConnection().getMetaData();
+								int index;
+								while(!canceled.get()
+										&& (index = nextTable.getAndIncrement()) < tables.length)
+								{
+									result[index] = getTableMetaData(jdbcConnection,meta,flags,
+											tables[index]);
+									completed.add(index);
+								}
+							}
+							finally
+							{
+								jdbcConnection.close();
+							}
+						}
+						catch(Throwable t)
+						{
+							completed.add(t);
+						}
+					}
+				});
+			}
+			
+			int done = 0;
+			while(done < tables.length)
+			{
+				if(monitor.isCanceled())
+				{
+					break;
+				}
+				
+				Object item = completed.poll(100,TimeUnit.MILLISECONDS);
+				if(item instanceof Integer)
+				{
+					received[(Integer)item] = true;
+					monitor.setTaskName(tables[(Integer)item].getName());
+					monitor.worked(++done);
+				}
+				else if(item instanceof DBException)
+				{
+					throw (DBException)item;
+				}
+				else if(item instanceof Throwable)
+				{
+					throw new DBException(dataSource,(Throwable)item);
+				}
+			}
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new DBException(dataSource,e);
+		}
+		finally
+		{
+			canceled.set(true);
+			executor.shutdown();
+		}
+		
+		monitor.done();
+		
+		List<TableMetaData> list = new ArrayList<TableMetaData>(tables.length);
+		for(int i = 0; i < result.length; i++)
+		{
+			if(received[i])
+			{
+				list.add(result[i]);
+			}
+		}
+		return list.toArray(new TableMetaData[list.size()]);
+	}
+	
+	
+	private TableMetaData[] getTableMetaDataBulk(ProgressMonitor monitor, int flags,
+			TableInfo... tables) throws DBException
+	{
+		monitor.beginTask("",tables.length);
+		
+		List<TableMetaData> list = new ArrayList<TableMetaData>(tables.length);
+		JDBCConnection jdbcConnection = null;
+		
+		try
+		{
+			Connection connection = getReadConnection();
+			try
+			{
+				String defaultSchema = getDefaultSchema(connection);
+				Set<String> schemas = new LinkedHashSet<String>();
+				for(TableInfo table : tables)
+				{
+					schemas.add(getSchema(table,defaultSchema));
+				}
+				
+				RowCountMode rowCountMode = getDB2DataSource().getRowCountMode();
+				boolean rowCount = (flags & ROW_COUNT) != 0;
+				DB2MetaDataSnapshot snapshot = DB2MetaDataSnapshot.load(connection,schemas,
+						(flags & INDICES) != 0,rowCount && rowCountMode != RowCountMode.EXACT);
+				
+				int done = 0;
+				for(TableInfo table : tables)
+				{
+					if(monitor.isCanceled())
+					{
+						break;
+					}
+					
+					String schema = getSchema(table,defaultSchema);
+					String tableName = table.getName();
+					monitor.setTaskName(tableName);
+					
+					ColumnMetaData[] columns = snapshot.getColumns(schema,tableName);
+					for(ColumnMetaData column : columns)
+					{
+						column.setDefaultValue(checkDefaultValue(column.getDefaultValue(),column));
+					}
+					
+					Index[] indices = new Index[0];
+					int count = UNKNOWN_ROW_COUNT;
+					if(table.getType() == TableType.TABLE)
+					{
+						indices = snapshot.getIndices(schema,tableName);
+						
+						if(rowCount)
+						{
+							if(rowCountMode != RowCountMode.EXACT)
+							{
+								count = getEstimatedRowCount(snapshot.getCardinality(schema,
+										tableName),snapshot.getStatisticsTime(schema,tableName),
+										rowCountMode);
+							}
+							setRowCountEstimated(table,count != UNKNOWN_ROW_COUNT);
+							
+							if(count == UNKNOWN_ROW_COUNT && rowCountMode != RowCountMode.ESTIMATED)
+							{
+								if(jdbcConnection == null)
+								{
+									jdbcConnection = (JDBCConnection)dataSource.openConnection();
+								}
+								count = countRows(jdbcConnection,new Table(tableName));
+							}
+						}
+					}
+					
+					TableMetaData tableMeta = new TableMetaData(table,columns,indices,count);
+					unquoteDefaultValues(tableMeta);
+					list.add(tableMeta);
+					
+					monitor.worked(++done);
+				}
+			}
+			finally
+			{
+				connection.close();
+			}
+		}
+		catch(SQLException e)
+		{
+			throw new DBException(dataSource,e);
+		}
+		finally
+		{
+			if(jdbcConnection != null)
+			{
+				jdbcConnection.close();
+			}
+		}
+		
+		monitor.done();
+		
+		return list.toArray(new TableMetaData[list.size()]);
+	}
+	
+	
+	private String getSchema(TableInfo table, String defaultSchema)
+	{
+		return table.getSchema() != null ? table.getSchema() : defaultSchema;
+	}
+	
+	
+	private String getDefaultSchema(Connection connection) throws SQLException
+	{
+		String schema = getSchema(dataSource);
+		if(schema != null && schema.length() > 0)
+		{
+			return schema;
+		}
+		
+		Statement statement = connection.createStatement();
+		try
+		{
+			ResultSet rs = statement.executeQuery("VALUES CURRENT SCHEMA");
+			try
+			{
+				return rs.next() ? rs.getString(1).trim() : null;
+			}
+			finally
+			{
+				rs.close();
+			}
+		}
+		finally
+		{
+			statement.close();
+		}
+	}
+	
+	
+	private int getRowCount(JDBCConnection jdbcConnection, DatabaseMetaData meta, TableInfo table,
+			Table tableIdentity)
+	{
+		RowCountMode mode = getDB2DataSource().getRowCountMode();
+		if(mode != RowCountMode.EXACT)
+		{
+			try
+			{
+				Connection connection = meta.getConnection();
+				PreparedStatement statement = connection.prepareStatement(SELECT_TABLE_STATISTICS);
 				try
 				{
-					result = jdbcConnection.query(new SELECT().columns(Functions.COUNT()).FROM(
-							tableIdentity));
-					if(result.next())
+					// null falls back to CURRENT SCHEMA, set by the currentSchema property
+					statement.setString(1,table.getSchema());
+					statement.setString(2,table.getName());
+					ResultSet rs = statement.executeQuery();
+					try
 					{
-						count = result.getInt(0);
+						if(rs.next())
+						{
+							int count = getEstimatedRowCount(rs.getLong(1),rs.getTimestamp(2),mode);
+							if(count != UNKNOWN_ROW_COUNT || mode == RowCountMode.ESTIMATED)
+							{
+								setRowCountEstimated(table,count != UNKNOWN_ROW_COUNT);
+								return count;
+							}
+						}
+					}
+					finally
+					{
+						rs.close();
 					}
-					result.close();
 				}
-				catch(Exception e)
+				finally
 				{
-					e.printStackTrace();
+					statement.close();
 				}
 			}
+			catch(SQLException e)
+			{
+				log.error(e.getMessage(),e);
+			}
 		}
 		
-		Index[] indices = new Index[indexMap.size()];
-		int i = 0;
-		for(IndexInfo indexInfo : indexMap.keySet())
+		setRowCountEstimated(table,false);
+		
+		if(mode == RowCountMode.ESTIMATED)
 		{
-			Set<String> columnList = indexMap.get(indexInfo);
-			String[] indexColumns = columnList.toArray(new String[columnList.size()]);
-			indices[i++] = new Index(indexInfo.name,indexInfo.type,indexColumns);
+			return UNKNOWN_ROW_COUNT;
 		}
 		
-		TableMetaData tableMeta = new TableMetaData(table,columns,indices,count);
-		
-		for(ColumnMetaData column : tableMeta.getColumns())
+		return countRows(jdbcConnection,tableIdentity);
+	}
+	
+	
+	private int countRows(JDBCConnection jdbcConnection, Table tableIdentity)
+	{
+		int count = UNKNOWN_ROW_COUNT;
+		try
 		{
-			Object def = column.getDefaultValue();
-			if(def instanceof String)
+			Result result = jdbcConnection.query(new SELECT().columns(Functions.COUNT()).FROM(
+					tableIdentity));
+			if(result.next())
 			{
-				String str = (String)def;
-				int length = str.length();
-				if(length >= 2)
-				{
-					if(str.charAt(0) == '\'' && str.charAt(length - 1) == '\'')
-					{
-						column.setDefaultValue(str.substring(1,length - 1));
-					}
-				}
+				count = result.getInt(0);
 			}
+			result.close();
+		}
+		catch(Exception e)
+		{
+			log.error(e.getMessage(),e);
+		}
+		return count;
+	}
+	
+	
+	/**
+	 * Evaluates the catalog statistics of a table.
+	 * 
+	 * @param card
+	 *            <code>SYSCAT.TABLES.CARD</code>, -1 if no statistics were
+	 *            collected
+	 * @param statsTime
+	 *            <code>SYSCAT.TABLES.STATS_TIME</code>, may be
+	 *            <code>null</code>
+	 * @param mode
+	 *            the row count mode
+	 * @return the estimated row count or {@link #UNKNOWN_ROW_COUNT} if the
+	 *         statistics are not usable
+	 */
+	int getEstimatedRowCount(long card, Timestamp statsTime, RowCountMode mode)
+	{
+		if(card < 0 || statsTime == null)
+		{
+			return UNKNOWN_ROW_COUNT;
 		}
 		
-		return tableMeta;
+		long maxAge = getDB2DataSource().getRowCountStatisticsMaxAge();
+		if(mode == RowCountMode.ESTIMATED_OR_EXACT && maxAge > 0
+				&& System.currentTimeMillis() - statsTime.getTime() > maxAge)
+		{
+			return UNKNOWN_ROW_COUNT;
+		}
+		
+		return (int)Math.min(card,Integer.MAX_VALUE);
+	}
+	
+	
+	void setRowCountEstimated(TableInfo table, boolean estimated)
+	{
+		String name = getQualifiedName(table);
+		if(estimated)
+		{
+			estimatedRowCounts.add(name);
+		}
+		else
+		{
+			estimatedRowCounts.remove(name);
+		}
+	}
+	
+	
+	private String getQualifiedName(TableInfo table)
+	{
+		String schema = table.getSchema();
+		return schema != null && schema.length() > 0 ? schema + "." + table.getName() : table
+				.getName();
+	}
+	
+	
+	private DB2JDBCDataSource getDB2DataSource()
+	{
+		return (DB2JDBCDataSource)dataSource;
+	}
+	
+	
+	/**
+	 * Records a metadata load as the operation <code>metadata:name</code>.
+	 */
+	private void metaDataLoaded(String name, long start, long rows, Throwable failure)
+	{
+		DB2Instrumentation instrumentation = getDB2DataSource().getInstrumentation();
+		if(instrumentation != null)
+		{
+			instrumentation.statementExecuted("metadata:" + name,System.nanoTime() - start,rows,
+					failure);
+		}
+	}
+	
+	
+	/**
+	 * Connects for a metadata load with the read routing of the data source.
+	 */
+	private Connection getReadConnection() throws DBException
+	{
+		DB2JDBCDataSource dataSource = getDB2DataSource();
+		return dataSource.getReadConnection(dataSource.getReadRouting());
 	}
 	
 	
 	@Override
 	public StoredProcedure[] getStoredProcedures(ProgressMonitor monitor) throws DBException
+	{
+		long start = System.nanoTime();
+		try
+		{
+			StoredProcedure[] procedures = readStoredProcedures(monitor);
+			metaDataLoaded("getStoredProcedures",start,procedures.length,null);
+			return procedures;
+		}
+		catch(DBException e)
+		{
+			metaDataLoaded("getStoredProcedures",start,-1,e);
+			throw e;
+		}
+	}
+	
+	
+	private StoredProcedure[] readStoredProcedures(ProgressMonitor monitor) throws DBException
 	{
 		monitor.beginTask("",ProgressMonitor.UNKNOWN);
 		
@@ -287,8 +982,7 @@ public class DB2JDBCMetaData extends JDBCMetaData
 		
 		try
 		{
-			ConnectionProvider<?> connectionProvider = dataSource.getConnectionProvider();
-			Connection connection = connectionProvider.getConnection();
+			Connection connection = getReadConnection();
 			
 			try
 			{
@@ -589,6 +1283,52 @@ public class DB2JDBCMetaData extends JDBCMetaData
 	protected void createTable(JDBCConnection jdbcConnection, TableMetaData table)
 			throws DBException, SQLException
 	{
+		String qualifiedTable = getQualifiedTableName(table);
+		
+		StringBuilder sb = new StringBuilder("CREATE TABLE ");
+		sb.append(qualifiedTable);
+		sb.append(" (");
+		ColumnMetaData[] columns = table.getColumns();
+		for(int i = 0; i < columns.length; i++)
+		{
+			if(i > 0)
+			{
+				sb.append(", ");
+			}
+			appendColumnDefinition(columns[i],false,sb);
+		}
+		
+		List<Index> indices = new ArrayList<Index>();
+		for(Index index : table.getIndices())
+		{
+			if(index.getType() == IndexType.PRIMARY_KEY)
+			{
+				sb.append(", PRIMARY KEY ");
+				appendColumnList(index,sb);
+			}
+			else
+			{
+				indices.add(index);
+			}
+		}
+		sb.append(")");
+		
+		DB2SchemaChangeBatch batch = getSchemaChanges(jdbcConnection);
+		Connection connection = jdbcConnection.getConnection();
+		try
+		{
+			batch.execute(connection,qualifiedTable,sb.toString());
+			for(Index index : indices)
+			{
+				batch.changeIndex(connection,qualifiedTable,
+						createIndexStatement(table,index,qualifiedTable));
+			}
+			flushDetached(jdbcConnection,batch,connection);
+		}
+		finally
+		{
+			connection.close();
+		}
 	}
 	
 	
@@ -597,6 +1337,10 @@ public class DB2JDBCMetaData extends JDBCMetaData
 			ColumnMetaData column, ColumnMetaData columnBefore, ColumnMetaData columnAfter)
 			throws DBException, SQLException
 	{
+		// DB2 always appends new columns, the position is ignored
+		StringBuilder sb = new StringBuilder("ADD COLUMN ");
+		appendColumnDefinition(column,true,sb);
+		alterTable(jdbcConnection,table,column,false,sb.toString());
 	}
 	
 	
@@ -604,13 +1348,58 @@ public class DB2JDBCMetaData extends JDBCMetaData
 	protected void alterColumn(JDBCConnection jdbcConnection, TableMetaData table,
 			ColumnMetaData column, ColumnMetaData existing) throws DBException, SQLException
 	{
+		// DB2 allows one alteration per column and statement, each one is
+		// executed as own ALTER TABLE
+		StringBuilder prefix = new StringBuilder("ALTER COLUMN ");
+		appendIdentifier(column.getName(),prefix);
+		prefix.append(' ');
+		
+		if(!equalsType(column,existing))
+		{
+			alterTable(jdbcConnection,table,column,true,prefix + "SET DATA TYPE "
+					+ getColumnType(column));
+		}
+		
+		if(!column.isAutoIncrement())
+		{
+			String defaultValue = getDefaultValueLiteral(column);
+			if(defaultValue == null)
+			{
+				if(getDefaultValueLiteral(existing) != null)
+				{
+					alterTable(jdbcConnection,table,column,false,prefix + "DROP DEFAULT");
+				}
+			}
+			else if(!defaultValue.equals(getDefaultValueLiteral(existing)))
+			{
+				alterTable(jdbcConnection,table,column,false,prefix + "SET DEFAULT "
+						+ defaultValue);
+			}
+		}
+		
+		if(!column.isAutoIncrement() && column.isNullable() != existing.isNullable())
+		{
+			alterTable(jdbcConnection,table,column,true,prefix
+					+ (column.isNullable() ? "DROP NOT NULL" : "SET NOT NULL"));
+		}
 	}
 	
 	
+	/**
+	 * Compares the DB2 column types <code>clientColumn</code> and
+	 * <code>dbColumn</code> are mapped to. The length of LOBs is not compared.
+	 */
 	@Override
 	public boolean equalsType(ColumnMetaData clientColumn, ColumnMetaData dbColumn)
 	{
-		return false;
+		DataType clientType = clientColumn.getType();
+		DataType dbType = dbColumn.getType();
+		if(isLob(clientType) || isLob(dbType))
+		{
+			return isLob(clientType) && isLob(dbType)
+					&& isBinary(clientType) == isBinary(dbType);
+		}
+		return getColumnType(clientColumn).equals(getColumnType(dbColumn));
 	}
 	
 	
@@ -618,6 +1407,9 @@ public class DB2JDBCMetaData extends JDBCMetaData
 	protected void dropColumn(JDBCConnection jdbcConnection, TableMetaData table,
 			ColumnMetaData column) throws DBException, SQLException
 	{
+		StringBuilder sb = new StringBuilder("DROP COLUMN ");
+		appendIdentifier(column.getName(),sb);
+		alterTable(jdbcConnection,table,column,true,sb.toString());
 	}
 	
 	
@@ -625,6 +1417,9 @@ public class DB2JDBCMetaData extends JDBCMetaData
 	protected void createIndex(JDBCConnection jdbcConnection, TableMetaData table, Index index)
 			throws DBException, SQLException
 	{
+		String qualifiedTable = getQualifiedTableName(table);
+		changeIndex(jdbcConnection,qualifiedTable,
+				createIndexStatement(table,index,qualifiedTable));
 	}
 	
 	
@@ -632,5 +1427,333 @@ public class DB2JDBCMetaData extends JDBCMetaData
 	protected void dropIndex(JDBCConnection jdbcConnection, TableMetaData table, Index index)
 			throws DBException, SQLException
 	{
+		String qualifiedTable = getQualifiedTableName(table);
+		StringBuilder sb = new StringBuilder();
+		if(index.getType() == IndexType.PRIMARY_KEY)
+		{
+			sb.append("ALTER TABLE ");
+			sb.append(qualifiedTable);
+			sb.append(" DROP PRIMARY KEY");
+		}
+		else
+		{
+			sb.append("DROP INDEX ");
+			appendIndexName(table,index,sb);
+		}
+		changeIndex(jdbcConnection,qualifiedTable,sb.toString());
+	}
+	
+	
+	private void alterTable(JDBCConnection jdbcConnection, TableMetaData table,
+			ColumnMetaData column, boolean reorg, String clause) throws DBException, SQLException
+	{
+		DB2SchemaChangeBatch batch = getSchemaChanges(jdbcConnection);
+		Connection connection = jdbcConnection.getConnection();
+		try
+		{
+			batch.alterTable(connection,getQualifiedTableName(table),column.getName(),clause,
+					reorg);
+			flushDetached(jdbcConnection,batch,connection);
+		}
+		finally
+		{
+			connection.close();
+		}
+	}
+	
+	
+	private void changeIndex(JDBCConnection jdbcConnection, String qualifiedTable, String sql)
+			throws DBException, SQLException
+	{
+		DB2SchemaChangeBatch batch = getSchemaChanges(jdbcConnection);
+		Connection connection = jdbcConnection.getConnection();
+		try
+		{
+			batch.changeIndex(connection,qualifiedTable,sql);
+			flushDetached(jdbcConnection,batch,connection);
+		}
+		finally
+		{
+			connection.close();
+		}
+		
+		getDB2DataSource().getDbmsAdaptor().getRetrospectionAccessor().clearIndexCache();
+	}
+	
+	
+	/**
+	 * Changes are collected per table if
+	 * {@link DB2JDBCConnection#beginSchemaChanges()} was called, the changes
+	 * of the last table until {@link DB2JDBCConnection#flushSchemaChanges()}
+	 * is called or the connection is closed. Otherwise the changes of each
+	 * call are executed at its end.
+	 */
+	private DB2SchemaChangeBatch getSchemaChanges(JDBCConnection jdbcConnection)
+	{
+		if(jdbcConnection instanceof DB2JDBCConnection)
+		{
+			DB2SchemaChangeBatch batch = ((DB2JDBCConnection)jdbcConnection).getSchemaChanges();
+			if(batch != null)
+			{
+				return batch;
+			}
+		}
+		return new DB2SchemaChangeBatch();
+	}
+	
+	
+	private void flushDetached(JDBCConnection jdbcConnection, DB2SchemaChangeBatch batch,
+			Connection connection) throws SQLException
+	{
+		if(!(jdbcConnection instanceof DB2JDBCConnection)
+				|| ((DB2JDBCConnection)jdbcConnection).getSchemaChanges() != batch)
+		{
+			batch.flush(connection);
+		}
+	}
+	
+	
+	private String createIndexStatement(TableMetaData table, Index index, String qualifiedTable)
+	{
+		StringBuilder sb = new StringBuilder();
+		if(index.getType() == IndexType.PRIMARY_KEY)
+		{
+			sb.append("ALTER TABLE ");
+			sb.append(qualifiedTable);
+			sb.append(" ADD PRIMARY KEY ");
+		}
+		else
+		{
+			sb.append(index.getType() == IndexType.UNIQUE ? "CREATE UNIQUE INDEX "
+					: "CREATE INDEX ");
+			appendIndexName(table,index,sb);
+			sb.append(" ON ");
+			sb.append(qualifiedTable);
+			sb.append(' ');
+		}
+		appendColumnList(index,sb);
+		return sb.toString();
+	}
+	
+	
+	private void appendColumnDefinition(ColumnMetaData column, boolean existingTable,
+			StringBuilder sb)
+	{
+		appendIdentifier(column.getName(),sb);
+		sb.append(' ');
+		sb.append(getColumnType(column));
+		
+		if(column.isAutoIncrement())
+		{
+			sb.append(" NOT NULL GENERATED BY DEFAULT AS IDENTITY");
+			return;
+		}
+		
+		String defaultValue = getDefaultValueLiteral(column);
+		if(defaultValue != null)
+		{
+			sb.append(" DEFAULT ");
+			sb.append(defaultValue);
+		}
+		if(!column.isNullable())
+		{
+			sb.append(" NOT NULL");
+			if(existingTable && defaultValue == null)
+			{
+				// existing rows get the default of the data type
+				sb.append(" WITH DEFAULT");
+			}
+		}
+	}
+	
+	
+	private String getColumnType(ColumnMetaData column)
+	{
+		int length = column.getLength();
+		switch(column.getType())
+		{
+			case TINYINT:
+			case SMALLINT:
+			case BOOLEAN:
+				return "SMALLINT";
+			
+			case INTEGER:
+				return "INTEGER";
+			
+			case BIGINT:
+				return "BIGINT";
+			
+			case REAL:
+				return "REAL";
+			
+			case FLOAT:
+			case DOUBLE:
+				return "DOUBLE";
+			
+			case NUMERIC:
+			case DECIMAL:
+				return "DECIMAL(" + (length > 0 ? Math.min(length,31) : 31) + ","
+						+ Math.max(0,column.getScale()) + ")";
+			
+			case CHAR:
+				return length > 0 && length <= 254 ? "CHAR(" + length + ")" : "VARCHAR("
+						+ getVarLength(length) + ")";
+			
+			case BINARY:
+				return length > 0 && length <= 254 ? "CHAR(" + length + ") FOR BIT DATA"
+						: "VARCHAR(" + getVarLength(length) + ") FOR BIT DATA";
+			
+			case VARBINARY:
+				return "VARCHAR(" + getVarLength(length) + ") FOR BIT DATA";
+			
+			case LONGVARCHAR:
+			case CLOB:
+				return length > 0 ? "CLOB(" + length + ")" : "CLOB(1G)";
+			
+			case LONGVARBINARY:
+			case BLOB:
+				return length > 0 ? "BLOB(" + length + ")" : "BLOB(1G)";
+			
+			case DATE:
+				return "DATE";
+			
+			case TIME:
+				return "TIME";
+			
+			case TIMESTAMP:
+				return "TIMESTAMP";
+			
+			default:
+				return "VARCHAR(" + getVarLength(length) + ")";
+		}
+	}
+	
+	
+	private int getVarLength(int length)
+	{
+		return length > 0 ? Math.min(length,32672) : 255;
+	}
+	
+	
+	private boolean isLob(DataType type)
+	{
+		return type == DataType.CLOB || type == DataType.LONGVARCHAR || type == DataType.BLOB
+				|| type == DataType.LONGVARBINARY;
+	}
+	
+	
+	private boolean isBinary(DataType type)
+	{
+		return type == DataType.BINARY || type == DataType.VARBINARY
+				|| type == DataType.LONGVARBINARY || type == DataType.BLOB;
+	}
+	
+	
+	/**
+	 * @return the default value as SQL literal or <code>null</code> if the
+	 *         column has no default value
+	 */
+	private String getDefaultValueLiteral(ColumnMetaData column)
+	{
+		Object value = column.getDefaultValue();
+		if(value == null)
+		{
+			return null;
+		}
+		
+		if(value instanceof Boolean)
+		{
+			return ((Boolean)value).booleanValue() ? "1" : "0";
+		}
+		if(value instanceof Number)
+		{
+			return value.toString();
+		}
+		
+		String str;
+		if(value instanceof java.util.Date)
+		{
+			long time = ((java.util.Date)value).getTime();
+			switch(column.getType())
+			{
+				case DATE:
+					str = new java.sql.Date(time).toString();
+				break;
+				case TIME:
+					str = new java.sql.Time(time).toString();
+				break;
+				default:
+					str = new Timestamp(time).toString();
+			}
+		}
+		else
+		{
+			str = value.toString();
+			if(str.length() == 0 && !column.getType().isString())
+			{
+				return null;
+			}
+			if(str.toUpperCase(Locale.ENGLISH).startsWith("CURRENT ")
+					|| "NULL".equalsIgnoreCase(str))
+			{
+				return str.toUpperCase(Locale.ENGLISH);
+			}
+			if(!column.getType().isString() && !column.getType().isDate())
+			{
+				// numeric default in string form
+				return str;
+			}
+		}
+		
+		return "'" + str.replace("'","''") + "'";
+	}
+	
+	
+	private String getQualifiedTableName(TableMetaData table)
+	{
+		TableInfo tableInfo = table.getTableInfo();
+		StringBuilder sb = new StringBuilder();
+		String schema = tableInfo.getSchema();
+		if(schema != null && schema.length() > 0)
+		{
+			appendIdentifier(schema,sb);
+			sb.append('.');
+		}
+		appendIdentifier(tableInfo.getName(),sb);
+		return sb.toString();
+	}
+	
+	
+	private void appendIndexName(TableMetaData table, Index index, StringBuilder sb)
+	{
+		String schema = table.getTableInfo().getSchema();
+		if(schema != null && schema.length() > 0)
+		{
+			appendIdentifier(schema,sb);
+			sb.append('.');
+		}
+		appendIdentifier(index.getName(),sb);
+	}
+	
+	
+	private void appendColumnList(Index index, StringBuilder sb)
+	{
+		sb.append('(');
+		String[] columns = index.getColumns();
+		for(int i = 0; i < columns.length; i++)
+		{
+			if(i > 0)
+			{
+				sb.append(", ");
+			}
+			appendIdentifier(columns[i],sb);
+		}
+		sb.append(')');
+	}
+	
+	
+	private void appendIdentifier(String name, StringBuilder sb)
+	{
+		DB2Dbms.SYNTAX.appendIdentifier(name,sb);
 	}
 }
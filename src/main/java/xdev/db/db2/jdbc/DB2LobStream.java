@@ -0,0 +1,261 @@
+/*
+ * SqlEngine Database Adapter DB2 - XAPI SqlEngine Database Adapter for DB2
+ * Copyright © 2003 XDEV Software (https://xdev.software)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package xdev.db.db2.jdbc;
+
+
+import java.io.FilterInputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+
+/**
+ * Streams over a single LOB value which keep the cursor open until they are
+ * closed. With progressive streaming the driver fetches the data on demand
+ * while the stream is read, LOBs below the inline threshold are already part
+ * of the query block.
+ *
+ * @see DB2JDBCConnection#openBinaryStream(String, Object...)
+ * @see DB2JDBCConnection#openCharacterStream(String, Object...)
+ */
+final class DB2LobStream
+{
+	private DB2LobStream()
+	{
+	}
+	
+	
+	/**
+	 * @return the binary stream of the first column of the first row,
+	 *         <code>null</code> if there is no row or the value is null
+	 */
+	static InputStream openBinaryStream(Connection connection, String select, Object[] params)
+			throws SQLException
+	{
+		Resources resources = new Resources(connection);
+		try
+		{
+			if(resources.open(select,params))
+			{
+				InputStream stream = resources.resultSet.getBinaryStream(1);
+				if(stream != null)
+				{
+					return new LobInputStream(stream,resources);
+				}
+			}
+		}
+		catch(SQLException e)
+		{
+			resources.closeQuietly();
+			throw e;
+		}
+		catch(RuntimeException e)
+		{
+			resources.closeQuietly();
+			throw e;
+		}
+		resources.closeQuietly();
+		return null;
+	}
+	
+	
+	/**
+	 * @return the character stream of the first column of the first row,
+	 *         <code>null</code> if there is no row or the value is null
+	 */
+	static Reader openCharacterStream(Connection connection, String select, Object[] params)
+			throws SQLException
+	{
+		Resources resources = new Resources(connection);
+		try
+		{
+			if(resources.open(select,params))
+			{
+				Reader reader = resources.resultSet.getCharacterStream(1);
+				if(reader != null)
+				{
+					return new LobReader(reader,resources);
+				}
+			}
+		}
+		catch(SQLException e)
+		{
+			resources.closeQuietly();
+			throw e;
+		}
+		catch(RuntimeException e)
+		{
+			resources.closeQuietly();
+			throw e;
+		}
+		resources.closeQuietly();
+		return null;
+	}
+	
+	
+	
+	private static final class Resources
+	{
+		private final Connection	connection;
+		private PreparedStatement	statement;
+		private ResultSet			resultSet;
+		
+		
+		Resources(Connection connection)
+		{
+			this.connection = connection;
+		}
+		
+		
+		boolean open(String select, Object[] params) throws SQLException
+		{
+			statement = connection.prepareStatement(select,ResultSet.TYPE_FORWARD_ONLY,
+					ResultSet.CONCUR_READ_ONLY);
+			if(params != null)
+			{
+				for(int i = 0; i < params.length; i++)
+				{
+					statement.setObject(i + 1,params[i]);
+				}
+			}
+			statement.setMaxRows(1);
+			resultSet = statement.executeQuery();
+			return resultSet.next();
+		}
+		
+		
+		void close() throws SQLException
+		{
+			try
+			{
+				if(resultSet != null)
+				{
+					resultSet.close();
+				}
+				if(statement != null)
+				{
+					statement.close();
+				}
+			}
+			finally
+			{
+				connection.close();
+			}
+		}
+		
+		
+		void closeQuietly()
+		{
+			try
+			{
+				close();
+			}
+			catch(SQLException e)
+			{
+				// original error or empty result is reported
+			}
+		}
+	}
+	
+	
+	
+	private static final class LobInputStream extends FilterInputStream
+	{
+		private Resources	resources;
+		
+		
+		LobInputStream(InputStream in, Resources resources)
+		{
+			super(in);
+			this.resources = resources;
+		}
+		
+		
+		@Override
+		public void close() throws IOException
+		{
+			if(resources == null)
+			{
+				return;
+			}
+			Resources resources = this.resources;
+			this.resources = null;
+			try
+			{
+				super.close();
+			}
+			finally
+			{
+				try
+				{
+					resources.close();
+				}
+				catch(SQLException e)
+				{
+					throw new IOException(e);
+				}
+			}
+		}
+	}
+	
+	
+	
+	private static final class LobReader extends FilterReader
+	{
+		private Resources	resources;
+		
+		
+		LobReader(Reader in, Resources resources)
+		{
+			super(in);
+			this.resources = resources;
+		}
+		
+		
+		@Override
+		public void close() throws IOException
+		{
+			if(resources == null)
+			{
+				return;
+			}
+			Resources resources = this.resources;
+			this.resources = null;
+			try
+			{
+				super.close();
+			}
+			finally
+			{
+				try
+				{
+					resources.close();
+				}
+				catch(SQLException e)
+				{
+					throw new IOException(e);
+				}
+			}
+		}
+	}
+}
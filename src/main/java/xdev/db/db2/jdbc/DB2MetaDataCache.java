@@ -0,0 +1,464 @@
+/*
+ * SqlEngine Database Adapter DB2 - XAPI SqlEngine Database Adapter for DB2
+ * Copyright © 2003 XDEV Software (https://xdev.software)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package xdev.db.db2.jdbc;
+
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import xdev.db.DBMetaData.TableInfo;
+import xdev.db.DBMetaData.TableMetaData;
+
+
+/**
+ * Size-bounded cache of {@link TableInfo}s and {@link TableMetaData} of a
+ * {@link DB2JDBCDataSource}.
+ * <p>
+ * Cached entries are validated against the catalog with one query per
+ * request: table lists by the number and the latest
+ * <code>ALTER_TIME</code>/<code>CREATE_TIME</code> of
+ * <code>SYSCAT.TABLES</code>, table metadata by the <code>ALTER_TIME</code>
+ * of the table and the <code>CREATE_TIME</code> of its indices in
+ * <code>SYSCAT.INDEXES</code>. Only tables whose timestamps moved are
+ * reloaded. The least recently used entries are evicted once the cache
+ * exceeds its maximum size.
+ * <p>
+ * Cached {@link TableMetaData} instances are shared between all callers and
+ * must not be modified.
+ *
+ * @see DB2JDBCDataSource#setMetaDataCacheSize(int)
+ */
+public class DB2MetaDataCache
+{
+	private static final String				SELECT_TABLE_STAMPS	= "SELECT T.TABSCHEMA, T.TABNAME, T.ALTER_TIME, T.STATS_TIME, "
+			+ "COUNT(I.INDNAME), MAX(I.CREATE_TIME) FROM SYSCAT.TABLES T "
+			+ "LEFT OUTER JOIN SYSCAT.INDEXES I ON I.TABSCHEMA = T.TABSCHEMA AND I.TABNAME = T.TABNAME "
+			+ "WHERE {0} "
+			+ "GROUP BY T.TABSCHEMA, T.TABNAME, T.ALTER_TIME, T.STATS_TIME FOR READ ONLY";
+	
+	/** Maximum number of tables whose stamps are selected by name. */
+	private static final int				MAX_STAMP_TABLES	= 1000;
+	
+	private final int						maxSize;
+	private final Map<String, TableInfos>	tableInfos;
+	private final Map<String, CacheEntry>	tableMetaData;
+	
+	private final AtomicLong				hits				= new AtomicLong();
+	private final AtomicLong				misses				= new AtomicLong();
+	
+	
+	/**
+	 * @param maxSize
+	 *            the maximum number of cached table metadata
+	 */
+	public DB2MetaDataCache(int maxSize)
+	{
+		this.maxSize = maxSize;
+		this.tableInfos = new HashMap<String, TableInfos>();
+		this.tableMetaData = new LinkedHashMap<String, CacheEntry>(16,0.75f,true)
+		{
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest)
+			{
+				return size() > DB2MetaDataCache.this.maxSize;
+			}
+		};
+	}
+	
+	
+	/**
+	 * @return the maximum number of cached table metadata
+	 */
+	public int getMaxSize()
+	{
+		return maxSize;
+	}
+	
+	
+	/**
+	 * @return the number of cached table metadata
+	 */
+	public synchronized int size()
+	{
+		return tableMetaData.size();
+	}
+	
+	
+	/**
+	 * @return the number of requests answered from the cache
+	 */
+	public long getHitCount()
+	{
+		return hits.get();
+	}
+	
+	
+	/**
+	 * @return the number of requests which had to be loaded from the database
+	 */
+	public long getMissCount()
+	{
+		return misses.get();
+	}
+	
+	
+	/**
+	 * Removes all entries from the cache, the counters are not reset.
+	 */
+	public synchronized void invalidate()
+	{
+		tableInfos.clear();
+		tableMetaData.clear();
+	}
+	
+	
+	/**
+	 * Reads the fingerprint of all tables matching <code>condition</code>.
+	 * 
+	 * @param connection
+	 *            the connection to use
+	 * @param condition
+	 *            the where condition on <code>SYSCAT.TABLES</code>
+	 * @return the fingerprint
+	 * @throws SQLException
+	 *             if the catalog query fails
+	 */
+	public String readTableInfosFingerprint(Connection connection, String condition)
+			throws SQLException
+	{
+		Statement statement = connection.createStatement();
+		try
+		{
+			ResultSet rs = statement
+					.executeQuery("SELECT COUNT(*), MAX(ALTER_TIME), MAX(CREATE_TIME) FROM syscat.tables where "
+							+ condition + " for read only");
+			try
+			{
+				if(!rs.next())
+				{
+					return "";
+				}
+				return rs.getInt(1) + "|" + rs.getTimestamp(2) + "|" + rs.getTimestamp(3);
+			}
+			finally
+			{
+				rs.close();
+			}
+		}
+		finally
+		{
+			statement.close();
+		}
+	}
+	
+	
+	/**
+	 * @param condition
+	 *            the where condition the tables were selected with
+	 * @param fingerprint
+	 *            the current fingerprint
+	 * @return a copy of the cached tables or <code>null</code> if not cached
+	 *         or outdated
+	 */
+	public synchronized TableInfo[] getTableInfos(String condition, String fingerprint)
+	{
+		TableInfos cached = tableInfos.get(condition);
+		if(cached != null && cached.fingerprint.equals(fingerprint))
+		{
+			hits.incrementAndGet();
+			return cached.tables.clone();
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+	
+	
+	/**
+	 * @param condition
+	 *            the where condition the tables were selected with
+	 * @param fingerprint
+	 *            the fingerprint read before the tables were loaded
+	 * @param tables
+	 *            the loaded tables
+	 */
+	public synchronized void putTableInfos(String condition, String fingerprint,
+			TableInfo[] tables)
+	{
+		tableInfos.put(condition,new TableInfos(fingerprint,tables.clone()));
+	}
+	
+	
+	/**
+	 * Reads the current timestamps of all tables in <code>schemas</code>, used
+	 * for full snapshots of the schemas.
+	 * 
+	 * @param connection
+	 *            the connection to use
+	 * @param schemas
+	 *            the schema names
+	 * @return the stamps by qualified table name
+	 * @throws SQLException
+	 *             if the catalog query fails
+	 */
+	public Map<String, Stamp> readStamps(Connection connection,
+			Collection<String> schemas) throws SQLException
+	{
+		if(schemas.isEmpty())
+		{
+			return new HashMap<String, Stamp>();
+		}
+		
+		StringBuilder condition = new StringBuilder("T.TABSCHEMA IN (");
+		appendPlaceholders(schemas.size(),condition);
+		condition.append(')');
+		return readStamps(connection,condition.toString(),new ArrayList<String>(schemas));
+	}
+	
+	
+	/**
+	 * Reads the current timestamps of the requested tables. If more than
+	 * {@value #MAX_STAMP_TABLES} tables are requested all tables of their
+	 * schemas are read.
+	 * 
+	 * @param connection
+	 *            the connection to use
+	 * @param tableNames
+	 *            the table names by schema name
+	 * @return the stamps by qualified table name
+	 * @throws SQLException
+	 *             if the catalog query fails
+	 */
+	public Map<String, Stamp> readStamps(Connection connection,
+			Map<String, ? extends Collection<String>> tableNames) throws SQLException
+	{
+		int count = 0;
+		for(Collection<String> names : tableNames.values())
+		{
+			count += names.size();
+		}
+		if(count == 0 || count > MAX_STAMP_TABLES)
+		{
+			return readStamps(connection,tableNames.keySet());
+		}
+		
+		StringBuilder condition = new StringBuilder();
+		List<String> params = new ArrayList<String>(count + tableNames.size());
+		for(Map.Entry<String, ? extends Collection<String>> entry : tableNames.entrySet())
+		{
+			if(condition.length() > 0)
+			{
+				condition.append(" OR ");
+			}
+			condition.append("(T.TABSCHEMA = ? AND T.TABNAME IN (");
+			appendPlaceholders(entry.getValue().size(),condition);
+			condition.append("))");
+			params.add(entry.getKey());
+			params.addAll(entry.getValue());
+		}
+		return readStamps(connection,"(" + condition + ")",params);
+	}
+	
+	
+	private static void appendPlaceholders(int count, StringBuilder sb)
+	{
+		for(int i = 0; i < count; i++)
+		{
+			sb.append(i > 0 ? ",?" : "?");
+		}
+	}
+	
+	
+	private Map<String, Stamp> readStamps(Connection connection, String condition,
+			List<String> params) throws SQLException
+	{
+		Map<String, Stamp> stamps = new HashMap<String, Stamp>();
+		PreparedStatement statement = connection.prepareStatement(SELECT_TABLE_STAMPS
+				.replace("{0}",condition));
+		try
+		{
+			for(int i = 0; i < params.size(); i++)
+			{
+				statement.setString(i + 1,params.get(i));
+			}
+			
+			ResultSet rs = statement.executeQuery();
+			try
+			{
+				while(rs.next())
+				{
+					String key = DB2MetaDataSnapshot.key(rs.getString(1).trim(),rs
+							.getString(2).trim());
+					stamps.put(key,new Stamp(rs.getTimestamp(3),rs.getTimestamp(4),rs.getInt(5),
+							rs.getTimestamp(6)));
+				}
+			}
+			finally
+			{
+				rs.close();
+			}
+		}
+		finally
+		{
+			statement.close();
+		}
+		
+		return stamps;
+	}
+	
+	
+	/**
+	 * @param key
+	 *            the qualified table name
+	 * @param flags
+	 *            the requested flags
+	 * @param stamp
+	 *            the current stamp of the table
+	 * @param withStatistics
+	 *            <code>true</code> if changed statistics invalidate the entry
+	 * @return the cached metadata or <code>null</code> if not cached or
+	 *         outdated
+	 */
+	public synchronized CachedTableMetaData getTableMetaData(String key, int flags,
+			Stamp stamp, boolean withStatistics)
+	{
+		CacheEntry entry = tableMetaData.get(key + "#" + flags);
+		if(entry != null && stamp != null && entry.stamp.equals(stamp,withStatistics))
+		{
+			hits.incrementAndGet();
+			return entry.value;
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+	
+	
+	/**
+	 * @param key
+	 *            the qualified table name
+	 * @param flags
+	 *            the flags the metadata was loaded with
+	 * @param stamp
+	 *            the stamp read before the metadata was loaded
+	 * @param value
+	 *            the loaded metadata
+	 */
+	public synchronized void putTableMetaData(String key, int flags,
+			Stamp stamp, CachedTableMetaData value)
+	{
+		if(stamp != null)
+		{
+			tableMetaData.put(key + "#" + flags,new CacheEntry(stamp,value));
+		}
+	}
+	
+	
+	
+	/**
+	 * Change indicators of a table.
+	 */
+	public static final class Stamp
+	{
+		private final Timestamp	alterTime;
+		private final Timestamp	statsTime;
+		private final int		indexCount;
+		private final Timestamp	indexTime;
+		
+		
+		Stamp(Timestamp alterTime, Timestamp statsTime, int indexCount,
+				Timestamp indexTime)
+		{
+			this.alterTime = alterTime;
+			this.statsTime = statsTime;
+			this.indexCount = indexCount;
+			this.indexTime = indexTime;
+		}
+		
+		
+		boolean equals(Stamp other, boolean withStatistics)
+		{
+			return equals(alterTime,other.alterTime) && indexCount == other.indexCount
+					&& equals(indexTime,other.indexTime)
+					&& (!withStatistics || equals(statsTime,other.statsTime));
+		}
+		
+		
+		private static boolean equals(Object o1, Object o2)
+		{
+			return o1 == null ? o2 == null : o1.equals(o2);
+		}
+	}
+	
+	
+	
+	/**
+	 * Cached metadata of a table.
+	 */
+	public static final class CachedTableMetaData
+	{
+		final TableMetaData	tableMetaData;
+		final boolean		rowCountEstimated;
+		
+		
+		CachedTableMetaData(TableMetaData tableMetaData, boolean rowCountEstimated)
+		{
+			this.tableMetaData = tableMetaData;
+			this.rowCountEstimated = rowCountEstimated;
+		}
+	}
+	
+	
+	
+	private static final class CacheEntry
+	{
+		final Stamp					stamp;
+		final CachedTableMetaData	value;
+		
+		
+		CacheEntry(Stamp stamp, CachedTableMetaData value)
+		{
+			this.stamp = stamp;
+			this.value = value;
+		}
+	}
+	
+	
+	
+	private static final class TableInfos
+	{
+		final String		fingerprint;
+		final TableInfo[]	tables;
+		
+		
+		TableInfos(String fingerprint, TableInfo[] tables)
+		{
+			this.fingerprint = fingerprint;
+			this.tables = tables;
+		}
+	}
+}
@@ -0,0 +1,501 @@
+/*
+ * SqlEngine Database Adapter DB2 - XAPI SqlEngine Database Adapter for DB2
+ * Copyright © 2003 XDEV Software (https://xdev.software)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package xdev.db.db2.jdbc;
+
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import xdev.db.ColumnMetaData;
+import xdev.db.DataType;
+import xdev.db.Index;
+import xdev.db.Index.IndexType;
+
+
+/**
+ * In-memory copy of the catalog metadata of one or more schemas.
+ * <p>
+ * The snapshot is loaded from <code>SYSCAT.COLUMNS</code>,
+ * <code>SYSCAT.KEYCOLUSE</code>, <code>SYSCAT.INDEXES</code>,
+ * <code>SYSCAT.INDEXCOLUSE</code> and <code>SYSCAT.TABLES</code> with at most
+ * four queries, regardless of the number of tables in the schemas.
+ *
+ * @see DB2JDBCMetaData#getTableMetaData(xdev.util.ProgressMonitor, int,
+ *      xdev.db.DBMetaData.TableInfo...)
+ */
+public class DB2MetaDataSnapshot
+{
+	private static final String	SELECT_COLUMNS	= "SELECT TABSCHEMA, TABNAME, COLNAME, TYPENAME, LENGTH, SCALE, "
+			+ "DEFAULT, NULLS, IDENTITY, CODEPAGE FROM SYSCAT.COLUMNS "
+			+ "WHERE TABSCHEMA IN ({0}) "
+			+ "ORDER BY TABSCHEMA, TABNAME, COLNO FOR READ ONLY";
+	
+	private static final String	SELECT_PRIMARY_KEYS	= "SELECT K.TABSCHEMA, K.TABNAME, K.COLNAME FROM SYSCAT.KEYCOLUSE K "
+			+ "JOIN SYSCAT.TABCONST C ON C.TABSCHEMA = K.TABSCHEMA "
+			+ "AND C.TABNAME = K.TABNAME AND C.CONSTNAME = K.CONSTNAME "
+			+ "WHERE C.TYPE = 'P' AND K.TABSCHEMA IN ({0}) "
+			+ "ORDER BY K.TABSCHEMA, K.TABNAME, K.COLSEQ FOR READ ONLY";
+	
+	private static final String	SELECT_INDICES	= "SELECT I.TABSCHEMA, I.TABNAME, I.INDNAME, I.UNIQUERULE, U.COLNAME "
+			+ "FROM SYSCAT.INDEXES I JOIN SYSCAT.INDEXCOLUSE U "
+			+ "ON U.INDSCHEMA = I.INDSCHEMA AND U.INDNAME = I.INDNAME "
+			+ "WHERE I.UNIQUERULE <> 'P' AND I.TABSCHEMA IN ({0}) "
+			+ "ORDER BY I.TABSCHEMA, I.TABNAME, I.INDNAME, U.COLSEQ FOR READ ONLY";
+	
+	private static final String	SELECT_STATISTICS	= "SELECT TABSCHEMA, TABNAME, CARD, STATS_TIME FROM SYSCAT.TABLES "
+			+ "WHERE TABSCHEMA IN ({0}) FOR READ ONLY";
+	
+	private final Map<String, List<ColumnMetaData>>			columns		= new HashMap<String, List<ColumnMetaData>>();
+	private final Map<String, List<String>>					primaryKeys	= new HashMap<String, List<String>>();
+	private final Map<String, Map<String, IndexBuilder>>	indices		= new HashMap<String, Map<String, IndexBuilder>>();
+	private final Map<String, Statistics>					statistics	= new HashMap<String, Statistics>();
+	
+	
+	private DB2MetaDataSnapshot()
+	{
+	}
+	
+	
+	/**
+	 * Loads the snapshot of all tables and views in <code>schemas</code>.
+	 *
+	 * @param connection
+	 *            the connection to use
+	 * @param schemas
+	 *            the schema names
+	 * @param indices
+	 *            <code>true</code> to load primary keys and indices
+	 * @param statistics
+	 *            <code>true</code> to load the table statistics
+	 * @return the loaded snapshot
+	 * @throws SQLException
+	 *             if a catalog query fails
+	 */
+	public static DB2MetaDataSnapshot load(Connection connection, Collection<String> schemas,
+			boolean indices, boolean statistics) throws SQLException
+	{
+		DB2MetaDataSnapshot snapshot = new DB2MetaDataSnapshot();
+		if(schemas.isEmpty())
+		{
+			return snapshot;
+		}
+		
+		String[] schemaArray = schemas.toArray(new String[schemas.size()]);
+		
+		ResultSet rs = query(connection,SELECT_COLUMNS,schemaArray);
+		try
+		{
+			snapshot.readColumns(rs);
+		}
+		finally
+		{
+			close(rs);
+		}
+		
+		if(indices)
+		{
+			rs = query(connection,SELECT_PRIMARY_KEYS,schemaArray);
+			try
+			{
+				snapshot.readPrimaryKeys(rs);
+			}
+			finally
+			{
+				close(rs);
+			}
+			
+			rs = query(connection,SELECT_INDICES,schemaArray);
+			try
+			{
+				snapshot.readIndices(rs);
+			}
+			finally
+			{
+				close(rs);
+			}
+		}
+		
+		if(statistics)
+		{
+			rs = query(connection,SELECT_STATISTICS,schemaArray);
+			try
+			{
+				snapshot.readStatistics(rs);
+			}
+			finally
+			{
+				close(rs);
+			}
+		}
+		
+		return snapshot;
+	}
+	
+	
+	private static ResultSet query(Connection connection, String sql, String[] schemas)
+			throws SQLException
+	{
+		StringBuilder placeholders = new StringBuilder(schemas.length * 2);
+		for(int i = 0; i < schemas.length; i++)
+		{
+			if(i > 0)
+			{
+				placeholders.append(',');
+			}
+			placeholders.append('?');
+		}
+		
+		PreparedStatement statement = connection.prepareStatement(sql.replace("{0}",placeholders));
+		try
+		{
+			for(int i = 0; i < schemas.length; i++)
+			{
+				statement.setString(i + 1,schemas[i]);
+			}
+			return statement.executeQuery();
+		}
+		catch(SQLException e)
+		{
+			statement.close();
+			throw e;
+		}
+	}
+	
+	
+	private static void close(ResultSet rs) throws SQLException
+	{
+		Statement statement = rs.getStatement();
+		rs.close();
+		if(statement != null)
+		{
+			statement.close();
+		}
+	}
+	
+	
+	void readColumns(ResultSet rs) throws SQLException
+	{
+		String lastKey = null;
+		List<ColumnMetaData> list = null;
+		while(rs.next())
+		{
+			String schema = trim(rs.getString(1));
+			String tableName = trim(rs.getString(2));
+			String key = key(schema,tableName);
+			if(!key.equals(lastKey))
+			{
+				list = new ArrayList<ColumnMetaData>();
+				columns.put(key,list);
+				lastKey = key;
+			}
+			
+			String columnName = rs.getString(3);
+			DataType type = toDataType(trim(rs.getString(4)),rs.getInt(10));
+			int length = rs.getInt(5);
+			int scale = rs.getInt(6);
+			String defaultValue = rs.getString(7);
+			boolean nullable = "Y".equals(rs.getString(8));
+			boolean autoIncrement = "Y".equals(rs.getString(9));
+			
+			list.add(new ColumnMetaData(tableName,columnName,columnName,type,length,scale,
+					defaultValue,nullable,autoIncrement));
+		}
+	}
+	
+	
+	void readPrimaryKeys(ResultSet rs) throws SQLException
+	{
+		while(rs.next())
+		{
+			String key = key(trim(rs.getString(1)),trim(rs.getString(2)));
+			List<String> list = primaryKeys.get(key);
+			if(list == null)
+			{
+				list = new ArrayList<String>();
+				primaryKeys.put(key,list);
+			}
+			list.add(rs.getString(3));
+		}
+	}
+	
+	
+	void readIndices(ResultSet rs) throws SQLException
+	{
+		while(rs.next())
+		{
+			String key = key(trim(rs.getString(1)),trim(rs.getString(2)));
+			Map<String, IndexBuilder> tableIndices = indices.get(key);
+			if(tableIndices == null)
+			{
+				tableIndices = new LinkedHashMap<String, IndexBuilder>();
+				indices.put(key,tableIndices);
+			}
+			
+			String indexName = rs.getString(3);
+			IndexBuilder index = tableIndices.get(indexName);
+			if(index == null)
+			{
+				IndexType type = "U".equals(rs.getString(4)) ? IndexType.UNIQUE : IndexType.NORMAL;
+				index = new IndexBuilder(indexName,type);
+				tableIndices.put(indexName,index);
+			}
+			index.columns.add(rs.getString(5));
+		}
+	}
+	
+	
+	void readStatistics(ResultSet rs) throws SQLException
+	{
+		while(rs.next())
+		{
+			String key = key(trim(rs.getString(1)),trim(rs.getString(2)));
+			statistics.put(key,new Statistics(rs.getLong(3),rs.getTimestamp(4)));
+		}
+	}
+	
+	
+	/**
+	 * @param schema
+	 *            the schema of the table
+	 * @param tableName
+	 *            the name of the table
+	 * @return <code>true</code> if the snapshot contains the table
+	 */
+	public boolean contains(String schema, String tableName)
+	{
+		return columns.containsKey(key(schema,tableName));
+	}
+	
+	
+	/**
+	 * @param schema
+	 *            the schema of the table
+	 * @param tableName
+	 *            the name of the table
+	 * @return the columns in declaration order, the default values are the
+	 *         unprocessed expressions of <code>SYSCAT.COLUMNS.DEFAULT</code>
+	 */
+	public ColumnMetaData[] getColumns(String schema, String tableName)
+	{
+		List<ColumnMetaData> list = columns.get(key(schema,tableName));
+		if(list == null)
+		{
+			return new ColumnMetaData[0];
+		}
+		return list.toArray(new ColumnMetaData[list.size()]);
+	}
+	
+	
+	/**
+	 * @param schema
+	 *            the schema of the table
+	 * @param tableName
+	 *            the name of the table
+	 * @return the primary key, followed by all other indices of the table
+	 */
+	public Index[] getIndices(String schema, String tableName)
+	{
+		String key = key(schema,tableName);
+		List<Index> list = new ArrayList<Index>();
+		
+		List<String> primaryKey = primaryKeys.get(key);
+		if(primaryKey != null)
+		{
+			list.add(new Index("PRIMARY_KEY",IndexType.PRIMARY_KEY,primaryKey
+					.toArray(new String[primaryKey.size()])));
+		}
+		
+		Map<String, IndexBuilder> tableIndices = indices.get(key);
+		if(tableIndices != null)
+		{
+			for(IndexBuilder index : tableIndices.values())
+			{
+				list.add(new Index(index.name,index.type,index.columns
+						.toArray(new String[index.columns.size()])));
+			}
+		}
+		
+		return list.toArray(new Index[list.size()]);
+	}
+	
+	
+	/**
+	 * @param schema
+	 *            the schema of the table
+	 * @param tableName
+	 *            the name of the table
+	 * @return <code>SYSCAT.TABLES.CARD</code>, -1 if unknown
+	 */
+	public long getCardinality(String schema, String tableName)
+	{
+		Statistics stats = statistics.get(key(schema,tableName));
+		return stats != null ? stats.card : -1;
+	}
+	
+	
+	/**
+	 * @param schema
+	 *            the schema of the table
+	 * @param tableName
+	 *            the name of the table
+	 * @return <code>SYSCAT.TABLES.STATS_TIME</code>, <code>null</code> if
+	 *         unknown
+	 */
+	public Timestamp getStatisticsTime(String schema, String tableName)
+	{
+		Statistics stats = statistics.get(key(schema,tableName));
+		return stats != null ? stats.time : null;
+	}
+	
+	
+	/**
+	 * Maps a <code>SYSCAT.COLUMNS.TYPENAME</code> to a {@link DataType}.
+	 *
+	 * @param typeName
+	 *            the DB2 type name
+	 * @param codepage
+	 *            the code page of the column, 0 for binary character data
+	 * @return the data type
+	 */
+	static DataType toDataType(String typeName, int codepage)
+	{
+		if("SMALLINT".equals(typeName))
+		{
+			return DataType.SMALLINT;
+		}
+		if("INTEGER".equals(typeName))
+		{
+			return DataType.INTEGER;
+		}
+		if("BIGINT".equals(typeName))
+		{
+			return DataType.BIGINT;
+		}
+		if("DECIMAL".equals(typeName) || "NUMERIC".equals(typeName)
+				|| "DECFLOAT".equals(typeName))
+		{
+			return DataType.DECIMAL;
+		}
+		if("REAL".equals(typeName))
+		{
+			return DataType.REAL;
+		}
+		if("DOUBLE".equals(typeName) || "FLOAT".equals(typeName))
+		{
+			return DataType.DOUBLE;
+		}
+		if("CHARACTER".equals(typeName) || "GRAPHIC".equals(typeName))
+		{
+			return codepage == 0 ? DataType.BINARY : DataType.CHAR;
+		}
+		if("VARCHAR".equals(typeName) || "VARGRAPHIC".equals(typeName))
+		{
+			return codepage == 0 ? DataType.VARBINARY : DataType.VARCHAR;
+		}
+		if("LONG VARCHAR".equals(typeName) || "LONG VARGRAPHIC".equals(typeName))
+		{
+			return codepage == 0 ? DataType.LONGVARBINARY : DataType.LONGVARCHAR;
+		}
+		if("CLOB".equals(typeName) || "DBCLOB".equals(typeName) || "XML".equals(typeName))
+		{
+			return DataType.CLOB;
+		}
+		if("BLOB".equals(typeName))
+		{
+			return DataType.BLOB;
+		}
+		if("BINARY".equals(typeName))
+		{
+			return DataType.BINARY;
+		}
+		if("VARBINARY".equals(typeName))
+		{
+			return DataType.VARBINARY;
+		}
+		if("DATE".equals(typeName))
+		{
+			return DataType.DATE;
+		}
+		if("TIME".equals(typeName))
+		{
+			return DataType.TIME;
+		}
+		if("TIMESTAMP".equals(typeName))
+		{
+			return DataType.TIMESTAMP;
+		}
+		if("BOOLEAN".equals(typeName))
+		{
+			return DataType.BOOLEAN;
+		}
+		return DataType.VARCHAR;
+	}
+	
+	
+	static String key(String schema, String tableName)
+	{
+		return schema + "." + tableName;
+	}
+	
+	
+	private static String trim(String str)
+	{
+		return str != null ? str.trim() : null;
+	}
+	
+	
+	
+	private static class IndexBuilder
+	{
+		final String		name;
+		final IndexType		type;
+		final List<String>	columns	= new ArrayList<String>();
+		
+		
+		IndexBuilder(String name, IndexType type)
+		{
+			this.name = name;
+			this.type = type;
+		}
+	}
+	
+	
+	
+	private static class Statistics
+	{
+		final long		card;
+		final Timestamp	time;
+		
+		
+		Statistics(long card, Timestamp time)
+		{
+			this.card = card;
+			this.time = time;
+		}
+	}
+}
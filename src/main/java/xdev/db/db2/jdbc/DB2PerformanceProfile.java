@@ -0,0 +1,142 @@
+/*
+ * SqlEngine Database Adapter DB2 - XAPI SqlEngine Database Adapter for DB2
+ * Copyright © 2003 XDEV Software (https://xdev.software)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package xdev.db.db2.jdbc;
+
+
+import java.util.Locale;
+
+
+/**
+ * Named sets of JCC fetch properties which are written into the connection
+ * url.
+ *
+ * @see DB2JDBCDataSource#PERFORMANCE_PROFILE
+ */
+public enum DB2PerformanceProfile
+{
+	/**
+	 * No properties, the driver defaults are used.
+	 */
+	DEFAULT(0,0,null,false),
+	
+	/**
+	 * Short transactions: default query blocks, small fetch size and deferred
+	 * prepares, which saves a round trip per statement.
+	 */
+	OLTP(32767,64,null,true),
+	
+	/**
+	 * Large scans and bulk reads: big query blocks, large fetch size and
+	 * multi-row fetch on DB2 for z/OS.
+	 */
+	ANALYTICS(65535,10000,Boolean.TRUE,true),
+	
+	/**
+	 * Time to first row: small query blocks which the server fills and sends
+	 * early, small fetch size and deferred prepares.
+	 */
+	LOW_LATENCY(8192,16,null,true);
+	
+	private final int		queryDataSize;
+	private final int		fetchSize;
+	private final Boolean	rowsetSupport;
+	private final boolean	deferPrepares;
+	
+	
+	private DB2PerformanceProfile(int queryDataSize, int fetchSize, Boolean rowsetSupport,
+			boolean deferPrepares)
+	{
+		this.queryDataSize = queryDataSize;
+		this.fetchSize = fetchSize;
+		this.rowsetSupport = rowsetSupport;
+		this.deferPrepares = deferPrepares;
+	}
+	
+	
+	/**
+	 * @return the <code>queryDataSize</code> in bytes or 0 for the driver
+	 *         default
+	 */
+	public int getQueryDataSize()
+	{
+		return queryDataSize;
+	}
+	
+	
+	/**
+	 * @return the default fetch size of the statements or 0 for the driver
+	 *         default
+	 */
+	public int getFetchSize()
+	{
+		return fetchSize;
+	}
+	
+	
+	/**
+	 * Writes the properties of this profile into <code>info</code>.
+	 * 
+	 * @param info
+	 *            the connection information
+	 */
+	public void applyTo(DB2ConnectionInformation info)
+	{
+		if(queryDataSize > 0)
+		{
+			info.setProperty("queryDataSize",Integer.toString(queryDataSize));
+		}
+		if(fetchSize > 0)
+		{
+			info.setProperty("fetchSize",Integer.toString(fetchSize));
+		}
+		if(rowsetSupport != null)
+		{
+			// com.ibm.db2.jcc.DB2BaseDataSource.YES / NO
+			info.setProperty("enableRowsetSupport",rowsetSupport ? "1" : "2");
+		}
+		if(deferPrepares)
+		{
+			info.setProperty("deferPrepares","true");
+		}
+	}
+	
+	
+	/**
+	 * Returns the profile named <code>name</code>, case and separators are
+	 * ignored, e.g. <code>"low-latency"</code>.
+	 * 
+	 * @param name
+	 *            the profile name
+	 * @return the profile, {@link #DEFAULT} if <code>name</code> is empty
+	 * @throws IllegalArgumentException
+	 *             if there is no profile with this name
+	 */
+	public static DB2PerformanceProfile forName(String name)
+	{
+		if(name == null || name.trim().length() == 0)
+		{
+			return DEFAULT;
+		}
+		String normalized = name.trim().toUpperCase(Locale.ENGLISH).replaceAll("[^A-Z0-9]+","_");
+		if("BULK_READ".equals(normalized) || "ANALYTICS_BULK_READ".equals(normalized))
+		{
+			return ANALYTICS;
+		}
+		return valueOf(normalized);
+	}
+}
@@ -0,0 +1,264 @@
+/*
+ * SqlEngine Database Adapter DB2 - XAPI SqlEngine Database Adapter for DB2
+ * Copyright © 2003 XDEV Software (https://xdev.software)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package xdev.db.db2.jdbc;
+
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Short-lived cache of exact query row counts of a {@link DB2JDBCDataSource},
+ * keyed by the normalized select statement.
+ * <p>
+ * Entries expire after the configured time to live, changes of the data are
+ * not tracked. Use {@link #invalidate()} after modifying statements if stale
+ * counts are not acceptable.
+ *
+ * @see DB2JDBCConnection.QueryRowCountMode#CACHED
+ */
+public class DB2QueryRowCountCache
+{
+	/**
+	 * Default time to live of a cached row count in milliseconds.
+	 */
+	public static final long				DEFAULT_TIME_TO_LIVE	= 10000;
+	
+	/**
+	 * Default maximum number of cached row counts.
+	 */
+	public static final int					DEFAULT_MAX_SIZE		= 256;
+	
+	private final Map<String, CacheEntry>	entries					= new ConcurrentHashMap<String, CacheEntry>();
+	private volatile long					timeToLive				= DEFAULT_TIME_TO_LIVE;
+	private volatile int					maxSize					= DEFAULT_MAX_SIZE;
+	
+	private final AtomicLong				hits					= new AtomicLong();
+	private final AtomicLong				misses					= new AtomicLong();
+	
+	
+	/**
+	 * @return the time to live of a cached row count in milliseconds
+	 */
+	public long getTimeToLive()
+	{
+		return timeToLive;
+	}
+	
+	
+	/**
+	 * Sets the time to live of cached row counts, default is
+	 * {@value #DEFAULT_TIME_TO_LIVE} milliseconds.
+	 * 
+	 * @param timeToLive
+	 *            the time to live in milliseconds
+	 */
+	public void setTimeToLive(long timeToLive)
+	{
+		this.timeToLive = Math.max(0,timeToLive);
+	}
+	
+	
+	/**
+	 * @return the maximum number of cached row counts
+	 */
+	public int getMaxSize()
+	{
+		return maxSize;
+	}
+	
+	
+	/**
+	 * Sets the maximum number of cached row counts, default is
+	 * {@value #DEFAULT_MAX_SIZE}.
+	 * 
+	 * @param maxSize
+	 *            the maximum number of entries
+	 */
+	public void setMaxSize(int maxSize)
+	{
+		this.maxSize = Math.max(1,maxSize);
+	}
+	
+	
+	/**
+	 * @return the number of requests answered from the cache
+	 */
+	public long getHitCount()
+	{
+		return hits.get();
+	}
+	
+	
+	/**
+	 * @return the number of requests which had to be counted
+	 */
+	public long getMissCount()
+	{
+		return misses.get();
+	}
+	
+	
+	/**
+	 * Removes all entries from the cache, the counters are not reset.
+	 */
+	public void invalidate()
+	{
+		entries.clear();
+	}
+	
+	
+	/**
+	 * @param select
+	 *            the select statement
+	 * @return the cached row count or -1 if not cached or expired
+	 */
+	public int get(String select)
+	{
+		String key = normalize(select);
+		CacheEntry entry = entries.get(key);
+		if(entry != null)
+		{
+			if(entry.expires - System.nanoTime() > 0)
+			{
+				hits.incrementAndGet();
+				return entry.rowCount;
+			}
+			entries.remove(key,entry);
+		}
+		misses.incrementAndGet();
+		return -1;
+	}
+	
+	
+	/**
+	 * @param select
+	 *            the select statement
+	 * @param rowCount
+	 *            the exact row count of <code>select</code>
+	 */
+	public void put(String select, int rowCount)
+	{
+		long ttl = timeToLive;
+		if(ttl <= 0)
+		{
+			return;
+		}
+		
+		long now = System.nanoTime();
+		if(entries.size() >= maxSize)
+		{
+			evict(now);
+		}
+		entries.put(normalize(select),
+				new CacheEntry(rowCount,now + TimeUnit.MILLISECONDS.toNanos(ttl)));
+	}
+	
+	
+	private void evict(long now)
+	{
+		for(Iterator<CacheEntry> it = entries.values().iterator(); it.hasNext();)
+		{
+			if(it.next().expires - now <= 0)
+			{
+				it.remove();
+			}
+		}
+		
+		// all entries are still valid, drop arbitrary ones to stay in bounds
+		for(Iterator<CacheEntry> it = entries.values().iterator(); it.hasNext()
+				&& entries.size() >= maxSize;)
+		{
+			it.next();
+			it.remove();
+		}
+	}
+	
+	
+	/**
+	 * Collapses whitespace outside of string literals and quoted identifiers
+	 * and removes a trailing semicolon, so that formatting differences map to
+	 * the same key.
+	 */
+	static String normalize(String select)
+	{
+		int length = select.length();
+		StringBuilder sb = new StringBuilder(length);
+		char quote = 0;
+		boolean space = false;
+		for(int i = 0; i < length; i++)
+		{
+			char c = select.charAt(i);
+			if(quote != 0)
+			{
+				sb.append(c);
+				if(c == quote)
+				{
+					quote = 0;
+				}
+			}
+			else if(Character.isWhitespace(c))
+			{
+				space = sb.length() > 0;
+			}
+			else
+			{
+				if(space)
+				{
+					sb.append(' ');
+					space = false;
+				}
+				if(c == '\'' || c == '"')
+				{
+					quote = c;
+				}
+				sb.append(c);
+			}
+		}
+		
+		int end = sb.length();
+		if(end > 0 && sb.charAt(end - 1) == ';')
+		{
+			end--;
+			if(end > 0 && sb.charAt(end - 1) == ' ')
+			{
+				end--;
+			}
+			sb.setLength(end);
+		}
+		return sb.toString();
+	}
+	
+	
+	
+	private static final class CacheEntry
+	{
+		final int	rowCount;
+		final long	expires;
+		
+		
+		CacheEntry(int rowCount, long expires)
+		{
+			this.rowCount = rowCount;
+			this.expires = expires;
+		}
+	}
+}
@@ -17,13 +17,46 @@
  */
 package xdev.db.db2.jdbc;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import com.xdev.jadoth.sqlengine.dbms.standard.StandardRetrospectionAccessor;
 import com.xdev.jadoth.sqlengine.exceptions.SQLEngineException;
 import com.xdev.jadoth.sqlengine.internal.tables.SqlIndex;
+import com.xdev.jadoth.sqlengine.internal.tables.SqlIndex.INDEXTYPE;
 import com.xdev.jadoth.sqlengine.internal.tables.SqlTableIdentity;
 
 public class DB2RetrospectionAccessor extends StandardRetrospectionAccessor<DB2Dbms>
 {
+	// /////////////////////////////////////////////////////////////////////////
+	// constants //
+	// ///////////////////
+	
+	/** Schema condition, the current schema is used if no schema is bound. */
+	protected static final String	TABLE_CONDITION			= "TABSCHEMA = COALESCE(CAST(? AS VARCHAR(128)), CURRENT SCHEMA) AND TABNAME = ?";
+	
+	protected static final String	SELECT_SYSCAT_COLUMNS	= "SELECT COLNAME AS COLUMN_NAME, TYPENAME AS DATA_TYPE, "
+			+ "LENGTH AS CHARACTER_MAXIMUM_LENGTH, SCALE AS NUMERIC_SCALE, "
+			+ "NULLS AS IS_NULLABLE, DEFAULT AS COLUMN_DEFAULT, "
+			+ "IDENTITY AS IS_IDENTITY, COLNO AS ORDINAL_POSITION "
+			+ "FROM SYSCAT.COLUMNS WHERE " + TABLE_CONDITION
+			+ " ORDER BY COLNO FOR READ ONLY";
+	
+	protected static final String	SELECT_SYSCAT_INDICES	= "SELECT I.INDNAME AS INDEX_NAME, I.UNIQUERULE AS UNIQUE_RULE, "
+			+ "U.COLNAME AS COLUMN_NAME FROM SYSCAT.INDEXES I "
+			+ "JOIN SYSCAT.INDEXCOLUSE U ON U.INDSCHEMA = I.INDSCHEMA AND U.INDNAME = I.INDNAME "
+			+ "WHERE I.TABSCHEMA = COALESCE(CAST(? AS VARCHAR(128)), CURRENT SCHEMA) AND I.TABNAME = ?"
+			+ " ORDER BY I.INDNAME, U.COLSEQ FOR READ ONLY";
+	
+	private final Map<SqlTableIdentity, SqlIndex[]>	indexCache				= new ConcurrentHashMap<SqlTableIdentity, SqlIndex[]>();
+	
 	
 	/**
 	 * @param dbmsadaptor
@@ -43,7 +76,7 @@ public class DB2RetrospectionAccessor extends StandardRetrospectionAccessor<DB2D
 	@Override
 	public String createSelect_INFORMATION_SCHEMA_COLUMNS(final SqlTableIdentity table)
 	{
-		throw new RuntimeException("DB2 Retrospection not implemented yet!");
+		return bindTable(SELECT_SYSCAT_COLUMNS,table);
 	}
 	
 	
@@ -55,11 +88,15 @@ public class DB2RetrospectionAccessor extends StandardRetrospectionAccessor<DB2D
 	@Override
 	public String createSelect_INFORMATION_SCHEMA_INDICES(final SqlTableIdentity table)
 	{
-		throw new RuntimeException("DB2 Retrospection not implemented yet!");
+		return bindTable(SELECT_SYSCAT_INDICES,table);
 	}
 	
 	
 	/**
+	 * Loads the indices of <code>table</code> with one prepared statement.
+	 * The result is cached per table, use {@link #clearIndexCache()} after
+	 * changing indices.
+	 *
 	 * @param table
 	 * @return
 	 * @throws SQLEngineException
@@ -68,7 +105,159 @@ public class DB2RetrospectionAccessor extends StandardRetrospectionAccessor<DB2D
 	@Override
 	public SqlIndex[] loadIndices(final SqlTableIdentity table) throws SQLEngineException
 	{
-		throw new RuntimeException("DB2 Retrospection not implemented yet!");
+		SqlIndex[] indices = this.indexCache.get(table);
+		if(indices == null)
+		{
+			indices = queryIndices(table);
+			this.indexCache.put(table,indices);
+		}
+		return indices.clone();
+	}
+	
+	
+	/**
+	 * Removes all cached indices.
+	 */
+	public void clearIndexCache()
+	{
+		this.indexCache.clear();
+	}
+	
+	
+	/**
+	 * Removes the cached indices of <code>table</code>.
+	 *
+	 * @param table
+	 *            the table
+	 */
+	public void clearIndexCache(final SqlTableIdentity table)
+	{
+		this.indexCache.remove(table);
+	}
+	
+	
+	protected SqlIndex[] queryIndices(final SqlTableIdentity table) throws SQLEngineException
+	{
+		final DB2JDBCDataSource dataSource = this.getDbmsAdaptor().getDataSource();
+		if(dataSource == null)
+		{
+			throw new SQLEngineException("No data source assigned to the DB2 adaptor");
+		}
+		
+		final Map<String, List<String>> columns = new LinkedHashMap<String, List<String>>();
+		final Map<String, INDEXTYPE> types = new LinkedHashMap<String, INDEXTYPE>();
+		
+		try
+		{
+			final Connection connection = dataSource.getConnectionProvider().getConnection();
+			try
+			{
+				final PreparedStatement statement = connection.prepareStatement(SELECT_SYSCAT_INDICES);
+				try
+				{
+					statement.setString(1,table.sql().schema);
+					statement.setString(2,table.sql().name);
+					final ResultSet rs = statement.executeQuery();
+					try
+					{
+						while(rs.next())
+						{
+							final String name = rs.getString(1);
+							List<String> indexColumns = columns.get(name);
+							if(indexColumns == null)
+							{
+								indexColumns = new ArrayList<String>();
+								columns.put(name,indexColumns);
+								types.put(name,toIndexType(rs.getString(2)));
+							}
+							indexColumns.add(rs.getString(3));
+						}
+					}
+					finally
+					{
+						rs.close();
+					}
+				}
+				finally
+				{
+					statement.close();
+				}
+			}
+			finally
+			{
+				connection.close();
+			}
+		}
+		catch(final SQLException e)
+		{
+			throw new SQLEngineException(e);
+		}
+		
+		final SqlIndex[] indices = new SqlIndex[columns.size()];
+		int i = 0;
+		for(final Map.Entry<String, List<String>> entry : columns.entrySet())
+		{
+			final List<String> indexColumns = entry.getValue();
+			indices[i++] = new SqlIndex(entry.getKey(),table,types.get(entry.getKey()),
+					indexColumns.toArray(new Object[indexColumns.size()]));
+		}
+		return indices;
+	}
+	
+	
+	private static INDEXTYPE toIndexType(final String uniqueRule)
+	{
+		if("P".equals(uniqueRule))
+		{
+			return INDEXTYPE.PRIMARYKEY;
+		}
+		if("U".equals(uniqueRule))
+		{
+			return INDEXTYPE.UNIQUE;
+		}
+		return INDEXTYPE.NORMAL;
 	}
 	
+	
+	/**
+	 * Replaces the two parameter markers of {@link #TABLE_CONDITION} with the
+	 * schema and the name of <code>table</code>.
+	 */
+	private static String bindTable(final String sql, final SqlTableIdentity table)
+	{
+		final String schema = table.sql().schema;
+		final int schemaIndex = sql.indexOf('?');
+		final int nameIndex = sql.indexOf('?',schemaIndex + 1);
+		
+		final StringBuilder sb = new StringBuilder(sql.length() + 64);
+		sb.append(sql,0,schemaIndex);
+		if(schema == null)
+		{
+			sb.append("NULL");
+		}
+		else
+		{
+			appendLiteral(sb,schema);
+		}
+		sb.append(sql,schemaIndex + 1,nameIndex);
+		appendLiteral(sb,table.sql().name);
+		sb.append(sql,nameIndex + 1,sql.length());
+		return sb.toString();
+	}
+	
+	
+	private static void appendLiteral(final StringBuilder sb, final String value)
+	{
+		sb.append('\'');
+		for(int i = 0, length = value.length(); i < length; i++)
+		{
+			final char c = value.charAt(i);
+			if(c == '\'')
+			{
+				sb.append('\'');
+			}
+			sb.append(c);
+		}
+		sb.append('\'');
+	}
 }
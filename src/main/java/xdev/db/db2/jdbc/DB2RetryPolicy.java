@@ -0,0 +1,181 @@
+/*
+ * SqlEngine Database Adapter DB2 - XAPI SqlEngine Database Adapter for DB2
+ * Copyright © 2003 XDEV Software (https://xdev.software)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package xdev.db.db2.jdbc;
+
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import xdev.db.db2.jdbc.DB2SQLEngineException.Category;
+
+
+/**
+ * Repeats a unit of work which failed with a retryable error, see
+ * {@link Category#isRetryable()}, after a jittered exponential backoff.
+ * <p>
+ * A unit of work is repeated only if it had no effect: if it failed before
+ * the commit, its transaction is rolled back. A failed commit may have
+ * succeeded on the server, so the work is repeated after a failed commit
+ * only if it is declared idempotent.
+ *
+ * @see DB2JDBCDataSource#setRetryPolicy(DB2RetryPolicy)
+ * @see DB2JDBCConnection#execute(Work, boolean)
+ */
+public class DB2RetryPolicy
+{
+	/**
+	 * A unit of work which is executed in one transaction.
+	 */
+	public static interface Work<T>
+	{
+		/**
+		 * @param connection
+		 *            a connection which is not in auto-commit mode, the
+		 *            transaction is committed by the caller
+		 * @return the result
+		 * @throws SQLException
+		 *             if a database error occurs
+		 */
+		public T execute(Connection connection) throws SQLException;
+	}
+	
+	private final int				maxAttempts;
+	private final long				initialBackoff;
+	private final long				maxBackoff;
+	
+	private final AtomicLongArray	failures	= new AtomicLongArray(Category.values().length);
+	private final AtomicLongArray	retries		= new AtomicLongArray(Category.values().length);
+	
+	
+	/**
+	 * Creates a policy with 3 attempts and a backoff between 50 and 2000
+	 * milliseconds.
+	 */
+	public DB2RetryPolicy()
+	{
+		this(3,50,2000);
+	}
+	
+	
+	/**
+	 * @param maxAttempts
+	 *            the maximum number of executions of a unit of work
+	 * @param initialBackoff
+	 *            the upper bound of the first backoff in milliseconds
+	 * @param maxBackoff
+	 *            the upper bound of all backoffs in milliseconds
+	 */
+	public DB2RetryPolicy(int maxAttempts, long initialBackoff, long maxBackoff)
+	{
+		this.maxAttempts = Math.max(1,maxAttempts);
+		this.initialBackoff = Math.max(1,initialBackoff);
+		this.maxBackoff = Math.max(this.initialBackoff,maxBackoff);
+	}
+	
+	
+	/**
+	 * @return the maximum number of executions of a unit of work
+	 */
+	public int getMaxAttempts()
+	{
+		return maxAttempts;
+	}
+	
+	
+	/**
+	 * Counts the failure and decides whether the work is executed again. If
+	 * so, the current thread sleeps for the backoff before this method
+	 * returns.
+	 * 
+	 * @param failure
+	 *            the classified error
+	 * @param attempt
+	 *            the number of the failed execution, starting with 1
+	 * @param repeatable
+	 *            <code>true</code> if executing the work again cannot apply
+	 *            it twice
+	 * @return <code>true</code> if the work should be executed again
+	 */
+	public boolean retry(DB2SQLEngineException failure, int attempt, boolean repeatable)
+	{
+		Category category = failure.getCategory();
+		failures.incrementAndGet(category.ordinal());
+		
+		if(!category.isRetryable() || !repeatable || attempt >= maxAttempts)
+		{
+			return false;
+		}
+		
+		try
+		{
+			Thread.sleep(getBackoff(attempt));
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		
+		retries.incrementAndGet(category.ordinal());
+		return true;
+	}
+	
+	
+	/**
+	 * Returns a random backoff between 0 and the exponentially growing bound
+	 * <code>initialBackoff * 2^(attempt-1)</code>, at most
+	 * <code>maxBackoff</code>. The randomization spreads competing retries of
+	 * a deadlock.
+	 * 
+	 * @param attempt
+	 *            the number of the failed execution, starting with 1
+	 * @return the backoff in milliseconds
+	 */
+	public long getBackoff(int attempt)
+	{
+		int shift = Math.max(0,attempt - 1);
+		long bound = shift < Long.numberOfLeadingZeros(initialBackoff) - 1 ? Math.min(
+				maxBackoff,initialBackoff << shift) : maxBackoff;
+		return ThreadLocalRandom.current().nextLong(bound);
+	}
+	
+	
+	/**
+	 * @param category
+	 *            the error category
+	 * @return the number of failures of the category
+	 */
+	public long getFailureCount(Category category)
+	{
+		return failures.get(category.ordinal());
+	}
+	
+	
+	/**
+	 * @param category
+	 *            the error category
+	 * @return the number of repeated executions after a failure of the
+	 *         category
+	 */
+	public long getRetryCount(Category category)
+	{
+		return retries.get(category.ordinal());
+	}
+}
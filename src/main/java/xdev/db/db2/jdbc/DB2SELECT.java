@@ -0,0 +1,134 @@
+/*
+ * SqlEngine Database Adapter DB2 - XAPI SqlEngine Database Adapter for DB2
+ * Copyright © 2003 XDEV Software (https://xdev.software)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package xdev.db.db2.jdbc;
+
+
+import xdev.db.sql.SELECT;
+
+
+/**
+ * SELECT with the DB2 statement clauses <code>FOR READ ONLY</code>,
+ * <code>OPTIMIZE FOR n ROWS</code> and <code>WITH UR|CS|RS|RR</code>, which
+ * {@link DB2DMLAssembler} appends to the top-level statement.
+ * <p>
+ * If a row limit is set and {@link #OPTIMIZE_FOR_ROWS(int)} is not,
+ * <code>OPTIMIZE FOR</code> is derived from
+ * {@link #getFetchFirstRowCount()}.
+ */
+public class DB2SELECT extends SELECT
+{
+	/**
+	 * Isolation levels of the <code>WITH</code> clause.
+	 */
+	public static enum Isolation
+	{
+		/**
+		 * Uncommitted read, no row locks are taken or waited for.
+		 */
+		UR,
+		
+		/**
+		 * Cursor stability.
+		 */
+		CS,
+		
+		/**
+		 * Read stability.
+		 */
+		RS,
+		
+		/**
+		 * Repeatable read.
+		 */
+		RR
+	}
+	
+	private Isolation	isolation;
+	private boolean		readOnly;
+	private Integer		optimizeForRows;
+	
+	
+	/**
+	 * Sets the isolation level of this statement.
+	 * 
+	 * @param isolation
+	 *            the isolation level, <code>null</code> for the one of the
+	 *            connection
+	 * @return this
+	 */
+	public DB2SELECT WITH(Isolation isolation)
+	{
+		this.isolation = isolation;
+		return this;
+	}
+	
+	
+	/**
+	 * Declares the cursor read only, which enables block fetch.
+	 * 
+	 * @return this
+	 */
+	public DB2SELECT FOR_READ_ONLY()
+	{
+		this.readOnly = true;
+		return this;
+	}
+	
+	
+	/**
+	 * Lets the optimizer prefer a plan which returns the first
+	 * <code>rows</code> rows fast.
+	 * 
+	 * @param rows
+	 *            the expected number of fetched rows
+	 * @return this
+	 */
+	public DB2SELECT OPTIMIZE_FOR_ROWS(int rows)
+	{
+		this.optimizeForRows = rows;
+		return this;
+	}
+	
+	
+	/**
+	 * @return the isolation level or <code>null</code>
+	 */
+	public Isolation getIsolation()
+	{
+		return isolation;
+	}
+	
+	
+	/**
+	 * @return <code>true</code> if <code>FOR READ ONLY</code> is appended
+	 */
+	public boolean isReadOnly()
+	{
+		return readOnly;
+	}
+	
+	
+	/**
+	 * @return the explicit row count of <code>OPTIMIZE FOR</code> or
+	 *         <code>null</code>
+	 */
+	public Integer getOptimizeForRows()
+	{
+		return optimizeForRows;
+	}
+}
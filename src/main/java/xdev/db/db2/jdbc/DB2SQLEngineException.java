@@ -0,0 +1,181 @@
+/*
+ * SqlEngine Database Adapter DB2 - XAPI SqlEngine Database Adapter for DB2
+ * Copyright © 2003 XDEV Software (https://xdev.software)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package xdev.db.db2.jdbc;
+
+
+import java.sql.SQLException;
+
+import com.xdev.jadoth.sqlengine.exceptions.SQLEngineException;
+
+
+/**
+ * {@link SQLEngineException} with the SQLCODE, SQLSTATE and reason code of
+ * the DB2 error and its {@link Category}.
+ *
+ * @see DB2ExceptionParser
+ */
+public class DB2SQLEngineException extends SQLEngineException
+{
+	/**
+	 * Classes of DB2 errors.
+	 */
+	public static enum Category
+	{
+		/**
+		 * Deadlock, SQLCODE -911 or -913 with reason code 2, SQLSTATE 40001.
+		 */
+		DEADLOCK(true),
+		
+		/**
+		 * Lock timeout, SQLCODE -911 or -913 with reason code 68, SQLSTATE
+		 * 57033.
+		 */
+		LOCK_TIMEOUT(true),
+		
+		/**
+		 * The connection was rerouted to another member or server, SQLCODE
+		 * -4498 or -30108, SQLSTATE 08506.
+		 */
+		CLIENT_REROUTE(true),
+		
+		/**
+		 * The connection failed, SQLSTATE class 08.
+		 */
+		CONNECTION(false),
+		
+		/**
+		 * A constraint was violated, SQLSTATE class 23.
+		 */
+		CONSTRAINT(false),
+		
+		/**
+		 * Any other error.
+		 */
+		OTHER(false);
+		
+		private final boolean	retryable;
+		
+		
+		private Category(boolean retryable)
+		{
+			this.retryable = retryable;
+		}
+		
+		
+		/**
+		 * @return <code>true</code> if the same work may succeed when it is
+		 *         executed again
+		 */
+		public boolean isRetryable()
+		{
+			return retryable;
+		}
+	}
+	
+	private final Category	category;
+	private final int		sqlCode;
+	private final String	sqlState;
+	private final int		reasonCode;
+	
+	
+	/**
+	 * @param cause
+	 *            the exception of the driver
+	 * @param category
+	 *            the class of the error
+	 * @param sqlCode
+	 *            the SQLCODE
+	 * @param sqlState
+	 *            the SQLSTATE, may be <code>null</code>
+	 * @param reasonCode
+	 *            the reason code, 0 if unknown
+	 */
+	public DB2SQLEngineException(SQLException cause, Category category, int sqlCode,
+			String sqlState, int reasonCode)
+	{
+		super(cause.getMessage(),cause);
+		this.category = category;
+		this.sqlCode = sqlCode;
+		this.sqlState = sqlState;
+		this.reasonCode = reasonCode;
+	}
+	
+	
+	/**
+	 * @return the class of the error
+	 */
+	public Category getCategory()
+	{
+		return category;
+	}
+	
+	
+	/**
+	 * @return <code>true</code> if the category is retryable
+	 */
+	public boolean isRetryable()
+	{
+		return category.isRetryable();
+	}
+	
+	
+	/**
+	 * @return <code>true</code> if the server rolled back the whole unit of
+	 *         work, not only the failed statement
+	 */
+	public boolean isTransactionRolledBack()
+	{
+		switch(sqlCode)
+		{
+			case -911:
+			case -4498:
+			case -30108:
+				return true;
+			
+			default:
+				return "40001".equals(sqlState) || "40003".equals(sqlState);
+		}
+	}
+	
+	
+	/**
+	 * @return the SQLCODE
+	 */
+	public int getSqlCode()
+	{
+		return sqlCode;
+	}
+	
+	
+	/**
+	 * @return the SQLSTATE or <code>null</code>
+	 */
+	public String getSqlState()
+	{
+		return sqlState;
+	}
+	
+	
+	/**
+	 * @return the reason code or 0 if unknown
+	 */
+	public int getReasonCode()
+	{
+		return reasonCode;
+	}
+}
@@ -0,0 +1,233 @@
+/*
+ * SqlEngine Database Adapter DB2 - XAPI SqlEngine Database Adapter for DB2
+ * Copyright © 2003 XDEV Software (https://xdev.software)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package xdev.db.db2.jdbc;
+
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * Collects the schema changes of {@link DB2JDBCMetaData}, either of one call
+ * or of one connection after {@link DB2JDBCConnection#beginSchemaChanges()}.
+ * <p>
+ * The column changes of a table are combined into one multi-clause
+ * <code>ALTER TABLE</code>, which is executed before an index of the table is
+ * changed. A column can only be altered once per statement, a further change
+ * of the column starts a new statement. If one of the clauses puts the table
+ * into reorg-pending state the table is reorganized with
+ * <code>SYSPROC.ADMIN_CMD</code> once, or before it is altered again. Index changes
+ * are executed as one JDBC batch. All changes of a table are executed when
+ * the changes of another table begin, the changes of the last table by
+ * {@link #flush(Connection)}.
+ */
+class DB2SchemaChangeBatch
+{
+	private String				currentTable;
+	private String				table;
+	private final List<String>	alterClauses	= new ArrayList<String>();
+	private final Set<String>	alteredColumns	= new HashSet<String>();
+	private boolean				reorgTable;
+	private final Set<String>	reorgPending	= new LinkedHashSet<String>();
+	private final List<String>	indexStatements	= new ArrayList<String>();
+	
+	
+	/**
+	 * @return <code>true</code> if no changes are pending
+	 */
+	boolean isEmpty()
+	{
+		return table == null && reorgPending.isEmpty() && indexStatements.isEmpty();
+	}
+	
+	
+	/**
+	 * Executes a statement of <code>qualifiedTable</code> which is not
+	 * batched, e.g. <code>CREATE TABLE</code>, after the pending column
+	 * changes.
+	 */
+	void execute(Connection connection, String qualifiedTable, String sql) throws SQLException
+	{
+		beginTable(connection,qualifiedTable);
+		flushTable(connection);
+		executeStatement(connection,sql);
+	}
+	
+	
+	/**
+	 * Adds a clause to the <code>ALTER TABLE</code> of <code>qualifiedTable</code>.
+	 * 
+	 * @param column
+	 *            the name of the changed column
+	 * @param reorg
+	 *            <code>true</code> if the clause is a reorg-recommended
+	 *            operation
+	 */
+	void alterTable(Connection connection, String qualifiedTable, String column, String clause,
+			boolean reorg) throws SQLException
+	{
+		beginTable(connection,qualifiedTable);
+		if(!alteredColumns.add(column))
+		{
+			flushTable(connection);
+			alteredColumns.add(column);
+		}
+		if(table == null)
+		{
+			table = qualifiedTable;
+		}
+		alterClauses.add(clause);
+		reorgTable |= reorg;
+	}
+	
+	
+	/**
+	 * Queues an index statement, the column changes of the table are executed
+	 * first.
+	 */
+	void changeIndex(Connection connection, String qualifiedTable, String sql)
+			throws SQLException
+	{
+		beginTable(connection,qualifiedTable);
+		flushTable(connection);
+		indexStatements.add(sql);
+	}
+	
+	
+	/**
+	 * Executes all pending changes.
+	 */
+	void flush(Connection connection) throws SQLException
+	{
+		currentTable = null;
+		flushTable(connection);
+		
+		try
+		{
+			for(String qualifiedTable : reorgPending)
+			{
+				reorg(connection,qualifiedTable);
+			}
+		}
+		finally
+		{
+			reorgPending.clear();
+		}
+		
+		if(indexStatements.isEmpty())
+		{
+			return;
+		}
+		
+		try
+		{
+			Statement statement = connection.createStatement();
+			try
+			{
+				for(String sql : indexStatements)
+				{
+					statement.addBatch(sql);
+				}
+				statement.executeBatch();
+			}
+			finally
+			{
+				statement.close();
+			}
+		}
+		finally
+		{
+			indexStatements.clear();
+		}
+	}
+	
+	
+	/**
+	 * Executes the pending changes of the previous table when the changes of
+	 * another table begin.
+	 */
+	private void beginTable(Connection connection, String qualifiedTable) throws SQLException
+	{
+		if(currentTable != null && !currentTable.equals(qualifiedTable))
+		{
+			flush(connection);
+		}
+		currentTable = qualifiedTable;
+	}
+	
+	
+	private void flushTable(Connection connection) throws SQLException
+	{
+		if(table == null)
+		{
+			return;
+		}
+		
+		StringBuilder sb = new StringBuilder("ALTER TABLE ");
+		sb.append(table);
+		for(String clause : alterClauses)
+		{
+			sb.append(' ');
+			sb.append(clause);
+		}
+		
+		String qualifiedTable = table;
+		boolean reorg = reorgTable;
+		table = null;
+		alterClauses.clear();
+		alteredColumns.clear();
+		reorgTable = false;
+		
+		if(reorgPending.remove(qualifiedTable))
+		{
+			reorg(connection,qualifiedTable);
+		}
+		executeStatement(connection,sb.toString());
+		if(reorg)
+		{
+			reorgPending.add(qualifiedTable);
+		}
+	}
+	
+	
+	private void reorg(Connection connection, String qualifiedTable) throws SQLException
+	{
+		executeStatement(connection,"CALL SYSPROC.ADMIN_CMD('REORG TABLE "
+				+ qualifiedTable.replace("'","''") + "')");
+	}
+	
+	
+	private void executeStatement(Connection connection, String sql) throws SQLException
+	{
+		Statement statement = connection.createStatement();
+		try
+		{
+			statement.execute(sql);
+		}
+		finally
+		{
+			statement.close();
+		}
+	}
+}
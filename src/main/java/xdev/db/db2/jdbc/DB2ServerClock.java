@@ -0,0 +1,275 @@
+/*
+ * SqlEngine Database Adapter DB2 - XAPI SqlEngine Database Adapter for DB2
+ * Copyright © 2003 XDEV Software (https://xdev.software)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package xdev.db.db2.jdbc;
+
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Server time computed locally from a measured clock offset.
+ * <p>
+ * A synchronization reads <code>CURRENT TIMESTAMP</code> a few times and
+ * keeps the sample with the shortest round trip, whose midpoint is the best
+ * estimate of the moment the server read its clock. The server time is then
+ * advanced with the monotonic {@link System#nanoTime()}, so changes of the
+ * client's wall clock have no effect.
+ * <p>
+ * The clock is synchronized again after the sync interval. If a
+ * synchronization shows that the prediction was off by more than its
+ * accuracy bound, the interval is halved until the prediction holds again.
+ *
+ * @see DB2JDBCDataSource#setServerClockSyncInterval(long)
+ */
+public class DB2ServerClock
+{
+	/**
+	 * Assumed maximum drift between the client and the server clock, 200
+	 * ppm.
+	 */
+	public static final double	MAX_DRIFT				= 0.0002;
+	
+	static final String			SELECT_SERVER_TIME		= "SELECT CURRENT TIMESTAMP FROM SYSIBM.SYSDUMMY1";
+	
+	private static final int	SAMPLES					= 3;
+	private static final long	MIN_SYNC_INTERVAL		= 1000;
+	
+	private final long			syncInterval;
+	private volatile long		effectiveSyncInterval;
+	private volatile Sync		sync;
+	private volatile long		syncCount;
+	private volatile long		driftCount;
+	
+	
+	/**
+	 * @param syncInterval
+	 *            the milliseconds after which the clock is synchronized again
+	 */
+	public DB2ServerClock(long syncInterval)
+	{
+		this.syncInterval = Math.max(MIN_SYNC_INTERVAL,syncInterval);
+		this.effectiveSyncInterval = this.syncInterval;
+	}
+	
+	
+	/**
+	 * @return the configured sync interval in milliseconds
+	 */
+	public long getSyncInterval()
+	{
+		return syncInterval;
+	}
+	
+	
+	/**
+	 * @return the current sync interval in milliseconds, shorter than
+	 *         {@link #getSyncInterval()} after a drift was detected
+	 */
+	public long getEffectiveSyncInterval()
+	{
+		return effectiveSyncInterval;
+	}
+	
+	
+	/**
+	 * @return <code>true</code> if the clock was never synchronized or the
+	 *         sync interval has elapsed
+	 */
+	public boolean needsSync()
+	{
+		Sync sync = this.sync;
+		return sync == null
+				|| System.nanoTime() - sync.nanos >= TimeUnit.MILLISECONDS
+						.toNanos(effectiveSyncInterval);
+	}
+	
+	
+	/**
+	 * Measures the offset to the server clock.
+	 * 
+	 * @param connection
+	 *            a connection to the server, which is not closed
+	 * @throws SQLException
+	 *             if the server time cannot be read
+	 */
+	public synchronized void sync(Connection connection) throws SQLException
+	{
+		long bestRoundTrip = Long.MAX_VALUE;
+		long bestMillis = 0;
+		long bestNanos = 0;
+		
+		PreparedStatement statement = connection.prepareStatement(SELECT_SERVER_TIME);
+		try
+		{
+			for(int i = 0; i < SAMPLES; i++)
+			{
+				long start = System.nanoTime();
+				ResultSet resultSet = statement.executeQuery();
+				try
+				{
+					resultSet.next();
+					Timestamp timestamp = resultSet.getTimestamp(1);
+					long roundTrip = System.nanoTime() - start;
+					if(roundTrip < bestRoundTrip)
+					{
+						bestRoundTrip = roundTrip;
+						bestMillis = timestamp.getTime();
+						bestNanos = start + roundTrip / 2;
+					}
+				}
+				finally
+				{
+					resultSet.close();
+				}
+			}
+		}
+		finally
+		{
+			statement.close();
+		}
+		
+		Sync next = new Sync(bestMillis,bestNanos,bestRoundTrip / 2,
+				System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+						- bestNanos));
+		
+		Sync previous = this.sync;
+		if(previous != null)
+		{
+			long error = Math.abs(bestMillis - previous.millisAt(bestNanos));
+			if(error > previous.accuracyAt(bestNanos) + next.accuracyAt(bestNanos))
+			{
+				driftCount++;
+				effectiveSyncInterval = Math.max(MIN_SYNC_INTERVAL,effectiveSyncInterval / 2);
+			}
+			else
+			{
+				effectiveSyncInterval = syncInterval;
+			}
+		}
+		
+		this.sync = next;
+		syncCount++;
+	}
+	
+	
+	/**
+	 * @return the estimated server time
+	 * @throws IllegalStateException
+	 *             if the clock was never synchronized
+	 */
+	public Date currentTime()
+	{
+		return new Date(getSync().millisAt(System.nanoTime()));
+	}
+	
+	
+	/**
+	 * Returns the maximum error of {@link #currentTime()}: half the round
+	 * trip of the last synchronization plus the possible drift since then.
+	 * 
+	 * @return the accuracy bound in milliseconds
+	 * @throws IllegalStateException
+	 *             if the clock was never synchronized
+	 */
+	public long getAccuracy()
+	{
+		return getSync().accuracyAt(System.nanoTime());
+	}
+	
+	
+	/**
+	 * @return the server time minus the client wall clock time in
+	 *         milliseconds, as of the last synchronization
+	 * @throws IllegalStateException
+	 *             if the clock was never synchronized
+	 */
+	public long getOffset()
+	{
+		Sync sync = getSync();
+		return sync.millis - sync.wallMillis;
+	}
+	
+	
+	/**
+	 * @return the number of synchronizations
+	 */
+	public long getSyncCount()
+	{
+		return syncCount;
+	}
+	
+	
+	/**
+	 * @return the number of synchronizations which detected a drift beyond
+	 *         the accuracy bound
+	 */
+	public long getDriftCount()
+	{
+		return driftCount;
+	}
+	
+	
+	private Sync getSync()
+	{
+		Sync sync = this.sync;
+		if(sync == null)
+		{
+			throw new IllegalStateException("Server clock not synchronized");
+		}
+		return sync;
+	}
+	
+	
+	
+	private static final class Sync
+	{
+		final long	millis;
+		final long	nanos;
+		final long	halfRoundTrip;
+		final long	wallMillis;
+		
+		
+		Sync(long millis, long nanos, long halfRoundTrip, long wallMillis)
+		{
+			this.millis = millis;
+			this.nanos = nanos;
+			this.halfRoundTrip = halfRoundTrip;
+			this.wallMillis = wallMillis;
+		}
+		
+		
+		long millisAt(long nanoTime)
+		{
+			return millis + TimeUnit.NANOSECONDS.toMillis(nanoTime - nanos);
+		}
+		
+		
+		long accuracyAt(long nanoTime)
+		{
+			long elapsed = Math.max(0,nanoTime - nanos);
+			// 1 ms for the resolution of the millisecond arithmetic
+			return TimeUnit.NANOSECONDS.toMillis(halfRoundTrip + (long)(elapsed * MAX_DRIFT)) + 1;
+		}
+	}
+}
@@ -0,0 +1,352 @@
+/*
+ * SqlEngine Database Adapter DB2 - XAPI SqlEngine Database Adapter for DB2
+ * Copyright © 2003 XDEV Software (https://xdev.software)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package xdev.db.db2.jdbc;
+
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Periodic pull of the server-side metrics of <code>MON_GET_CONNECTION</code>
+ * and <code>MON_GET_PKG_CACHE_STMT</code>, to correlate them with the client
+ * timings of {@link DB2Instrumentation}.
+ * <p>
+ * The connection metrics are summed over the connections of the current
+ * user. The statement metrics are the most expensive statements of the
+ * package cache, with the same {@link DB2Instrumentation#toShape(String)
+ * shape} as on the client. The monitor functions require the
+ * <code>EXECUTE</code> privilege on them.
+ *
+ * @see DB2JDBCDataSource#setServerMetricsInterval(long)
+ */
+public class DB2ServerMetrics
+{
+	static final String						SELECT_CONNECTION_METRICS	= "SELECT COUNT(*) AS CONNECTIONS, "
+																				+ "SUM(TOTAL_RQST_TIME) AS TOTAL_RQST_TIME, "
+																				+ "SUM(TOTAL_WAIT_TIME) AS TOTAL_WAIT_TIME, "
+																				+ "SUM(LOCK_WAIT_TIME) AS LOCK_WAIT_TIME, "
+																				+ "SUM(TOTAL_CPU_TIME) AS TOTAL_CPU_TIME, "
+																				+ "SUM(ROWS_READ) AS ROWS_READ, "
+																				+ "SUM(ROWS_RETURNED) AS ROWS_RETURNED, "
+																				+ "SUM(DEADLOCKS) AS DEADLOCKS, "
+																				+ "SUM(LOCK_TIMEOUTS) AS LOCK_TIMEOUTS "
+																				+ "FROM TABLE(MON_GET_CONNECTION(NULL, -2)) "
+																				+ "WHERE SESSION_AUTH_ID = SESSION_USER";
+	
+	static final String						SELECT_STATEMENT_METRICS	= "SELECT STMT_TEXT, NUM_EXECUTIONS, "
+																				+ "STMT_EXEC_TIME, TOTAL_CPU_TIME, LOCK_WAIT_TIME, "
+																				+ "ROWS_READ, ROWS_RETURNED "
+																				+ "FROM TABLE(MON_GET_PKG_CACHE_STMT('D', NULL, NULL, -2)) "
+																				+ "ORDER BY STMT_EXEC_TIME DESC "
+																				+ "FETCH FIRST 50 ROWS ONLY";
+	
+	private final DB2JDBCDataSource			dataSource;
+	private final ScheduledExecutorService	executor;
+	private volatile Map<String, Long>		connectionMetrics			= Collections
+																				.emptyMap();
+	private volatile List<StatementMetrics>	statementMetrics			= Collections
+																				.emptyList();
+	private volatile long					lastRefresh;
+	private volatile Exception				lastError;
+	
+	
+	/**
+	 * Starts the periodic refresh.
+	 * 
+	 * @param dataSource
+	 *            the data source
+	 * @param interval
+	 *            the milliseconds between two refreshes
+	 */
+	public DB2ServerMetrics(DB2JDBCDataSource dataSource, long interval)
+	{
+		this.dataSource = dataSource;
+		this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable,"DB2-ServerMetrics");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.scheduleWithFixedDelay(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					refresh();
+				}
+				catch(SQLException e)
+				{
+					// kept as the last error, the next refresh tries again
+				}
+				catch(RuntimeException e)
+				{
+					// kept as the last error, an uncaught exception would
+					// cancel the periodic refresh
+				}
+			}
+		},0,Math.max(1000,interval),TimeUnit.MILLISECONDS);
+	}
+	
+	
+	/**
+	 * Reads the metrics now.
+	 * 
+	 * @throws SQLException
+	 *             if the monitor functions cannot be queried
+	 */
+	public void refresh() throws SQLException
+	{
+		try
+		{
+			Connection connection = dataSource.getConnectionProvider().getConnection();
+			try
+			{
+				Statement statement = connection.createStatement();
+				try
+				{
+					connectionMetrics = readConnectionMetrics(statement);
+					statementMetrics = readStatementMetrics(statement);
+				}
+				finally
+				{
+					statement.close();
+				}
+			}
+			finally
+			{
+				connection.close();
+			}
+			lastRefresh = System.currentTimeMillis();
+			lastError = null;
+		}
+		catch(SQLException e)
+		{
+			lastError = e;
+			throw e;
+		}
+		catch(RuntimeException e)
+		{
+			lastError = e;
+			throw e;
+		}
+	}
+	
+	
+	private Map<String, Long> readConnectionMetrics(Statement statement) throws SQLException
+	{
+		Map<String, Long> metrics = new LinkedHashMap<String, Long>();
+		ResultSet resultSet = statement.executeQuery(SELECT_CONNECTION_METRICS);
+		try
+		{
+			if(resultSet.next())
+			{
+				ResultSetMetaData meta = resultSet.getMetaData();
+				for(int i = 1, count = meta.getColumnCount(); i <= count; i++)
+				{
+					metrics.put(meta.getColumnLabel(i),resultSet.getLong(i));
+				}
+			}
+		}
+		finally
+		{
+			resultSet.close();
+		}
+		return Collections.unmodifiableMap(metrics);
+	}
+	
+	
+	private List<StatementMetrics> readStatementMetrics(Statement statement) throws SQLException
+	{
+		List<StatementMetrics> metrics = new ArrayList<StatementMetrics>();
+		ResultSet resultSet = statement.executeQuery(SELECT_STATEMENT_METRICS);
+		try
+		{
+			while(resultSet.next())
+			{
+				metrics.add(new StatementMetrics(DB2Instrumentation.toShape(resultSet
+						.getString(1)),resultSet.getLong(2),resultSet.getLong(3),resultSet
+						.getLong(4),resultSet.getLong(5),resultSet.getLong(6),resultSet.getLong(7)));
+			}
+		}
+		finally
+		{
+			resultSet.close();
+		}
+		return Collections.unmodifiableList(metrics);
+	}
+	
+	
+	/**
+	 * @return the connection metrics by column name of
+	 *         <code>MON_GET_CONNECTION</code>, times in milliseconds except
+	 *         <code>TOTAL_CPU_TIME</code> in microseconds
+	 */
+	public Map<String, Long> getConnectionMetrics()
+	{
+		return connectionMetrics;
+	}
+	
+	
+	/**
+	 * @return the most expensive statements of the package cache
+	 */
+	public List<StatementMetrics> getStatementMetrics()
+	{
+		return statementMetrics;
+	}
+	
+	
+	/**
+	 * @return the time of the last successful refresh in milliseconds, 0 if
+	 *         none succeeded yet
+	 */
+	public long getLastRefresh()
+	{
+		return lastRefresh;
+	}
+	
+	
+	/**
+	 * @return the error of the last refresh or <code>null</code> if it
+	 *         succeeded
+	 */
+	public Exception getLastError()
+	{
+		return lastError;
+	}
+	
+	
+	/**
+	 * Stops the periodic refresh.
+	 */
+	public void close()
+	{
+		executor.shutdownNow();
+	}
+	
+	
+	
+	/**
+	 * Server-side metrics of one statement of the package cache.
+	 */
+	public static final class StatementMetrics
+	{
+		private final String	shape;
+		private final long		executions;
+		private final long		execTime;
+		private final long		cpuTime;
+		private final long		lockWaitTime;
+		private final long		rowsRead;
+		private final long		rowsReturned;
+		
+		
+		StatementMetrics(String shape, long executions, long execTime, long cpuTime,
+				long lockWaitTime, long rowsRead, long rowsReturned)
+		{
+			this.shape = shape;
+			this.executions = executions;
+			this.execTime = execTime;
+			this.cpuTime = cpuTime;
+			this.lockWaitTime = lockWaitTime;
+			this.rowsRead = rowsRead;
+			this.rowsReturned = rowsReturned;
+		}
+		
+		
+		/**
+		 * @return the statement shape
+		 */
+		public String getShape()
+		{
+			return shape;
+		}
+		
+		
+		/**
+		 * @return the number of executions
+		 */
+		public long getExecutionCount()
+		{
+			return executions;
+		}
+		
+		
+		/**
+		 * @return the total execution time in milliseconds
+		 */
+		public long getExecutionMillis()
+		{
+			return execTime;
+		}
+		
+		
+		/**
+		 * @return the total CPU time in microseconds
+		 */
+		public long getCpuMicros()
+		{
+			return cpuTime;
+		}
+		
+		
+		/**
+		 * @return the total lock wait time in milliseconds
+		 */
+		public long getLockWaitMillis()
+		{
+			return lockWaitTime;
+		}
+		
+		
+		/**
+		 * @return the number of rows read by the server
+		 */
+		public long getRowsRead()
+		{
+			return rowsRead;
+		}
+		
+		
+		/**
+		 * @return the number of rows returned to the clients
+		 */
+		public long getRowsReturned()
+		{
+			return rowsReturned;
+		}
+	}
+}
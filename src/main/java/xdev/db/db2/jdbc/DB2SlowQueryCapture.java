@@ -0,0 +1,734 @@
+/*
+ * SqlEngine Database Adapter DB2 - XAPI SqlEngine Database Adapter for DB2
+ * Copyright © 2003 XDEV Software (https://xdev.software)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package xdev.db.db2.jdbc;
+
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * Keeps the statements which took longer than a threshold in a ring buffer
+ * of the last {@link #getCapacity()} entries, together with a summary of
+ * their access plan.
+ * <p>
+ * The access plan is determined with <code>EXPLAIN PLAN</code> by a
+ * background thread, so the thread which executed the statement is not
+ * delayed. A shape which was explained before is not explained again while
+ * its entry is in the buffer. If the background thread falls behind, further
+ * statements are recorded without a plan. <code>EXPLAIN</code> requires the
+ * explain tables, which are created e.g. by
+ * <code>CALL SYSPROC.SYSINSTALLOBJECTS('EXPLAIN', 'C', NULL, NULL)</code> in
+ * the schema <code>SYSTOOLS</code>.
+ *
+ * @see DB2JDBCDataSource#setSlowQueryCapture(long, int)
+ */
+public class DB2SlowQueryCapture
+{
+	/**
+	 * Default number of kept entries.
+	 */
+	public static final int						DEFAULT_CAPACITY	= 100;
+	
+	/**
+	 * Default schema of the explain tables.
+	 */
+	public static final String					DEFAULT_EXPLAIN_SCHEMA	= "SYSTOOLS";
+	
+	private static final int					EXPLAIN_QUEUE_SIZE	= 16;
+	
+	private final DB2JDBCDataSource				dataSource;
+	private final long							threshold;
+	private final AtomicReferenceArray<Entry>	entries;
+	private final AtomicLong					sequence			= new AtomicLong();
+	private final AtomicInteger					queryNo				= new AtomicInteger(
+																			(int)(System.nanoTime() & 0x3fffffff));
+	private final ThreadPoolExecutor			executor;
+	private volatile boolean					explainEnabled		= true;
+	private volatile String						explainSchema		= DEFAULT_EXPLAIN_SCHEMA;
+	
+	
+	/**
+	 * @param dataSource
+	 *            the data source whose connections run <code>EXPLAIN</code>
+	 * @param threshold
+	 *            the minimum duration of a captured statement in milliseconds
+	 * @param capacity
+	 *            the number of kept entries
+	 */
+	public DB2SlowQueryCapture(DB2JDBCDataSource dataSource, long threshold, int capacity)
+	{
+		this.dataSource = dataSource;
+		this.threshold = Math.max(0,threshold);
+		this.entries = new AtomicReferenceArray<Entry>(Math.max(1,capacity));
+		this.executor = new ThreadPoolExecutor(1,1,60,TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(EXPLAIN_QUEUE_SIZE),new ThreadFactory()
+				{
+					@Override
+					public Thread newThread(Runnable runnable)
+					{
+						Thread thread = new Thread(runnable,"DB2-Explain");
+						thread.setDaemon(true);
+						return thread;
+					}
+				},new ThreadPoolExecutor.DiscardPolicy());
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+	
+	
+	/**
+	 * @return the minimum duration of a captured statement in milliseconds
+	 */
+	public long getThreshold()
+	{
+		return threshold;
+	}
+	
+	
+	/**
+	 * @return the number of kept entries
+	 */
+	public int getCapacity()
+	{
+		return entries.length();
+	}
+	
+	
+	/**
+	 * @return <code>true</code> if the access plans are explained, default
+	 *         is <code>true</code>
+	 */
+	public boolean isExplainEnabled()
+	{
+		return explainEnabled;
+	}
+	
+	
+	/**
+	 * @param explainEnabled
+	 *            <code>false</code> to capture the statements only
+	 */
+	public void setExplainEnabled(boolean explainEnabled)
+	{
+		this.explainEnabled = explainEnabled;
+	}
+	
+	
+	/**
+	 * @return the schema of the explain tables
+	 */
+	public String getExplainSchema()
+	{
+		return explainSchema;
+	}
+	
+	
+	/**
+	 * @param explainSchema
+	 *            the schema of the explain tables, default is
+	 *            {@link #DEFAULT_EXPLAIN_SCHEMA}
+	 */
+	public void setExplainSchema(String explainSchema)
+	{
+		this.explainSchema = explainSchema != null ? explainSchema : DEFAULT_EXPLAIN_SCHEMA;
+	}
+	
+	
+	/**
+	 * Captures the statement if it took longer than the threshold.
+	 * 
+	 * @param sql
+	 *            the SQL text
+	 * @param params
+	 *            the parameter values, may be <code>null</code>
+	 * @param nanos
+	 *            the duration in nanoseconds
+	 * @param rows
+	 *            the number of fetched rows, -1 if unknown
+	 * @param failure
+	 *            the exception, <code>null</code> if the statement succeeded
+	 * @return <code>true</code> if the statement was captured
+	 */
+	public boolean statementExecuted(String sql, Object[] params, long nanos, long rows,
+			Throwable failure)
+	{
+		if(TimeUnit.NANOSECONDS.toMillis(nanos) < threshold)
+		{
+			return false;
+		}
+		
+		String shape = DB2Instrumentation.toShape(sql);
+		Entry entry = new Entry(sql,shape,getParameterShape(params),nanos,rows,
+				failure != null ? failure.toString() : null);
+		
+		Entry explained = explainEnabled ? findExplained(shape) : null;
+		long index = sequence.getAndIncrement();
+		entries.set((int)(index % entries.length()),entry);
+		
+		if(explained != null)
+		{
+			entry.plan = explained.plan;
+		}
+		else if(explainEnabled)
+		{
+			final Entry target = entry;
+			executor.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					explain(target);
+				}
+			});
+		}
+		return true;
+	}
+	
+	
+	private Entry findExplained(String shape)
+	{
+		for(int i = 0, length = entries.length(); i < length; i++)
+		{
+			Entry entry = entries.get(i);
+			if(entry != null && entry.plan != null && entry.shape.equals(shape))
+			{
+				return entry;
+			}
+		}
+		return null;
+	}
+	
+	
+	/**
+	 * @return the captured statements, oldest first
+	 */
+	public List<Entry> getEntries()
+	{
+		// each slot is read once, concurrent captures may reorder the entries
+		List<Entry> list = new ArrayList<Entry>(entries.length());
+		long end = sequence.get();
+		for(long index = Math.max(0,end - entries.length()); index < end; index++)
+		{
+			Entry entry = entries.get((int)(index % entries.length()));
+			if(entry != null)
+			{
+				list.add(entry);
+			}
+		}
+		Collections.sort(list,new Comparator<Entry>()
+		{
+			@Override
+			public int compare(Entry e1, Entry e2)
+			{
+				return e1.time < e2.time ? -1 : e1.time > e2.time ? 1 : 0;
+			}
+		});
+		return list;
+	}
+	
+	
+	/**
+	 * Writes the captured statements and their plans, oldest first.
+	 * 
+	 * @param out
+	 *            the target
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	public void dump(Appendable out) throws IOException
+	{
+		for(Entry entry : getEntries())
+		{
+			entry.appendTo(out);
+			out.append('\n');
+		}
+	}
+	
+	
+	/**
+	 * Removes all entries.
+	 */
+	public void clear()
+	{
+		for(int i = 0, length = entries.length(); i < length; i++)
+		{
+			entries.set(i,null);
+		}
+	}
+	
+	
+	/**
+	 * Stops the background thread, pending explains are discarded.
+	 */
+	public void close()
+	{
+		executor.shutdownNow();
+	}
+	
+	
+	private void explain(Entry entry)
+	{
+		try
+		{
+			Connection connection = dataSource.getConnectionProvider().getConnection();
+			try
+			{
+				entry.plan = explain(connection,entry.sql);
+			}
+			finally
+			{
+				connection.close();
+			}
+		}
+		catch(SQLException e)
+		{
+			entry.explainError = e.toString();
+		}
+		catch(RuntimeException e)
+		{
+			entry.explainError = e.toString();
+		}
+	}
+	
+	
+	/**
+	 * Explains <code>sql</code> and reads the plan summary. The rows of the
+	 * explain tables are removed afterwards.
+	 */
+	Plan explain(Connection connection, String sql) throws SQLException
+	{
+		int queryNo = this.queryNo.incrementAndGet() & Integer.MAX_VALUE;
+		String schema = explainSchema;
+		
+		Statement statement = connection.createStatement();
+		try
+		{
+			statement.execute("EXPLAIN PLAN SET QUERYNO = " + queryNo + " FOR " + sql);
+		}
+		finally
+		{
+			statement.close();
+		}
+		
+		Timestamp explainTime;
+		double totalCost;
+		PreparedStatement select = connection.prepareStatement("SELECT EXPLAIN_TIME, TOTAL_COST FROM "
+				+ schema + ".EXPLAIN_STATEMENT WHERE QUERYNO = ? AND EXPLAIN_LEVEL = 'P' "
+				+ "AND EXPLAIN_REQUESTER = SESSION_USER ORDER BY EXPLAIN_TIME DESC "
+				+ "FETCH FIRST 1 ROW ONLY");
+		try
+		{
+			select.setInt(1,queryNo);
+			ResultSet resultSet = select.executeQuery();
+			if(!resultSet.next())
+			{
+				return null;
+			}
+			explainTime = resultSet.getTimestamp(1);
+			totalCost = resultSet.getDouble(2);
+		}
+		finally
+		{
+			select.close();
+		}
+		
+		Plan plan = new Plan(totalCost);
+		select = connection.prepareStatement("SELECT OPERATOR_ID, OPERATOR_TYPE, TOTAL_COST FROM "
+				+ schema + ".EXPLAIN_OPERATOR WHERE EXPLAIN_TIME = ? "
+				+ "AND EXPLAIN_REQUESTER = SESSION_USER ORDER BY OPERATOR_ID");
+		try
+		{
+			select.setTimestamp(1,explainTime);
+			ResultSet resultSet = select.executeQuery();
+			while(resultSet.next())
+			{
+				plan.operators.add(new Operator(resultSet.getInt(1),resultSet.getString(2).trim(),
+						resultSet.getDouble(3)));
+			}
+		}
+		finally
+		{
+			select.close();
+		}
+		
+		select = connection.prepareStatement("SELECT OBJECT_SCHEMA, OBJECT_NAME FROM " + schema
+				+ ".EXPLAIN_OBJECT WHERE EXPLAIN_TIME = ? AND EXPLAIN_REQUESTER = SESSION_USER "
+				+ "AND OBJECT_TYPE = 'IX' ORDER BY OBJECT_SCHEMA, OBJECT_NAME");
+		try
+		{
+			select.setTimestamp(1,explainTime);
+			ResultSet resultSet = select.executeQuery();
+			while(resultSet.next())
+			{
+				plan.indexes.add(resultSet.getString(1).trim() + "." + resultSet.getString(2));
+			}
+		}
+		finally
+		{
+			select.close();
+		}
+		
+		PreparedStatement delete = connection.prepareStatement("DELETE FROM " + schema
+				+ ".EXPLAIN_INSTANCE WHERE EXPLAIN_TIME = ? AND EXPLAIN_REQUESTER = SESSION_USER");
+		try
+		{
+			// the other explain tables are cleaned up by their foreign keys
+			delete.setTimestamp(1,explainTime);
+			delete.executeUpdate();
+		}
+		finally
+		{
+			delete.close();
+		}
+		
+		return plan;
+	}
+	
+	
+	/**
+	 * Describes the parameter values by their types, e.g.
+	 * <code>(Integer, String, NULL)</code>.
+	 */
+	static String getParameterShape(Object[] params)
+	{
+		if(params == null || params.length == 0)
+		{
+			return "()";
+		}
+		StringBuilder sb = new StringBuilder("(");
+		for(int i = 0; i < params.length; i++)
+		{
+			if(i > 0)
+			{
+				sb.append(", ");
+			}
+			Object param = params[i];
+			sb.append(param != null ? param.getClass().getSimpleName() : "NULL");
+		}
+		return sb.append(')').toString();
+	}
+	
+	
+	
+	/**
+	 * A captured statement.
+	 */
+	public static final class Entry
+	{
+		final String			sql;
+		final String			shape;
+		final String			parameterShape;
+		final long				nanos;
+		final long				rows;
+		final String			failure;
+		final long				time;
+		final String			thread;
+		volatile Plan			plan;
+		volatile String			explainError;
+		
+		
+		Entry(String sql, String shape, String parameterShape, long nanos, long rows,
+				String failure)
+		{
+			this.sql = sql;
+			this.shape = shape;
+			this.parameterShape = parameterShape;
+			this.nanos = nanos;
+			this.rows = rows;
+			this.failure = failure;
+			this.time = System.currentTimeMillis();
+			this.thread = Thread.currentThread().getName();
+		}
+		
+		
+		/**
+		 * @return the SQL text
+		 */
+		public String getSql()
+		{
+			return sql;
+		}
+		
+		
+		/**
+		 * @return the statement shape, see
+		 *         {@link DB2Instrumentation#toShape(String)}
+		 */
+		public String getShape()
+		{
+			return shape;
+		}
+		
+		
+		/**
+		 * @return the types of the parameter values
+		 */
+		public String getParameterShape()
+		{
+			return parameterShape;
+		}
+		
+		
+		/**
+		 * @return the duration in milliseconds
+		 */
+		public double getMillis()
+		{
+			return nanos / 1e6;
+		}
+		
+		
+		/**
+		 * @return the number of fetched rows, -1 if unknown
+		 */
+		public long getRowCount()
+		{
+			return rows;
+		}
+		
+		
+		/**
+		 * @return the exception of a failed statement or <code>null</code>
+		 */
+		public String getFailure()
+		{
+			return failure;
+		}
+		
+		
+		/**
+		 * @return the time of the capture
+		 */
+		public Date getTime()
+		{
+			return new Date(time);
+		}
+		
+		
+		/**
+		 * @return the name of the thread which executed the statement
+		 */
+		public String getThread()
+		{
+			return thread;
+		}
+		
+		
+		/**
+		 * @return the access plan or <code>null</code> if it is not (yet)
+		 *         explained
+		 */
+		public Plan getPlan()
+		{
+			return plan;
+		}
+		
+		
+		/**
+		 * @return the error of <code>EXPLAIN</code> or <code>null</code>
+		 */
+		public String getExplainError()
+		{
+			return explainError;
+		}
+		
+		
+		void appendTo(Appendable out) throws IOException
+		{
+			out.append(new Timestamp(time).toString()).append(' ').append(thread).append(' ')
+					.append(String.format(Locale.ROOT,"%.3f ms",getMillis()));
+			if(rows >= 0)
+			{
+				out.append(", ").append(String.valueOf(rows)).append(" rows");
+			}
+			out.append('\n').append("  SQL: ").append(sql).append('\n');
+			out.append("  Parameters: ").append(parameterShape).append('\n');
+			if(failure != null)
+			{
+				out.append("  Failure: ").append(failure).append('\n');
+			}
+			Plan plan = this.plan;
+			if(plan != null)
+			{
+				out.append("  Plan: ").append(plan.toString()).append('\n');
+			}
+			else if(explainError != null)
+			{
+				out.append("  Explain failed: ").append(explainError).append('\n');
+			}
+		}
+		
+		
+		@Override
+		public String toString()
+		{
+			StringBuilder sb = new StringBuilder();
+			try
+			{
+				appendTo(sb);
+			}
+			catch(IOException e)
+			{
+				// StringBuilder doesn't throw
+			}
+			return sb.toString();
+		}
+	}
+	
+	
+	
+	/**
+	 * Summary of an access plan.
+	 */
+	public static final class Plan
+	{
+		private final double			totalCost;
+		final List<Operator>			operators	= new ArrayList<Operator>();
+		final List<String>				indexes		= new ArrayList<String>();
+		
+		
+		Plan(double totalCost)
+		{
+			this.totalCost = totalCost;
+		}
+		
+		
+		/**
+		 * @return the estimated cost in timerons
+		 */
+		public double getTotalCost()
+		{
+			return totalCost;
+		}
+		
+		
+		/**
+		 * @return the operators of the plan, ordered by their id
+		 */
+		public List<Operator> getOperators()
+		{
+			return Collections.unmodifiableList(operators);
+		}
+		
+		
+		/**
+		 * @return the qualified names of the used indexes
+		 */
+		public List<String> getIndexes()
+		{
+			return Collections.unmodifiableList(indexes);
+		}
+		
+		
+		/**
+		 * @return <code>true</code> if the plan scans a table without index
+		 */
+		public boolean hasTableScan()
+		{
+			for(Operator operator : operators)
+			{
+				if(operator.getType().equals("TBSCAN"))
+				{
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		
+		@Override
+		public String toString()
+		{
+			StringBuilder sb = new StringBuilder();
+			sb.append("cost ").append(totalCost).append(", operators");
+			for(Operator operator : operators)
+			{
+				sb.append(' ').append(operator.getType()).append('(').append(operator.getId())
+						.append(')');
+			}
+			sb.append(", indexes ").append(indexes.isEmpty() ? "none" : indexes.toString());
+			return sb.toString();
+		}
+	}
+	
+	
+	
+	/**
+	 * An operator of an access plan, e.g. <code>IXSCAN</code> or
+	 * <code>HSJOIN</code>.
+	 */
+	public static final class Operator
+	{
+		private final int		id;
+		private final String	type;
+		private final double	cost;
+		
+		
+		Operator(int id, String type, double cost)
+		{
+			this.id = id;
+			this.type = type;
+			this.cost = cost;
+		}
+		
+		
+		/**
+		 * @return the operator id
+		 */
+		public int getId()
+		{
+			return id;
+		}
+		
+		
+		/**
+		 * @return the operator type
+		 */
+		public String getType()
+		{
+			return type;
+		}
+		
+		
+		/**
+		 * @return the estimated cumulative cost in timerons
+		 */
+		public double getCost()
+		{
+			return cost;
+		}
+	}
+}
@@ -0,0 +1,232 @@
+/*
+ * SqlEngine Database Adapter DB2 - XAPI SqlEngine Database Adapter for DB2
+ * Copyright © 2003 XDEV Software (https://xdev.software)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package xdev.db.db2.jdbc;
+
+
+import java.sql.Connection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import xdev.db.DBException;
+import xdev.db.db2.jdbc.DB2ConnectionInformation.Server;
+
+
+/**
+ * Distributes read-only work round robin over the HADR reads-on-standby
+ * servers of a {@link DB2JDBCDataSource}.
+ * <p>
+ * A standby which cannot be connected to is skipped for the retry delay. If
+ * no standby is available, {@link #getConnection()} returns
+ * <code>null</code> and the caller falls back to the primary server.
+ * <p>
+ * Standby connections are read only and use the isolation level uncommitted
+ * read, the only one a standby supports. If the data source pools its
+ * connections, each standby has its own pool of the same maximum size.
+ *
+ * @see DB2JDBCDataSource#STANDBY_SERVERS
+ * @see DB2JDBCConnection.ReadRouting
+ */
+public class DB2StandbyRouter
+{
+	/**
+	 * Default milliseconds a failed standby is skipped.
+	 */
+	public static final long	DEFAULT_RETRY_DELAY	= 30000;
+	
+	private final String		serverList;
+	private final Standby[]		standbys;
+	private final AtomicInteger	next				= new AtomicInteger();
+	private final AtomicLong	fallbackCount		= new AtomicLong();
+	private volatile long		retryDelay			= DEFAULT_RETRY_DELAY;
+	
+	
+	/**
+	 * @param dataSource
+	 *            the data source
+	 * @param serverList
+	 *            the standby servers in the form of
+	 *            {@link DB2JDBCDataSource#STANDBY_SERVERS}
+	 */
+	public DB2StandbyRouter(final DB2JDBCDataSource dataSource, String serverList)
+	{
+		this.serverList = serverList;
+		
+		List<Server> servers = DB2ConnectionInformation.parseServers(serverList,
+				dataSource.getPort());
+		
+		DB2ConnectionPool primaryPool = dataSource.getConnectionPool();
+		this.standbys = new Standby[servers.size()];
+		for(int i = 0; i < standbys.length; i++)
+		{
+			final Server server = servers.get(i);
+			DB2ConnectionPool.ConnectionFactory factory = new DB2ConnectionPool.ConnectionFactory()
+			{
+				@Override
+				public Connection createConnection() throws DBException
+				{
+					return new DB2JDBCConnection(dataSource).establishStandbyConnection(server);
+				}
+			};
+			DB2ConnectionPool pool = primaryPool != null ? new DB2ConnectionPool(dataSource,0,
+					primaryPool.getMaxSize(),factory) : null;
+			standbys[i] = new Standby(server,factory,pool);
+		}
+	}
+	
+	
+	/**
+	 * @return the standby servers as configured
+	 */
+	public String getServerList()
+	{
+		return serverList;
+	}
+	
+	
+	/**
+	 * @return the milliseconds a failed standby is skipped
+	 */
+	public long getRetryDelay()
+	{
+		return retryDelay;
+	}
+	
+	
+	/**
+	 * @param retryDelay
+	 *            the milliseconds a failed standby is skipped
+	 */
+	public void setRetryDelay(long retryDelay)
+	{
+		this.retryDelay = Math.max(0,retryDelay);
+	}
+	
+	
+	/**
+	 * @return the number of calls to {@link #getConnection()} which found no
+	 *         available standby
+	 */
+	public long getFallbackCount()
+	{
+		return fallbackCount.get();
+	}
+	
+	
+	/**
+	 * @param server
+	 *            a standby server
+	 * @return <code>false</code> if the last connect to <code>server</code>
+	 *         failed less than the retry delay ago
+	 */
+	public boolean isAvailable(Server server)
+	{
+		for(Standby standby : standbys)
+		{
+			if(standby.server.equals(server))
+			{
+				return standby.isAvailable(System.nanoTime());
+			}
+		}
+		return false;
+	}
+	
+	
+	/**
+	 * Connects to the next available standby.
+	 * 
+	 * @return a read-only connection or <code>null</code> if no standby is
+	 *         available
+	 */
+	public Connection getConnection()
+	{
+		int start = next.getAndIncrement() & Integer.MAX_VALUE;
+		for(int i = 0; i < standbys.length; i++)
+		{
+			Standby standby = standbys[(start + i) % standbys.length];
+			long now = System.nanoTime();
+			if(!standby.isAvailable(now))
+			{
+				continue;
+			}
+			try
+			{
+				return standby.connect();
+			}
+			catch(DBException e)
+			{
+				standby.unavailableUntil = now + TimeUnit.MILLISECONDS.toNanos(retryDelay);
+				standby.unavailable = true;
+			}
+		}
+		fallbackCount.incrementAndGet();
+		return null;
+	}
+	
+	
+	/**
+	 * Closes the idle connections of the standby pools.
+	 */
+	public void close()
+	{
+		for(Standby standby : standbys)
+		{
+			if(standby.pool != null)
+			{
+				standby.pool.close();
+			}
+		}
+	}
+	
+	
+	
+	private static final class Standby
+	{
+		final Server								server;
+		final DB2ConnectionPool.ConnectionFactory	factory;
+		final DB2ConnectionPool						pool;
+		volatile boolean							unavailable;
+		volatile long								unavailableUntil;
+		
+		
+		Standby(Server server, DB2ConnectionPool.ConnectionFactory factory, DB2ConnectionPool pool)
+		{
+			this.server = server;
+			this.factory = factory;
+			this.pool = pool;
+		}
+		
+		
+		boolean isAvailable(long now)
+		{
+			if(unavailable && now - unavailableUntil < 0)
+			{
+				return false;
+			}
+			unavailable = false;
+			return true;
+		}
+		
+		
+		Connection connect() throws DBException
+		{
+			return pool != null ? pool.getConnection() : factory.createConnection();
+		}
+	}
+}
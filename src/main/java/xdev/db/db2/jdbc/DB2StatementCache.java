@@ -0,0 +1,412 @@
+/*
+ * SqlEngine Database Adapter DB2 - XAPI SqlEngine Database Adapter for DB2
+ * Copyright © 2003 XDEV Software (https://xdev.software)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package xdev.db.db2.jdbc;
+
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * LRU cache of the {@link PreparedStatement}s of one physical connection,
+ * keyed by the SQL text.
+ * <p>
+ * A cached statement is removed from the cache while it is in use, closing
+ * the returned statement clears its parameters, closes its open result sets,
+ * restores the limits changed by the borrower (max rows, fetch size, query
+ * timeout, ...) and puts it back. A statement whose cursor name or escape
+ * processing was changed is closed instead. Statements evicted from the
+ * cache are closed.
+ *
+ * @see DB2JDBCDataSource#setStatementCacheSize(int)
+ */
+public class DB2StatementCache
+{
+	private final int								maxSize;
+	private final Statistics						statistics;
+	private final Map<String, PreparedStatement>	statements;
+	private boolean									closed;
+	
+	
+	/**
+	 * @param maxSize
+	 *            the maximum number of cached statements
+	 * @param statistics
+	 *            the counters to update
+	 */
+	public DB2StatementCache(int maxSize, Statistics statistics)
+	{
+		this.maxSize = Math.max(1,maxSize);
+		this.statistics = statistics;
+		this.statements = new LinkedHashMap<String, PreparedStatement>(16,0.75f,true);
+	}
+	
+	
+	/**
+	 * @return the number of cached statements
+	 */
+	public synchronized int size()
+	{
+		return statements.size();
+	}
+	
+	
+	/**
+	 * Returns a cached statement for <code>sql</code> or prepares a new one.
+	 * 
+	 * @param connection
+	 *            the physical connection
+	 * @param logicalConnection
+	 *            the connection returned by
+	 *            {@link PreparedStatement#getConnection()}
+	 * @param sql
+	 *            the SQL text
+	 * @return the statement, closing it returns it to the cache
+	 * @throws SQLException
+	 *             if the statement cannot be prepared
+	 */
+	public PreparedStatement prepareStatement(Connection connection,
+			Connection logicalConnection, String sql) throws SQLException
+	{
+		PreparedStatement statement;
+		synchronized(this)
+		{
+			statement = closed ? null : statements.remove(sql);
+		}
+		
+		if(statement != null && !statement.isClosed())
+		{
+			statistics.hits.incrementAndGet();
+		}
+		else
+		{
+			statistics.misses.incrementAndGet();
+			statement = connection.prepareStatement(sql);
+		}
+		
+		return (PreparedStatement)Proxy.newProxyInstance(
+				PreparedStatement.class.getClassLoader(),new Class<?>[]{PreparedStatement.class},
+				new Handle(sql,statement,logicalConnection));
+	}
+	
+	
+	/**
+	 * Closes all cached statements, statements in use are closed when they
+	 * are given back.
+	 */
+	public void close()
+	{
+		List<PreparedStatement> list;
+		synchronized(this)
+		{
+			closed = true;
+			list = new ArrayList<PreparedStatement>(statements.values());
+			statements.clear();
+		}
+		for(PreparedStatement statement : list)
+		{
+			closeQuietly(statement);
+		}
+	}
+	
+	
+	private void giveBack(String sql, PreparedStatement statement, Map<String, Object> defaults)
+	{
+		try
+		{
+			for(Map.Entry<String, Object> entry : defaults.entrySet())
+			{
+				restore(statement,entry.getKey(),entry.getValue());
+			}
+			statement.clearParameters();
+			statement.clearBatch();
+			statement.clearWarnings();
+		}
+		catch(SQLException e)
+		{
+			closeQuietly(statement);
+			return;
+		}
+		
+		PreparedStatement evicted = null;
+		synchronized(this)
+		{
+			if(closed || statements.containsKey(sql))
+			{
+				// the same statement was prepared twice concurrently
+				evicted = statement;
+			}
+			else
+			{
+				statements.put(sql,statement);
+				if(statements.size() > maxSize)
+				{
+					Iterator<PreparedStatement> it = statements.values().iterator();
+					evicted = it.next();
+					it.remove();
+					statistics.evictions.incrementAndGet();
+				}
+			}
+		}
+		
+		if(evicted != null)
+		{
+			closeQuietly(evicted);
+		}
+	}
+	
+	
+	/**
+	 * @return the current value of the statement property changed by
+	 *         <code>setter</code>, or <code>null</code> if it cannot be
+	 *         restored
+	 */
+	private static Object readDefault(Statement statement, String setter) throws SQLException
+	{
+		switch(setter)
+		{
+			case "setMaxRows":
+				return statement.getMaxRows();
+			case "setLargeMaxRows":
+				return statement.getLargeMaxRows();
+			case "setFetchSize":
+				return statement.getFetchSize();
+			case "setFetchDirection":
+				return statement.getFetchDirection();
+			case "setQueryTimeout":
+				return statement.getQueryTimeout();
+			case "setMaxFieldSize":
+				return statement.getMaxFieldSize();
+			case "setPoolable":
+				return statement.isPoolable();
+			default:
+				return null;
+		}
+	}
+	
+	
+	private static void restore(Statement statement, String setter, Object value)
+			throws SQLException
+	{
+		switch(setter)
+		{
+			case "setMaxRows":
+				statement.setMaxRows((Integer)value);
+			break;
+			case "setLargeMaxRows":
+				statement.setLargeMaxRows((Long)value);
+			break;
+			case "setFetchSize":
+				statement.setFetchSize((Integer)value);
+			break;
+			case "setFetchDirection":
+				statement.setFetchDirection((Integer)value);
+			break;
+			case "setQueryTimeout":
+				statement.setQueryTimeout((Integer)value);
+			break;
+			case "setMaxFieldSize":
+				statement.setMaxFieldSize((Integer)value);
+			break;
+			case "setPoolable":
+				statement.setPoolable((Boolean)value);
+			break;
+		}
+	}
+	
+	
+	private static void closeQuietly(PreparedStatement statement)
+	{
+		try
+		{
+			statement.close();
+		}
+		catch(SQLException e)
+		{
+			// statement is discarded anyway
+		}
+	}
+	
+	
+	
+	/**
+	 * Counters of all statement caches of a data source.
+	 */
+	public static final class Statistics
+	{
+		final AtomicLong	hits		= new AtomicLong();
+		final AtomicLong	misses		= new AtomicLong();
+		final AtomicLong	evictions	= new AtomicLong();
+		
+		
+		/**
+		 * @return the number of statements taken from a cache
+		 */
+		public long getHitCount()
+		{
+			return hits.get();
+		}
+		
+		
+		/**
+		 * @return the number of statements which had to be prepared
+		 */
+		public long getMissCount()
+		{
+			return misses.get();
+		}
+		
+		
+		/**
+		 * @return the number of statements closed because a cache was full
+		 */
+		public long getEvictionCount()
+		{
+			return evictions.get();
+		}
+	}
+	
+	
+	
+	private final class Handle implements InvocationHandler
+	{
+		private final String			sql;
+		private final PreparedStatement	statement;
+		private final Connection		connection;
+		private final List<ResultSet>	resultSets	= new ArrayList<ResultSet>(1);
+		private final Map<String, Object>	defaults	= new HashMap<String, Object>();
+		private boolean					discard;
+		private boolean					closed;
+		
+		
+		Handle(String sql, PreparedStatement statement, Connection connection)
+		{
+			this.sql = sql;
+			this.statement = statement;
+			this.connection = connection;
+		}
+		
+		
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+		{
+			String name = method.getName();
+			if("close".equals(name))
+			{
+				if(!closed)
+				{
+					closed = true;
+					closeResultSets();
+					if(discard)
+					{
+						closeQuietly(statement);
+					}
+					else
+					{
+						giveBack(sql,statement,defaults);
+					}
+				}
+				return null;
+			}
+			if("isClosed".equals(name))
+			{
+				return closed || statement.isClosed();
+			}
+			if("getConnection".equals(name))
+			{
+				return connection;
+			}
+			if("equals".equals(name))
+			{
+				return proxy == args[0];
+			}
+			if("hashCode".equals(name))
+			{
+				return System.identityHashCode(proxy);
+			}
+			if("toString".equals(name))
+			{
+				return "Cached " + statement;
+			}
+			
+			if(closed)
+			{
+				throw new SQLException("Statement is closed");
+			}
+			
+			if(name.startsWith("execute"))
+			{
+				// the result sets of the previous execution are closed by it
+				closeResultSets();
+			}
+			else if(method.getDeclaringClass() == Statement.class
+					&& (name.startsWith("set") || "closeOnCompletion".equals(name))
+					&& !defaults.containsKey(name))
+			{
+				Object value = readDefault(statement,name);
+				if(value != null)
+				{
+					defaults.put(name,value);
+				}
+				else
+				{
+					// e.g. setCursorName, which cannot be undone
+					discard = true;
+				}
+			}
+			
+			try
+			{
+				Object result = method.invoke(statement,args);
+				if(result instanceof ResultSet)
+				{
+					resultSets.add((ResultSet)result);
+				}
+				return result;
+			}
+			catch(InvocationTargetException e)
+			{
+				throw e.getCause();
+			}
+		}
+		
+		
+		private void closeResultSets() throws SQLException
+		{
+			for(ResultSet resultSet : resultSets)
+			{
+				resultSet.close();
+			}
+			resultSets.clear();
+		}
+	}
+}
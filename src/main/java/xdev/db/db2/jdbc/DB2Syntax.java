@@ -18,14 +18,349 @@
 package xdev.db.db2.jdbc;
 
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
 import com.xdev.jadoth.sqlengine.dbms.DbmsSyntax;
 
 
 public class DB2Syntax extends DbmsSyntax.Implementation<DB2Dbms>
 {
+	/**
+	 * Reserved words of DB2 for Linux, UNIX and Windows, identifiers equal to
+	 * one of these have to be delimited.
+	 */
+	static final String[]		RESERVED_WORDS		= {"ADD","AFTER","ALIAS","ALL","ALLOCATE",
+			"ALLOW","ALTER","AND","ANY","AS","ASENSITIVE","ASSOCIATE","ASUTIME","AT","AUDIT",
+			"AUX","AUXILIARY","BEFORE","BEGIN","BETWEEN","BINARY","BUFFERPOOL","BY","CACHE",
+			"CALL","CALLED","CAPTURE","CARDINALITY","CASCADED","CASE","CAST","CCSID","CHAR",
+			"CHARACTER","CHECK","CLONE","CLOSE","CLUSTER","COLLECTION","COLLID","COLUMN",
+			"COMMENT","COMMIT","CONCAT","CONDITION","CONNECT","CONNECTION","CONSTRAINT",
+			"CONTAINS","CONTINUE","COUNT","COUNT_BIG","CREATE","CROSS","CURRENT","CURRENT_DATE",
+			"CURRENT_LC_CTYPE","CURRENT_PATH","CURRENT_SCHEMA","CURRENT_SERVER","CURRENT_TIME",
+			"CURRENT_TIMESTAMP","CURRENT_TIMEZONE","CURRENT_USER","CURSOR","CYCLE","DATA",
+			"DATABASE","DATAPARTITIONNAME","DATAPARTITIONNUM","DATE","DAY","DAYS","DB2GENERAL",
+			"DB2GENRL","DB2SQL","DBINFO","DBPARTITIONNAME","DBPARTITIONNUM","DEALLOCATE",
+			"DECLARE","DEFAULT","DEFAULTS","DEFINITION","DELETE","DENSE_RANK","DENSERANK",
+			"DESCRIBE","DESCRIPTOR","DETERMINISTIC","DIAGNOSTICS","DISABLE","DISALLOW",
+			"DISCONNECT","DISTINCT","DO","DOCUMENT","DOUBLE","DROP","DSSIZE","DYNAMIC","EACH",
+			"EDITPROC","ELSE","ELSEIF","ENABLE","ENCODING","ENCRYPTION","END","END-EXEC",
+			"ENDING","ERASE","ESCAPE","EVERY","EXCEPT","EXCEPTION","EXCLUDING","EXCLUSIVE",
+			"EXECUTE","EXISTS","EXIT","EXPLAIN","EXTENDED","EXTERNAL","EXTRACT","FENCED",
+			"FETCH","FIELDPROC","FILE","FINAL","FOR","FOREIGN","FREE","FROM","FULL","FUNCTION",
+			"GENERAL","GENERATED","GET","GLOBAL","GO","GOTO","GRANT","GRAPHIC","GROUP",
+			"HANDLER","HASH","HASHED_VALUE","HAVING","HINT","HOLD","HOUR","HOURS","IDENTITY",
+			"IF","IMMEDIATE","IN","INCLUDING","INCLUSIVE","INCREMENT","INDEX","INDICATOR",
+			"INF","INFINITY","INHERIT","INNER","INOUT","INSENSITIVE","INSERT","INTEGRITY",
+			"INTERSECT","INTO","IS","ISOBID","ISOLATION","ITERATE","JAR","JAVA","JOIN","KEEP",
+			"KEY","LABEL","LANGUAGE","LATERAL","LC_CTYPE","LEAVE","LEFT","LIKE","LINKTYPE",
+			"LOCAL","LOCALDATE","LOCALE","LOCALTIME","LOCALTIMESTAMP","LOCATOR","LOCATORS",
+			"LOCK","LOCKMAX","LOCKSIZE","LONG","LOOP","MAINTAINED","MATERIALIZED","MAXVALUE",
+			"MICROSECOND","MICROSECONDS","MINUTE","MINUTES","MINVALUE","MODE","MODIFIES",
+			"MONTH","MONTHS","NAN","NEW","NEW_TABLE","NEXTVAL","NO","NOCACHE","NOCYCLE",
+			"NODENAME","NODENUMBER","NOMAXVALUE","NOMINVALUE","NONE","NOORDER","NORMALIZED",
+			"NOT","NULL","NULLS","NUMPARTS","OBID","OF","OLD","OLD_TABLE","ON","OPEN",
+			"OPTIMIZATION","OPTIMIZE","OPTION","OR","ORDER","OUT","OUTER","OVER","OVERRIDING",
+			"PACKAGE","PADDED","PAGESIZE","PARAMETER","PART","PARTITION","PARTITIONED",
+			"PARTITIONING","PARTITIONS","PASSWORD","PATH","PIECESIZE","PLAN","POSITION",
+			"PRECISION","PREPARE","PREVVAL","PRIMARY","PRIQTY","PRIVILEGES","PROCEDURE",
+			"PROGRAM","PSID","PUBLIC","QUERY","QUERYNO","RANGE","RANK","READ","READS",
+			"RECOVERY","REFERENCES","REFERENCING","REFRESH","RELEASE","RENAME","REPEAT",
+			"RESET","RESIGNAL","RESTART","RESTRICT","RESULT","RESULT_SET_LOCATOR","RETURN",
+			"RETURNS","REVOKE","RIGHT","ROLE","ROLLBACK","ROUND_CEILING","ROUND_DOWN",
+			"ROUND_FLOOR","ROUND_HALF_DOWN","ROUND_HALF_EVEN","ROUND_HALF_UP","ROUND_UP",
+			"ROUTINE","ROW","ROW_NUMBER","ROWNUMBER","ROWS","ROWSET","RRN","RUN","SAVEPOINT",
+			"SCHEMA","SCRATCHPAD","SCROLL","SEARCH","SECOND","SECONDS","SECQTY","SECURITY",
+			"SELECT","SENSITIVE","SEQUENCE","SESSION","SESSION_USER","SET","SIGNAL","SIMPLE",
+			"SNAN","SOME","SOURCE","SPECIFIC","SQL","SQLID","STACKED","STANDARD","START",
+			"STARTING","STATEMENT","STATIC","STATMENT","STAY","STOGROUP","STORES","STYLE",
+			"SUBSTRING","SUMMARY","SYNONYM","SYSFUN","SYSIBM","SYSPROC","SYSTEM","SYSTEM_USER",
+			"TABLE","TABLESPACE","THEN","TIME","TIMESTAMP","TO","TRANSACTION","TRIGGER","TRIM",
+			"TRUNCATE","TYPE","UNDO","UNION","UNIQUE","UNTIL","UPDATE","USAGE","USER","USING",
+			"VALIDPROC","VALUE","VALUES","VARIABLE","VARIANT","VCAT","VERSION","VIEW",
+			"VOLATILE","VOLUMES","WHEN","WHENEVER","WHERE","WHILE","WITH","WITHOUT","WLM",
+			"WRITE","XMLELEMENT","XMLEXISTS","XMLNAMESPACES","YEAR","YEARS"};
+	
+	/**
+	 * Keywords which may be used as ordinary identifiers.
+	 */
+	static final String[]		NON_RESERVED_WORDS	= {"ABS","ABSOLUTE","ACTION","ACTIVATE",
+			"ADMIN","ALWAYS","APPEND","ASC","ATTRIBUTE","AVG","BIGINT","BLOB","BOOLEAN","BOTH",
+			"CASCADE","CLOB","COALESCE","COMMITTED","COMPACT","COMPRESS","CONSTRAINTS",
+			"CONTENT","CS","DBCLOB","DEC","DECFLOAT","DECIMAL","DEFERRED","DESC","FALSE",
+			"FIRST","FLOAT","INT","INTEGER","LAST","LEADING","LEVEL","LIMIT","LOGGED","MATCHED",
+			"MAX","MERGE","MIN","NAME","NAMES","NEXT","NULLIF","NUMERIC","OBJECT","OFFSET",
+			"ONLY","ORGANIZE","PERIOD","PRESERVE","PRIOR","REAL","REPEATABLE","REPLACE",
+			"RETAIN","RR","RS","SERIALIZABLE","SHARE","SKIP","SMALLINT","SUM","TEMPORARY",
+			"TRAILING","TRUE","UNCOMMITTED","UNKNOWN","UR","VARBINARY","VARCHAR","VARGRAPHIC",
+			"WORK","XML","ZONE"};
+	
+	private static final KeywordTable	RESERVED			= new KeywordTable(RESERVED_WORDS);
+	private static final KeywordTable	NON_RESERVED		= new KeywordTable(
+																	NON_RESERVED_WORDS);
+	
+	
 	protected DB2Syntax()
 	{
-		super(wordSet(),wordSet());
+		super(wordSet(RESERVED_WORDS),wordSet(NON_RESERVED_WORDS));
+	}
+	
+	
+	/**
+	 * Case-insensitive test without allocation.
+	 * 
+	 * @param word
+	 *            the word to test
+	 * @return <code>true</code> if <code>word</code> is a reserved word
+	 */
+	public boolean isReservedWord(final CharSequence word)
+	{
+		return RESERVED.contains(word);
+	}
+	
+	
+	/**
+	 * Case-insensitive test without allocation.
+	 * 
+	 * @param word
+	 *            the word to test
+	 * @return <code>true</code> if <code>word</code> is a reserved or
+	 *         non-reserved keyword
+	 */
+	public boolean isKeyword(final CharSequence word)
+	{
+		return RESERVED.contains(word) || NON_RESERVED.contains(word);
 	}
 	
+	
+	/**
+	 * Returns whether <code>identifier</code> has to be delimited: it is a
+	 * reserved word, contains lower case or special characters, or does not
+	 * start with a letter, <code>@</code>, <code>#</code> or <code>$</code>.
+	 * 
+	 * @param identifier
+	 *            the identifier
+	 * @return <code>true</code> if <code>identifier</code> needs quotes
+	 */
+	public boolean needsQuoting(final CharSequence identifier)
+	{
+		final int length = identifier.length();
+		if(length == 0)
+		{
+			return true;
+		}
+		
+		final char first = identifier.charAt(0);
+		if(!(first >= 'A' && first <= 'Z' || first == '@' || first == '#' || first == '$'))
+		{
+			return true;
+		}
+		for(int i = 1; i < length; i++)
+		{
+			final char c = identifier.charAt(i);
+			if(!(c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_' || c == '@'
+					|| c == '#' || c == '$'))
+			{
+				return true;
+			}
+		}
+		return RESERVED.contains(identifier);
+	}
+	
+	
+	/**
+	 * Appends <code>identifier</code>, delimited with <code>"</code> only if
+	 * {@link #needsQuoting(CharSequence)}.
+	 * 
+	 * @param identifier
+	 *            the identifier
+	 * @param sb
+	 *            the target
+	 * @return <code>sb</code>
+	 */
+	public StringBuilder appendIdentifier(final CharSequence identifier, final StringBuilder sb)
+	{
+		if(!needsQuoting(identifier))
+		{
+			return sb.append(identifier);
+		}
+		
+		sb.append(DB2Dbms.IDENTIFIER_DELIMITER);
+		for(int i = 0, length = identifier.length(); i < length; i++)
+		{
+			final char c = identifier.charAt(i);
+			if(c == DB2Dbms.IDENTIFIER_DELIMITER)
+			{
+				sb.append(c);
+			}
+			sb.append(c);
+		}
+		return sb.append(DB2Dbms.IDENTIFIER_DELIMITER);
+	}
+	
+	
+	
+	/**
+	 * Minimal perfect hash over upper case ASCII words (hash and displace): a
+	 * first hash selects a bucket, the displacement of the bucket is the seed
+	 * of the second hash which selects the slot. Lookups fold lower case
+	 * letters while hashing and comparing, so no String is created.
+	 */
+	static final class KeywordTable
+	{
+		private final String[]	slots;
+		private final int[]		displacements;
+		private final int		slotMask;
+		private final int		bucketMask;
+		private final int		maxLength;
+		
+		
+		KeywordTable(final String... words)
+		{
+			final Set<String> unique = new LinkedHashSet<String>();
+			int maxLength = 0;
+			for(final String word : words)
+			{
+				unique.add(word.toUpperCase(Locale.ENGLISH));
+				maxLength = Math.max(maxLength,word.length());
+			}
+			this.maxLength = maxLength;
+			
+			final int slotCount = Integer.highestOneBit(Math.max(1,unique.size() * 2 - 1)) << 1;
+			final int bucketCount = Math.max(1,slotCount >>> 2);
+			this.slots = new String[slotCount];
+			this.displacements = new int[bucketCount];
+			this.slotMask = slotCount - 1;
+			this.bucketMask = bucketCount - 1;
+			
+			final List<List<String>> buckets = new ArrayList<List<String>>(bucketCount);
+			for(int i = 0; i < bucketCount; i++)
+			{
+				buckets.add(new ArrayList<String>());
+			}
+			for(final String word : unique)
+			{
+				buckets.get(hash(word,0) & bucketMask).add(word);
+			}
+			
+			final Integer[] order = new Integer[bucketCount];
+			for(int i = 0; i < bucketCount; i++)
+			{
+				order[i] = i;
+			}
+			Arrays.sort(order,new Comparator<Integer>()
+			{
+				@Override
+				public int compare(final Integer o1, final Integer o2)
+				{
+					return buckets.get(o2).size() - buckets.get(o1).size();
+				}
+			});
+			
+			final int[] candidate = new int[slotCount];
+			for(final Integer index : order)
+			{
+				final List<String> bucket = buckets.get(index);
+				if(bucket.isEmpty())
+				{
+					break;
+				}
+				displace(index,bucket,candidate);
+			}
+		}
+		
+		
+		private void displace(final int bucket, final List<String> words, final int[] candidate)
+		{
+			for(int seed = 1; seed > 0; seed++)
+			{
+				int placed = 0;
+				for(; placed < words.size(); placed++)
+				{
+					final int slot = hash(words.get(placed),seed) & slotMask;
+					if(slots[slot] != null || contains(candidate,placed,slot))
+					{
+						break;
+					}
+					candidate[placed] = slot;
+				}
+				if(placed == words.size())
+				{
+					for(int i = 0; i < placed; i++)
+					{
+						slots[candidate[i]] = words.get(i);
+					}
+					displacements[bucket] = seed;
+					return;
+				}
+			}
+			throw new IllegalStateException("No displacement for " + words);
+		}
+		
+		
+		private static boolean contains(final int[] array, final int length, final int value)
+		{
+			for(int i = 0; i < length; i++)
+			{
+				if(array[i] == value)
+				{
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		
+		boolean contains(final CharSequence word)
+		{
+			final int length = word.length();
+			if(length == 0 || length > maxLength)
+			{
+				return false;
+			}
+			
+			final int seed = displacements[hash(word,0) & bucketMask];
+			if(seed == 0)
+			{
+				return false;
+			}
+			final String candidate = slots[hash(word,seed) & slotMask];
+			if(candidate == null || candidate.length() != length)
+			{
+				return false;
+			}
+			for(int i = 0; i < length; i++)
+			{
+				if(candidate.charAt(i) != upper(word.charAt(i)))
+				{
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		
+		private static int hash(final CharSequence word, final int seed)
+		{
+			int h = 0x811C9DC5 ^ seed * 0x9E3779B9;
+			for(int i = 0, length = word.length(); i < length; i++)
+			{
+				h = (h ^ upper(word.charAt(i))) * 0x01000193;
+			}
+			h ^= h >>> 16;
+			h *= 0x85EBCA6B;
+			return h ^ h >>> 13;
+		}
+		
+		
+		private static char upper(final char c)
+		{
+			return c >= 'a' && c <= 'z' ? (char)(c - ('a' - 'A')) : c;
+		}
+	}
 }
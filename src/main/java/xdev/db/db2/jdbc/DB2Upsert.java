@@ -0,0 +1,308 @@
+/*
+ * SqlEngine Database Adapter DB2 - XAPI SqlEngine Database Adapter for DB2
+ * Copyright © 2003 XDEV Software (https://xdev.software)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package xdev.db.db2.jdbc;
+
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Iterator;
+
+
+/**
+ * Insert-or-update of a row stream into one table with <code>MERGE</code>
+ * statements of up to {@link #getBatchSize()} rows each, one round trip per
+ * statement and no window between the existence check and the write.
+ * <p>
+ * The parameter markers are cast to the column types of the target table,
+ * which are described once per upsert.
+ *
+ * @see DB2JDBCConnection#upsert(DB2Upsert, Iterator)
+ * @see DB2DMLAssembler#assembleMERGE(String, String[], String[], String[], int,
+ *      StringBuilder)
+ */
+public class DB2Upsert
+{
+	/**
+	 * Maximum number of parameter markers of a DB2 statement.
+	 */
+	private static final int	MAX_PARAMETERS	= 32767;
+	
+	private final String		table;
+	private final String[]		columns;
+	private final String[]		keyColumns;
+	private int					batchSize		= 500;
+	
+	
+	/**
+	 * @param table
+	 *            the (qualified) table name
+	 * @param keyColumns
+	 *            the columns which identify a row
+	 * @param columns
+	 *            the column names in the order of the row values, including
+	 *            the key columns; names are delimited if necessary, so they
+	 *            have to be given as in the catalog
+	 */
+	public DB2Upsert(String table, String[] keyColumns, String... columns)
+	{
+		if(keyColumns.length == 0)
+		{
+			throw new IllegalArgumentException("No key columns");
+		}
+		this.table = table;
+		this.keyColumns = keyColumns.clone();
+		this.columns = columns.clone();
+	}
+	
+	
+	/**
+	 * @return the (qualified) table name
+	 */
+	public String getTable()
+	{
+		return table;
+	}
+	
+	
+	/**
+	 * @return the maximum number of rows per <code>MERGE</code>, default is
+	 *         500
+	 */
+	public int getBatchSize()
+	{
+		return batchSize;
+	}
+	
+	
+	/**
+	 * Sets the maximum number of rows per <code>MERGE</code>, which is also
+	 * limited by the maximum number of parameter markers.
+	 * 
+	 * @param batchSize
+	 *            the number of rows
+	 */
+	public void setBatchSize(int batchSize)
+	{
+		this.batchSize = Math.max(1,batchSize);
+	}
+	
+	
+	/**
+	 * Writes all <code>rows</code> with a connection which is not in
+	 * auto-commit mode. The keys have to be unique within a batch.
+	 * 
+	 * @param connection
+	 *            the connection
+	 * @param assembler
+	 *            the assembler of the statements
+	 * @param rows
+	 *            the rows, each array holds the values of the columns
+	 * @return the number of inserted or updated rows
+	 * @throws SQLException
+	 *             if a database error occurs, all rows are rolled back
+	 */
+	public long execute(Connection connection, DB2DMLAssembler assembler, Iterator<Object[]> rows)
+			throws SQLException
+	{
+		try
+		{
+			long total = upsert(connection,assembler,rows);
+			connection.commit();
+			return total;
+		}
+		catch(SQLException e)
+		{
+			rollback(connection);
+			throw e;
+		}
+		catch(RuntimeException e)
+		{
+			rollback(connection);
+			throw e;
+		}
+	}
+	
+	
+	private long upsert(Connection connection, DB2DMLAssembler assembler, Iterator<Object[]> rows)
+			throws SQLException
+	{
+		int rowsPerStatement = Math.max(1,Math.min(batchSize,MAX_PARAMETERS / columns.length));
+		Object[][] chunk = new Object[rowsPerStatement][];
+		int[] types = new int[columns.length];
+		String[] typeNames = describeColumns(connection,types);
+		
+		long total = 0;
+		PreparedStatement statement = null;
+		try
+		{
+			int count = 0;
+			while(rows.hasNext())
+			{
+				chunk[count++] = rows.next();
+				if(count == rowsPerStatement)
+				{
+					if(statement == null)
+					{
+						statement = prepare(connection,assembler,typeNames,count);
+					}
+					total += executeChunk(statement,chunk,count,types);
+					count = 0;
+				}
+			}
+			
+			if(count > 0)
+			{
+				PreparedStatement rest = prepare(connection,assembler,typeNames,count);
+				try
+				{
+					total += executeChunk(rest,chunk,count,types);
+				}
+				finally
+				{
+					rest.close();
+				}
+			}
+		}
+		finally
+		{
+			if(statement != null)
+			{
+				statement.close();
+			}
+		}
+		return total;
+	}
+	
+	
+	private PreparedStatement prepare(Connection connection, DB2DMLAssembler assembler,
+			String[] typeNames, int rowCount) throws SQLException
+	{
+		StringBuilder sb = new StringBuilder(256 + rowCount * columns.length * 24);
+		assembler.assembleMERGE(table,columns,typeNames,keyColumns,rowCount,sb);
+		return connection.prepareStatement(sb.toString());
+	}
+	
+	
+	private int executeChunk(PreparedStatement statement, Object[][] chunk, int count,
+			int[] types) throws SQLException
+	{
+		int index = 1;
+		for(int row = 0; row < count; row++)
+		{
+			Object[] values = chunk[row];
+			for(int i = 0; i < columns.length; i++, index++)
+			{
+				Object value = values[i];
+				if(value == null)
+				{
+					statement.setNull(index,types[i]);
+				}
+				else
+				{
+					statement.setObject(index,value);
+				}
+			}
+			chunk[row] = null;
+		}
+		return statement.executeUpdate();
+	}
+	
+	
+	/**
+	 * Reads the SQL and JDBC types of the columns without fetching a row.
+	 */
+	private String[] describeColumns(Connection connection, int[] types) throws SQLException
+	{
+		StringBuilder sb = new StringBuilder("SELECT ");
+		for(int i = 0; i < columns.length; i++)
+		{
+			if(i > 0)
+			{
+				sb.append(", ");
+			}
+			DB2Dbms.SYNTAX.appendIdentifier(columns[i],sb);
+		}
+		sb.append(" FROM ").append(table).append(" WHERE 1 = 0");
+		
+		PreparedStatement statement = connection.prepareStatement(sb.toString());
+		try
+		{
+			ResultSetMetaData meta = statement.getMetaData();
+			String[] typeNames = new String[columns.length];
+			for(int i = 0; i < columns.length; i++)
+			{
+				types[i] = meta.getColumnType(i + 1);
+				typeNames[i] = getTypeName(meta,i + 1);
+			}
+			return typeNames;
+		}
+		finally
+		{
+			statement.close();
+		}
+	}
+	
+	
+	private static String getTypeName(ResultSetMetaData meta, int column) throws SQLException
+	{
+		String name = meta.getColumnTypeName(column);
+		int precision = meta.getPrecision(column);
+		if(name.indexOf("()") >= 0)
+		{
+			// e.g. VARCHAR () FOR BIT DATA
+			return name.replace("()","(" + precision + ")");
+		}
+		
+		switch(meta.getColumnType(column))
+		{
+			case Types.CHAR:
+			case Types.VARCHAR:
+			case Types.NCHAR:
+			case Types.NVARCHAR:
+			case Types.BINARY:
+			case Types.VARBINARY:
+			case Types.BLOB:
+			case Types.CLOB:
+			case Types.NCLOB:
+				return name + "(" + precision + ")";
+			
+			case Types.DECIMAL:
+			case Types.NUMERIC:
+				return name + "(" + precision + "," + meta.getScale(column) + ")";
+			
+			default:
+				return name;
+		}
+	}
+	
+	
+	private void rollback(Connection connection)
+	{
+		try
+		{
+			connection.rollback();
+		}
+		catch(SQLException e)
+		{
+			// the original exception is reported
+		}
+	}
+}
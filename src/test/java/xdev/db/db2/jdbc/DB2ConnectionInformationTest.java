@@ -0,0 +1,177 @@
+/*
+ * SqlEngine Database Adapter DB2 - XAPI SqlEngine Database Adapter for DB2
+ * Copyright © 2003 XDEV Software (https://xdev.software)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package xdev.db.db2.jdbc;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+import xdev.db.db2.jdbc.DB2ConnectionInformation.Server;
+
+
+/**
+ * Checks the url and driver properties of {@link DB2ConnectionInformation} and
+ * the failover properties of {@link DB2JDBCDataSource}.
+ */
+public class DB2ConnectionInformationTest
+{
+	private static final String	URL	= "jdbc:db2://db1:50000/SAMPLE:";
+	
+	
+	@Test
+	public void propertiesAreAppendedToUrl()
+	{
+		DB2ConnectionInformation info = create(null);
+		info.setProperty("currentSchema","APP");
+		info.setProperty("progressiveStreaming","1");
+		
+		assertEquals(URL + "currentSchema=APP;progressiveStreaming=1;",
+				info.createJdbcConnectionUrl());
+		assertEquals("APP",info.getUrlProperty("currentSchema"));
+		
+		info.setProperty("progressiveStreaming",null);
+		assertEquals(URL + "currentSchema=APP;",info.createJdbcConnectionUrl());
+	}
+	
+	
+	@Test
+	public void urlExtensionTakesPrecedence()
+	{
+		DB2ConnectionInformation info = create(
+				":currentSchema=OTHER;retrieveMessagesFromServerOnGetMessage=true;");
+		info.setProperty("currentSchema","APP");
+		
+		assertTrue(info.isUrlPropertiesApplicable());
+		assertEquals(URL + "currentSchema=OTHER;retrieveMessagesFromServerOnGetMessage=true;",
+				info.createJdbcConnectionUrl());
+		assertEquals("OTHER",info.getUrlProperty("currentSchema"));
+		assertEquals("APP",info.getProperty("currentSchema"));
+	}
+	
+	
+	@Test
+	public void foreignUrlExtensionIsNotMerged()
+	{
+		DB2ConnectionInformation info = create("/readOnly");
+		info.setProperty("currentSchema","APP");
+		
+		assertFalse(info.isUrlPropertiesApplicable());
+		assertEquals(null,info.getUrlProperty("currentSchema"));
+	}
+	
+	
+	@Test
+	public void alternateServers()
+	{
+		DB2ConnectionInformation info = create(null);
+		info.addAlternateServers("db2:50001, db3,db2:50001");
+		
+		assertEquals(Arrays.asList(new Server("db2",50001),new Server("db3",50000)),
+				info.getAlternateServers());
+		assertEquals(URL + "clientRerouteAlternateServerName=db2,db3;"
+				+ "clientRerouteAlternatePortNumber=50001,50000;",info.createJdbcConnectionUrl());
+	}
+	
+	
+	@Test
+	public void clientAffinitiesStartWithPrimary()
+	{
+		DB2ConnectionInformation info = create(null);
+		info.setProperty("enableClientAffinitiesList","1");
+		info.addAlternateServers("db2:50001");
+		
+		assertEquals(URL + "enableClientAffinitiesList=1;"
+				+ "clientRerouteAlternateServerName=db1,db2;"
+				+ "clientRerouteAlternatePortNumber=50000,50001;",info.createJdbcConnectionUrl());
+	}
+	
+	
+	@Test
+	public void clientAffinitiesOfUrlExtension()
+	{
+		DB2ConnectionInformation info = create(":enableClientAffinitiesList=1;");
+		info.addAlternateServers("db2:50001");
+		
+		assertEquals(URL + "enableClientAffinitiesList=1;"
+				+ "clientRerouteAlternateServerName=db1,db2;"
+				+ "clientRerouteAlternatePortNumber=50000,50001;",info.createJdbcConnectionUrl());
+	}
+	
+	
+	@Test
+	public void parseServers()
+	{
+		assertEquals(Arrays.asList(new Server("a",1),new Server("b",7),new Server("[::1]",2),
+				new Server("::1",7)),
+				DB2ConnectionInformation.parseServers("a:1, b ,[::1]:2,::1",7));
+		assertEquals(0,DB2ConnectionInformation.parseServers(null,7).size());
+		assertThrows(IllegalArgumentException.class,new Executable()
+		{
+			@Override
+			public void execute()
+			{
+				DB2ConnectionInformation.parseServers("a:x",7);
+			}
+		});
+	}
+	
+	
+	@Test
+	public void failoverProperties()
+	{
+		DB2ConnectionInformation info = create(null);
+		DB2JDBCDataSource.applyFailoverProperties(info,"db2",true,true,8,false);
+		
+		assertEquals(URL + "enableSeamlessFailover=1;enableSysplexWLB=true;"
+				+ "maxTransportObjects=8;clientRerouteAlternateServerName=db2;"
+				+ "clientRerouteAlternatePortNumber=50000;",info.createJdbcConnectionUrl());
+	}
+	
+	
+	@Test
+	public void workloadBalancingExcludesClientAffinities()
+	{
+		final DB2ConnectionInformation info = create(null);
+		assertThrows(IllegalStateException.class,new Executable()
+		{
+			@Override
+			public void execute()
+			{
+				DB2JDBCDataSource.applyFailoverProperties(info,"",false,true,0,true);
+			}
+		});
+		
+		DB2JDBCDataSource.applyFailoverProperties(info,"db2",false,false,0,true);
+		assertEquals("1",info.getProperty("enableClientAffinitiesList"));
+		assertEquals(null,info.getProperty("enableSysplexWLB"));
+	}
+	
+	
+	private static DB2ConnectionInformation create(String urlExtension)
+	{
+		return new DB2ConnectionInformation("db1",50000,"user","password","SAMPLE",urlExtension,
+				null);
+	}
+}
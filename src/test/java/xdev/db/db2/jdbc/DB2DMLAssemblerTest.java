@@ -0,0 +1,138 @@
+/*
+ * SqlEngine Database Adapter DB2 - XAPI SqlEngine Database Adapter for DB2
+ * Copyright © 2003 XDEV Software (https://xdev.software)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package xdev.db.db2.jdbc;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Checks the paging of {@link DB2DMLAssembler}: the native
+ * <code>OFFSET</code>/<code>FETCH</code> clauses, the <code>ROW_NUMBER()</code>
+ * emulation and the result column names it is built on.
+ */
+public class DB2DMLAssemblerTest
+{
+	@Test
+	public void fetchFirstWithoutOffset()
+	{
+		assertEquals(" FETCH FIRST 10 ROWS ONLY",
+				DB2DMLAssembler.appendRowLimit(10,0,true,new StringBuilder()).toString());
+		assertEquals(" FETCH FIRST 10 ROWS ONLY",
+				DB2DMLAssembler.appendRowLimit(10,0,false,new StringBuilder()).toString());
+		assertEquals("",DB2DMLAssembler.appendRowLimit(null,0,true,new StringBuilder())
+				.toString());
+	}
+	
+	
+	@Test
+	public void nativeOffset()
+	{
+		assertEquals(" OFFSET 20 ROWS FETCH NEXT 10 ROWS ONLY",
+				DB2DMLAssembler.appendRowLimit(10,20,true,new StringBuilder()).toString());
+		assertEquals(" OFFSET 20 ROWS",DB2DMLAssembler.appendRowLimit(null,20,true,
+				new StringBuilder()).toString());
+	}
+	
+	
+	@Test
+	public void emulatedOffsetFetchesSkippedRows()
+	{
+		assertEquals(" FETCH FIRST 30 ROWS ONLY",
+				DB2DMLAssembler.appendRowLimit(10,20,false,new StringBuilder()).toString());
+		assertEquals(" FETCH FIRST 2147483657 ROWS ONLY",DB2DMLAssembler.appendRowLimit(10,
+				Integer.MAX_VALUE,false,new StringBuilder()).toString());
+	}
+	
+	
+	@Test
+	public void rowNumberWrapperKeepsColumns()
+	{
+		StringBuilder sb = new StringBuilder("WITH ");
+		int start = sb.length();
+		sb.append("SELECT A.ID, B.ID, A.NAME AS N FROM A, B ORDER BY A.ID ");
+		sb.append("FETCH FIRST 30 ROWS ONLY");
+		DB2DMLAssembler.wrapRowNumberPaging(sb,start,20);
+		
+		assertEquals("WITH SELECT P.XDEV_C1 AS ID, P.XDEV_C2 AS ID, P.XDEV_C3 AS N "
+				+ "FROM (SELECT Q.*, ROW_NUMBER() OVER(ORDER BY ORDER OF Q) AS XDEV_ROW_NUMBER "
+				+ "FROM (SELECT A.ID, B.ID, A.NAME AS N FROM A, B ORDER BY A.ID "
+				+ "FETCH FIRST 30 ROWS ONLY) AS Q (XDEV_C1, XDEV_C2, XDEV_C3)) AS P "
+				+ "WHERE P.XDEV_ROW_NUMBER > 20 ORDER BY P.XDEV_ROW_NUMBER",sb.toString());
+	}
+	
+	
+	@Test
+	public void rowNumberWrapperWithStar()
+	{
+		StringBuilder sb = new StringBuilder("SELECT * FROM T");
+		DB2DMLAssembler.wrapRowNumberPaging(sb,0,5);
+		
+		assertEquals("SELECT * FROM (SELECT Q.*, ROW_NUMBER() OVER(ORDER BY ORDER OF Q) "
+				+ "AS XDEV_ROW_NUMBER FROM (SELECT * FROM T) AS Q) AS P "
+				+ "WHERE P.XDEV_ROW_NUMBER > 5 ORDER BY P.XDEV_ROW_NUMBER",sb.toString());
+	}
+	
+	
+	@Test
+	public void labelsOfAliasesAndColumnReferences()
+	{
+		assertEquals(Arrays.asList("ID","N","CNT","NAME"),labels("SELECT T.ID, T.NAME AS N, "
+				+ "COUNT(*) CNT, S.T.NAME FROM T"));
+		assertEquals(Arrays.asList("ID","NAME"),labels("SELECT DISTINCT\n\tID,\n\tNAME\nFROM T"));
+	}
+	
+	
+	@Test
+	public void labelsOfQuotedIdentifiers()
+	{
+		assertEquals(Arrays.asList("\"my col\"","\"weird\"\"x\"","\"Id\""),
+				labels("SELECT X.\"Col\" AS \"my col\", \"weird\"\"x\", \"T\".\"Id\" FROM X"));
+		assertEquals(Arrays.asList("\"a, b\"","\"2\""),
+				labels("SELECT 'x, y' AS \"a, b\", 'FROM' FROM T"));
+	}
+	
+	
+	@Test
+	public void labelsOfExpressionsArePositions()
+	{
+		assertEquals(Arrays.asList("\"1\"","\"2\"","\"3\"","\"4\""),
+				labels("SELECT F(1, 2), X + Y, CASE WHEN A > 0 THEN 1 ELSE 0 END, 42 FROM T"));
+		assertEquals(Arrays.asList("S","\"2\""),
+				labels("SELECT COALESCE(A, B) AS S, SUBSTR(C, 1, 2) FROM T"));
+	}
+	
+	
+	@Test
+	public void labelsOfStarAreUnknown()
+	{
+		assertNull(labels("SELECT * FROM T"));
+		assertNull(labels("SELECT ID, T.* FROM T"));
+	}
+	
+	
+	private static Object labels(String sql)
+	{
+		return DB2DMLAssembler.getSelectLabels(sql,0);
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * SqlEngine Database Adapter DB2 - XAPI SqlEngine Database Adapter for DB2
+ * Copyright © 2003 XDEV Software (https://xdev.software)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package xdev.db.db2.jdbc;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Checks the statements {@link DB2SchemaChangeBatch} executes against a
+ * connection which records them.
+ */
+public class DB2SchemaChangeBatchTest
+{
+	private static final String	REORG_T	= "CALL SYSPROC.ADMIN_CMD('REORG TABLE \"S\".\"T\"')";
+	
+	private final List<String>	executed	= new ArrayList<String>();
+	private final Connection	connection	= createConnection();
+	
+	
+	@Test
+	public void combinesColumnChangesOfTable() throws SQLException
+	{
+		DB2SchemaChangeBatch batch = new DB2SchemaChangeBatch();
+		batch.alterTable(connection,"\"S\".\"T\"","A","ADD COLUMN \"A\" INTEGER",false);
+		batch.alterTable(connection,"\"S\".\"T\"","B","DROP COLUMN \"B\"",true);
+		assertEquals(0,executed.size());
+		
+		batch.flush(connection);
+		assertEquals(Arrays.asList(
+				"ALTER TABLE \"S\".\"T\" ADD COLUMN \"A\" INTEGER DROP COLUMN \"B\"",
+				REORG_T),executed);
+	}
+	
+	
+	@Test
+	public void splitsChangesOfSameColumn() throws SQLException
+	{
+		DB2SchemaChangeBatch batch = new DB2SchemaChangeBatch();
+		batch.alterTable(connection,"\"S\".\"T\"","A",
+				"ALTER COLUMN \"A\" SET DATA TYPE BIGINT",true);
+		batch.alterTable(connection,"\"S\".\"T\"","A","ALTER COLUMN \"A\" SET DEFAULT 0",false);
+		batch.alterTable(connection,"\"S\".\"T\"","A","ALTER COLUMN \"A\" SET NOT NULL",true);
+		batch.flush(connection);
+		
+		assertEquals(Arrays.asList(
+				"ALTER TABLE \"S\".\"T\" ALTER COLUMN \"A\" SET DATA TYPE BIGINT",
+				REORG_T,"ALTER TABLE \"S\".\"T\" ALTER COLUMN \"A\" SET DEFAULT 0",
+				"ALTER TABLE \"S\".\"T\" ALTER COLUMN \"A\" SET NOT NULL",REORG_T),executed);
+	}
+	
+	
+	@Test
+	public void executesTableBeforeIndicesAndNextTable() throws SQLException
+	{
+		DB2SchemaChangeBatch batch = new DB2SchemaChangeBatch();
+		batch.alterTable(connection,"\"S\".\"T\"","A","DROP COLUMN \"A\"",true);
+		batch.changeIndex(connection,"\"S\".\"T\"",
+				"CREATE INDEX \"S\".\"I\" ON \"S\".\"T\" (\"B\")");
+		assertEquals(Arrays.asList("ALTER TABLE \"S\".\"T\" DROP COLUMN \"A\""),executed);
+		
+		batch.execute(connection,"\"S\".\"U\"","CREATE TABLE \"S\".\"U\" (\"ID\" INTEGER)");
+		assertEquals(Arrays.asList("ALTER TABLE \"S\".\"T\" DROP COLUMN \"A\"",REORG_T,
+				"batch: CREATE INDEX \"S\".\"I\" ON \"S\".\"T\" (\"B\")",
+				"CREATE TABLE \"S\".\"U\" (\"ID\" INTEGER)"),executed);
+		
+		executed.clear();
+		batch.flush(connection);
+		assertEquals(0,executed.size());
+	}
+	
+	
+	private Connection createConnection()
+	{
+		final InvocationHandler statement = new InvocationHandler()
+		{
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args)
+			{
+				String name = method.getName();
+				if(name.equals("execute"))
+				{
+					executed.add((String)args[0]);
+					return false;
+				}
+				if(name.equals("addBatch"))
+				{
+					executed.add("batch: " + args[0]);
+				}
+				else if(name.equals("executeBatch"))
+				{
+					return new int[0];
+				}
+				return null;
+			}
+		};
+		
+		return (Connection)Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[]{Connection.class},new InvocationHandler()
+				{
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args)
+					{
+						if(method.getName().equals("createStatement"))
+						{
+							return Proxy.newProxyInstance(getClass().getClassLoader(),
+									new Class<?>[]{Statement.class},statement);
+						}
+						return null;
+					}
+				});
+	}
+}
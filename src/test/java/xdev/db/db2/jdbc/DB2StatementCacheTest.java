@@ -0,0 +1,236 @@
+/*
+ * SqlEngine Database Adapter DB2 - XAPI SqlEngine Database Adapter for DB2
+ * Copyright © 2003 XDEV Software (https://xdev.software)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package xdev.db.db2.jdbc;
+
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Checks {@link DB2StatementCache} against a connection with stub statements.
+ */
+public class DB2StatementCacheTest
+{
+	private final List<StubStatement>			prepared	= new ArrayList<StubStatement>();
+	private final Connection					connection	= createConnection();
+	private final DB2StatementCache.Statistics	statistics	= new DB2StatementCache.Statistics();
+	
+	
+	@Test
+	public void reusesClosedStatement() throws SQLException
+	{
+		DB2StatementCache cache = new DB2StatementCache(2,statistics);
+		cache.prepareStatement(connection,connection,"A").close();
+		PreparedStatement statement = cache.prepareStatement(connection,connection,"A");
+		
+		assertEquals(1,prepared.size());
+		assertEquals(1,statistics.getHitCount());
+		assertEquals(1,statistics.getMissCount());
+		assertSame(connection,statement.getConnection());
+		assertEquals(0,cache.size());
+		
+		statement.close();
+		assertEquals(1,cache.size());
+		assertFalse(prepared.get(0).closed);
+	}
+	
+	
+	@Test
+	public void evictsLeastRecentlyUsed() throws SQLException
+	{
+		DB2StatementCache cache = new DB2StatementCache(2,statistics);
+		cache.prepareStatement(connection,connection,"A").close();
+		cache.prepareStatement(connection,connection,"B").close();
+		cache.prepareStatement(connection,connection,"A").close();
+		cache.prepareStatement(connection,connection,"C").close();
+		
+		assertEquals(2,cache.size());
+		assertEquals(1,statistics.getEvictionCount());
+		assertFalse(prepared.get(0).closed);
+		assertTrue(prepared.get(1).closed);
+		assertFalse(prepared.get(2).closed);
+		
+		cache.prepareStatement(connection,connection,"B").close();
+		assertEquals(4,prepared.size());
+		assertTrue(prepared.get(0).closed);
+	}
+	
+	
+	@Test
+	public void restoresLimitsOnGiveBack() throws SQLException
+	{
+		DB2StatementCache cache = new DB2StatementCache(2,statistics);
+		PreparedStatement statement = cache.prepareStatement(connection,connection,"A");
+		statement.setMaxRows(10);
+		statement.setFetchSize(50);
+		statement.setQueryTimeout(5);
+		statement.setString(1,"x");
+		statement.close();
+		
+		StubStatement stub = prepared.get(0);
+		assertEquals(0,stub.maxRows);
+		assertEquals(0,stub.fetchSize);
+		assertEquals(0,stub.queryTimeout);
+		assertTrue(stub.parametersCleared);
+		assertFalse(stub.closed);
+		
+		statement = cache.prepareStatement(connection,connection,"A");
+		assertEquals(0,statement.getMaxRows());
+		statement.close();
+	}
+	
+	
+	@Test
+	public void discardsStatementWithCursorName() throws SQLException
+	{
+		DB2StatementCache cache = new DB2StatementCache(2,statistics);
+		PreparedStatement statement = cache.prepareStatement(connection,connection,"A");
+		statement.setCursorName("C1");
+		statement.close();
+		
+		assertEquals(0,cache.size());
+		assertTrue(prepared.get(0).closed);
+	}
+	
+	
+	@Test
+	public void closesCachedStatements() throws SQLException
+	{
+		DB2StatementCache cache = new DB2StatementCache(2,statistics);
+		cache.prepareStatement(connection,connection,"A").close();
+		PreparedStatement inUse = cache.prepareStatement(connection,connection,"B");
+		cache.close();
+		
+		assertTrue(prepared.get(0).closed);
+		assertFalse(prepared.get(1).closed);
+		inUse.close();
+		assertTrue(prepared.get(1).closed);
+		assertEquals(0,cache.size());
+	}
+	
+	
+	@Test
+	public void driverStatementCacheDisablesCache()
+	{
+		assertFalse(new DB2ConnectionInformation("db",50000,"u","p","SAMPLE",null,null)
+				.isDriverStatementCacheEnabled());
+		assertTrue(new DB2ConnectionInformation("db",50000,"u","p","SAMPLE",
+				":maxStatements=20;",null).isDriverStatementCacheEnabled());
+		assertFalse(new DB2ConnectionInformation("db",50000,"u","p","SAMPLE",
+				":maxStatements=0;",null).isDriverStatementCacheEnabled());
+		
+		DB2ConnectionInformation info = new DB2ConnectionInformation("db",50000,"u","p",
+				"SAMPLE",null,null);
+		info.setProperty("maxStatements","10");
+		assertTrue(info.isDriverStatementCacheEnabled());
+	}
+	
+	
+	private Connection createConnection()
+	{
+		return (Connection)Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[]{Connection.class},new InvocationHandler()
+				{
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args)
+					{
+						if(method.getName().equals("prepareStatement"))
+						{
+							StubStatement stub = new StubStatement();
+							prepared.add(stub);
+							return Proxy.newProxyInstance(getClass().getClassLoader(),
+									new Class<?>[]{PreparedStatement.class},stub);
+						}
+						return null;
+					}
+				});
+	}
+	
+	
+	
+	private static class StubStatement implements InvocationHandler
+	{
+		int		maxRows;
+		int		fetchSize;
+		int		queryTimeout;
+		boolean	parametersCleared;
+		boolean	closed;
+		
+		
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args)
+		{
+			String name = method.getName();
+			if(name.equals("setMaxRows"))
+			{
+				maxRows = (Integer)args[0];
+			}
+			else if(name.equals("getMaxRows"))
+			{
+				return maxRows;
+			}
+			else if(name.equals("setFetchSize"))
+			{
+				fetchSize = (Integer)args[0];
+			}
+			else if(name.equals("getFetchSize"))
+			{
+				return fetchSize;
+			}
+			else if(name.equals("setQueryTimeout"))
+			{
+				queryTimeout = (Integer)args[0];
+			}
+			else if(name.equals("getQueryTimeout"))
+			{
+				return queryTimeout;
+			}
+			else if(name.equals("setString"))
+			{
+				parametersCleared = false;
+			}
+			else if(name.equals("clearParameters"))
+			{
+				parametersCleared = true;
+			}
+			else if(name.equals("close"))
+			{
+				closed = true;
+			}
+			else if(name.equals("isClosed"))
+			{
+				return closed;
+			}
+			return null;
+		}
+	}
+}
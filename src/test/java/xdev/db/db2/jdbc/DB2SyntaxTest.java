@@ -0,0 +1,121 @@
+/*
+ * SqlEngine Database Adapter DB2 - XAPI SqlEngine Database Adapter for DB2
+ * Copyright © 2003 XDEV Software (https://xdev.software)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package xdev.db.db2.jdbc;
+
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Checks the perfect hash of {@link DB2Syntax.KeywordTable} against the word
+ * lists: every keyword is found in any case, near misses are not.
+ */
+public class DB2SyntaxTest
+{
+	private final DB2Syntax	syntax	= DB2Dbms.SYNTAX;
+	
+	
+	@Test
+	public void reservedWordsAreFoundInAnyCase()
+	{
+		for(final String word : DB2Syntax.RESERVED_WORDS)
+		{
+			for(final String variant : caseVariants(word))
+			{
+				assertTrue(syntax.isReservedWord(variant),variant);
+				assertTrue(syntax.isKeyword(variant),variant);
+			}
+			assertTrue(syntax.needsQuoting(word),word);
+		}
+	}
+	
+	
+	@Test
+	public void nonReservedWordsAreFoundInAnyCase()
+	{
+		final Set<String> reserved = new HashSet<String>(Arrays.asList(DB2Syntax.RESERVED_WORDS));
+		for(final String word : DB2Syntax.NON_RESERVED_WORDS)
+		{
+			for(final String variant : caseVariants(word))
+			{
+				assertTrue(syntax.isKeyword(variant),variant);
+				assertFalse(syntax.isReservedWord(variant),variant);
+			}
+			assertFalse(reserved.contains(word),word);
+			assertFalse(syntax.needsQuoting(word),word);
+		}
+	}
+	
+	
+	@Test
+	public void nearMissesAreNotFound()
+	{
+		final Set<String> keywords = new HashSet<String>(Arrays.asList(DB2Syntax.RESERVED_WORDS));
+		keywords.addAll(Arrays.asList(DB2Syntax.NON_RESERVED_WORDS));
+		
+		for(final String word : keywords)
+		{
+			for(final String nearMiss : nearMisses(word))
+			{
+				if(!keywords.contains(nearMiss.toUpperCase(Locale.ENGLISH)))
+				{
+					assertFalse(syntax.isKeyword(nearMiss),nearMiss);
+					assertFalse(syntax.isReservedWord(nearMiss),nearMiss);
+				}
+			}
+		}
+		
+		assertFalse(syntax.isKeyword(""));
+		assertFalse(syntax.isKeyword("SELECT "));
+		assertFalse(syntax.isKeyword("S\u00C9LECT"));
+		assertFalse(syntax.isKeyword("CUSTOMER_ID"));
+		assertFalse(syntax.needsQuoting("CUSTOMER_ID"));
+	}
+	
+	
+	private static String[] caseVariants(final String word)
+	{
+		final StringBuilder alternating = new StringBuilder(word.length());
+		for(int i = 0; i < word.length(); i++)
+		{
+			final char c = word.charAt(i);
+			alternating.append(i % 2 == 0 ? Character.toLowerCase(c) : c);
+		}
+		final String lower = word.toLowerCase(Locale.ENGLISH);
+		final String capitalized = word.charAt(0) + lower.substring(1);
+		return new String[]{word,lower,alternating.toString(),capitalized};
+	}
+	
+	
+	private static String[] nearMisses(final String word)
+	{
+		final int length = word.length();
+		final String head = word.substring(0,length - 1);
+		final char last = word.charAt(length - 1);
+		final char next = last == 'Z' ? 'A' : (char)(last + 1);
+		return new String[]{word + "X",word + "_","X" + word,head,word.substring(1),head + next};
+	}
+}